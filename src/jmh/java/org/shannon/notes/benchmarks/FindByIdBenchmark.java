@@ -0,0 +1,83 @@
+package org.shannon.notes.benchmarks;
+
+import lombok.val;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.MMapDirectory;
+import org.openjdk.jmh.annotations.*;
+import org.shannon.notes.entities.Note;
+import org.shannon.notes.repositories.impl.LuceneNoteRepository;
+import org.shannon.notes.repositories.impl.RepositorySettings;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency percentiles (see the p0.50/p0.99 lines) of id lookups through the id term, with and without the location
+ * cache, against the exact point query findByID used to run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class FindByIdBenchmark {
+    @Param({"100000"})
+    public int indexSize;
+
+    @Param({"0", "100000"})
+    public long idCacheSize;
+
+    private LuceneNoteRepository repository;
+    private DirectoryReader reader;
+    private IndexSearcher searcher;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        val directory = new MMapDirectory(Files.createTempDirectory("find-benchmark"));
+        repository = new LuceneNoteRepository(directory, RepositorySettings.builder().idCacheSize(idCacheSize).build());
+        val batch = new ArrayList<Note>();
+        for (int i = 0; i < indexSize; i++) {
+            batch.add(new Note(null, "Note number " + i));
+            if (batch.size() == 10_000) {
+                repository.save(batch);
+                batch.clear();
+            }
+        }
+        repository.save(batch);
+        reader = DirectoryReader.open(directory);
+        searcher = new IndexSearcher(reader);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        reader.close();
+        repository.close();
+    }
+
+    private long randomId() {
+        return ThreadLocalRandom.current().nextLong(1, indexSize + 1);
+    }
+
+    @Benchmark
+    public Optional<Note> idTerm() {
+        return repository.findByID(randomId());
+    }
+
+    /**
+     * What findByID used to do: a scored exact point query, then load and parse the document
+     */
+    @Benchmark
+    public Optional<Note> pointQuery() throws IOException {
+        val topDocs = searcher.search(LongPoint.newExactQuery("id", randomId()), 1);
+        return topDocs.scoreDocs.length == 0
+                ? Optional.empty()
+                : Optional.of(Note.fromDocument(searcher.doc(topDocs.scoreDocs[0].doc)));
+    }
+}
@@ -0,0 +1,105 @@
+package org.shannon.notes.benchmarks;
+
+import lombok.val;
+import org.openjdk.jmh.annotations.*;
+import org.shannon.notes.controllers.NoteController;
+import org.shannon.notes.entities.Note;
+import org.springframework.http.ResponseEntity;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the NoteController paths that do more than hand straight through to the repository, against the same
+ * populated indexes as RepositoryBenchmark.  Serializing the response is left to Spring and is not measured here.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class NoteControllerBenchmark {
+    private NoteController controller;
+    private String listETag;
+
+    @Setup(Level.Trial)
+    public void setUp(PopulatedRepository populated) {
+        controller = new NoteController(populated.repository);
+    }
+
+    /**
+     * Setting the commit data as the repository opens moves the index version once, at its first refresh, so the ETag a
+     * client would be polling with is taken afresh for each iteration.
+     */
+    @Setup(Level.Iteration)
+    public void takeListETag() {
+        listETag = list().getHeaders().getETag();
+    }
+
+    /**
+     * PUT /api/notes/{id} without If-Match
+     */
+    @Benchmark
+    public ResponseEntity<?> put(PopulatedRepository populated) {
+        val id = populated.randomId();
+        return controller.put(id, new Note(null, SyntheticNotes.body(id)), null, null).join();
+    }
+
+    /**
+     * PUT /api/notes/{id} with the If-Match of the note as it is now
+     */
+    @Benchmark
+    public ResponseEntity<?> conditionalPut(PopulatedRepository populated) {
+        val id = populated.randomId();
+        val current = controller.get(id, null, null);
+        return controller.put(id, new Note(null, SyntheticNotes.body(id)), current.getHeaders().getETag(), null).join();
+    }
+
+    /**
+     * GET /api/notes/{id}
+     */
+    @Benchmark
+    public ResponseEntity<?> get(PopulatedRepository populated) {
+        return controller.get(populated.randomId(), null, null);
+    }
+
+    /**
+     * GET /api/notes?query=...&size=10
+     */
+    @Benchmark
+    public ResponseEntity<?> query() {
+        return controller.get(SyntheticNotes.query(), 10, null, false, "notes", 100, "relevance", "asc", null, null, null, null, null, null, null, null, null);
+    }
+
+    /**
+     * GET /api/notes?query=...&size=10&fields=ids
+     */
+    @Benchmark
+    public ResponseEntity<?> queryIds() {
+        return controller.get(SyntheticNotes.query(), 10, null, false, "ids", 100, "relevance", "asc", null, null, null, null, null, null, null, null, null);
+    }
+
+    /**
+     * GET /api/notes?query=...&size=10&fields=snippets
+     */
+    @Benchmark
+    public ResponseEntity<?> querySnippets() {
+        return controller.get(SyntheticNotes.query(), 10, null, false, "snippets", 100, "relevance", "asc", null, null, null, null, null, null, null, null, null);
+    }
+
+    /**
+     * GET /api/notes?size=100
+     */
+    @Benchmark
+    public ResponseEntity<?> list() {
+        return controller.get(null, 100, null, false, "notes", 100, "relevance", "asc", null, null, null, null, null, null, null, null, null);
+    }
+
+    /**
+     * GET /api/notes?size=100 polled with the ETag it had, nothing having been written since
+     */
+    @Benchmark
+    public ResponseEntity<?> listNotModified() {
+        return controller.get(null, 100, null, false, "notes", 100, "relevance", "asc", null, null, null, null, null, null, null, null, listETag);
+    }
+}
@@ -0,0 +1,98 @@
+package org.shannon.notes.benchmarks;
+
+import lombok.val;
+import org.apache.lucene.store.*;
+import org.openjdk.jmh.annotations.*;
+import org.shannon.notes.entities.Note;
+import org.shannon.notes.repositories.impl.LuceneNoteRepository;
+import org.shannon.notes.repositories.impl.RepositorySettings;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+/**
+ * A repository already holding indexSize synthetic notes, on memory mapped files or on the heap.
+ *
+ * Building millions of notes takes a while, so each size is built once into the temp directory and every trial
+ * starts from a fresh copy of it.  Delete notes-benchmark-* there to rebuild.  Bump SCHEMA whenever what the
+ * repository writes changes, so no run benchmarks an index built the old way.
+ */
+@State(Scope.Benchmark)
+public class PopulatedRepository {
+    public enum DirectoryType { MMAP, HEAP }
+
+    private static final int BATCH_SIZE = 10_000;
+    private static final int SCHEMA = 2;                            // 2: versions in doc values, id high water in commits
+
+    @Param({"10000", "1000000", "10000000"})
+    public int indexSize;
+
+    @Param({"MMAP", "HEAP"})
+    public DirectoryType directoryType;
+
+    LuceneNoteRepository repository;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        val template = template(indexSize);
+        Directory directory;
+        if (directoryType == DirectoryType.HEAP) {
+            directory = new ByteBuffersDirectory();
+            try (val onDisk = FSDirectory.open(template)) {
+                for (val file : onDisk.listAll()) {
+                    directory.copyFrom(onDisk, file, file, IOContext.DEFAULT);
+                }
+            }
+        } else {
+            val copy = Files.createTempDirectory("notes-benchmark-trial");
+            try (Stream<Path> files = Files.list(template)) {
+                for (val file : (Iterable<Path>) files::iterator) {
+                    Files.copy(file, copy.resolve(file.getFileName()));
+                }
+            }
+            directory = new MMapDirectory(copy);
+        }
+        repository = new LuceneNoteRepository(directory, RepositorySettings.builder().build());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        repository.close();
+    }
+
+    /**
+     * Build the index of the given size unless an earlier run already did
+     */
+    private static Path template(int indexSize) throws IOException {
+        val template = Paths.get(System.getProperty("java.io.tmpdir"), "notes-benchmark-v" + SCHEMA + "-" + indexSize);
+        if (Files.isDirectory(template)) { return template; }
+
+        val building = Files.createTempDirectory("notes-benchmark-building");
+        try (val builder = new LuceneNoteRepository(new MMapDirectory(building))) {
+            val batch = new ArrayList<Note>(BATCH_SIZE);
+            for (long i = 1; i <= indexSize; i++) {
+                batch.add(new Note(null, SyntheticNotes.body(i)));
+                if (batch.size() == BATCH_SIZE) {
+                    builder.save(batch);
+                    batch.clear();
+                }
+            }
+            builder.save(batch);
+        }
+        Files.move(building, template, StandardCopyOption.ATOMIC_MOVE);
+        return template;
+    }
+
+    /**
+     * @return  The id of some note the index was built with
+     */
+    long randomId() {
+        return ThreadLocalRandom.current().nextLong(1, indexSize + 1);
+    }
+}
@@ -0,0 +1,128 @@
+package org.shannon.notes.benchmarks;
+
+import lombok.val;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.shannon.notes.entities.Note;
+import org.shannon.notes.repositories.Aggregation;
+import org.shannon.notes.repositories.AggregationQuery;
+import org.shannon.notes.repositories.NoteFilter;
+import org.shannon.notes.repositories.NotePage;
+import org.shannon.notes.repositories.NoteQuery;
+import org.shannon.notes.repositories.NoteSort;
+import org.shannon.notes.repositories.Suggestion;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of every LuceneNoteRepository hot path against indexes of 10k, 1M and 10M synthetic notes on memory mapped
+ * files and on the heap.  Pick sizes with -Pjmh.indexSize=10000,1000000 and concurrency with -Pjmh.threads=16.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class RepositoryBenchmark {
+    /**
+     * A note of this thread's own to delete, saved before each delete so the index the others read never shrinks
+     */
+    @State(Scope.Thread)
+    public static class NoteToDelete {
+        Note note;
+
+        @Setup(Level.Invocation)
+        public void setUp(PopulatedRepository populated) {
+            note = populated.repository.save(new Note(null, SyntheticNotes.body(System.nanoTime())));
+        }
+    }
+
+    @Benchmark
+    public Note save(PopulatedRepository populated) {
+        return populated.repository.save(new Note(null, SyntheticNotes.body(System.nanoTime())));
+    }
+
+    @Benchmark
+    public Optional<Note> findByID(PopulatedRepository populated) {
+        return populated.repository.findByID(populated.randomId());
+    }
+
+    /**
+     * Searches as they come, skewed towards the popular words, so hot queries are mostly answered by the result cache
+     */
+    @Benchmark
+    public void search(PopulatedRepository populated, Blackhole blackhole) {
+        populated.repository.search(SyntheticNotes.query(), 10).forEach(blackhole::consume);
+    }
+
+    /**
+     * The same searches parsed and run against the index every time, as right after a write: the result cache is
+     * cleared first, as in prefixSearch
+     */
+    @Benchmark
+    public void uncachedSearch(PopulatedRepository populated, Blackhole blackhole) {
+        populated.repository.getSearchCache().clearResults();
+        populated.repository.search(SyntheticNotes.query(), 10).forEach(blackhole::consume);
+    }
+
+    /**
+     * What typeahead used to send on every keystroke: a wildcard query over the body's term dictionary.  There are
+     * only so many prefixes, so the result cache is cleared first, as any write would.
+     */
+    @Benchmark
+    public void prefixSearch(PopulatedRepository populated, Blackhole blackhole) {
+        populated.repository.getSearchCache().clearResults();
+        populated.repository.search("body:" + SyntheticNotes.prefix() + "*", 10).forEach(blackhole::consume);
+    }
+
+    /**
+     * What typeahead sends now: the most used words starting with what was typed, straight out of the suggester
+     */
+    @Benchmark
+    public List<Suggestion> suggest(PopulatedRepository populated) {
+        return populated.repository.suggest(SyntheticNotes.prefix(), 10);
+    }
+
+    @Benchmark
+    public Iterable<Note> findAll(PopulatedRepository populated) {
+        return populated.repository.findAll();
+    }
+
+    /**
+     * What a dashboard asks for instead of a findAll: how many notes match and how many were written each day
+     */
+    @Benchmark
+    public Aggregation aggregate(PopulatedRepository populated) {
+        return populated.repository.aggregate(AggregationQuery.builder()
+                .queryString(SyntheticNotes.query())
+                .histogram(AggregationQuery.DateField.UPDATED)
+                .build());
+    }
+
+    /**
+     * What a listing asks for: the last updated notes first, out of the older half of them.  The id range is the same
+     * every time, so after a few calls it is a cached bitset per segment.
+     */
+    @Benchmark
+    public NotePage listFiltered(PopulatedRepository populated) {
+        return populated.repository.page(NoteQuery.builder()
+                .size(10)
+                .sort(NoteSort.UPDATED)
+                .descending(true)
+                .filter(NoteFilter.builder().idTo(populated.indexSize / 2L).build())
+                .build());
+    }
+
+    @Benchmark
+    public void delete(PopulatedRepository populated, NoteToDelete toDelete) {
+        populated.repository.delete(toDelete.note.getId());
+    }
+
+    @Benchmark
+    public Optional<Note> update(PopulatedRepository populated) {
+        val id = populated.randomId();
+        return populated.repository.update(new Note(id, SyntheticNotes.body(id)), null);
+    }
+}
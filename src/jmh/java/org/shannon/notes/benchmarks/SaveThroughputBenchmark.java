@@ -0,0 +1,56 @@
+package org.shannon.notes.benchmarks;
+
+import lombok.val;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NRTCachingDirectory;
+import org.openjdk.jmh.annotations.*;
+import org.shannon.notes.entities.Note;
+import org.shannon.notes.repositories.impl.DurabilityMode;
+import org.shannon.notes.repositories.impl.LuceneNoteRepository;
+import org.shannon.notes.repositories.impl.RepositorySettings;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares how many notes per second concurrent posters can save when every save commits on its own versus when
+ * concurrent saves share a group commit or a logged sync, with and without newly flushed segments cached in memory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(16)
+public class SaveThroughputBenchmark {
+    @Param({"COMMIT_PER_WRITE", "GROUP_COMMIT", "WRITE_AHEAD_LOG"})
+    public DurabilityMode durabilityMode;
+
+    @Param({"0", "60"})
+    public double nrtCacheMB;
+
+    private LuceneNoteRepository repository;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        val path = Files.createTempDirectory("save-benchmark");
+        val settings = RepositorySettings.builder()
+                .durabilityMode(durabilityMode)
+                .walDirectory(path.resolve("wal"))
+                .build();
+        val mapped = new MMapDirectory(path);
+        repository = new LuceneNoteRepository(nrtCacheMB > 0 ? new NRTCachingDirectory(mapped, 5, nrtCacheMB) : mapped, settings);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        repository.close();
+    }
+
+    @Benchmark
+    public Note save() {
+        return repository.save(new Note(null, "Drop by drop is the water pot filled."));
+    }
+}
@@ -0,0 +1,86 @@
+package org.shannon.notes.benchmarks;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.val;
+import org.openjdk.jmh.annotations.*;
+import org.shannon.notes.controllers.NoteProtobuf;
+import org.shannon.notes.entities.Note;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * How long a full page of notes takes to encode and to decode as JSON and as length prefixed protocol buffers, with
+ * and without gzip.  How many bytes each puts on the wire is printed at the start of every trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SerializationBenchmark {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final TypeReference<List<Note>> NOTES = new TypeReference<List<Note>>() {};
+
+    public enum Format { JSON, PROTOBUF }
+
+    @Param({"JSON", "PROTOBUF"})
+    public Format format;
+
+    @Param({"false", "true"})
+    public boolean gzip;
+
+    @Param({"10000"})
+    public int pageSize;
+
+    private List<Note> notes;
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        notes = LongStream.range(0, pageSize)
+                .mapToObj(i -> new Note(i, SyntheticNotes.body(i), 1546300800000L + i, 1546300000000L + i
+                        , Collections.singletonList("tag" + i % 10)))
+                .collect(Collectors.toList());
+        encoded = encode();
+        System.out.println();
+        System.out.println(format + (gzip ? " gzipped" : "") + ": " + encoded.length + " bytes for " + pageSize
+                + " notes, " + encoded.length / pageSize + " per note");
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        val bytes = new ByteArrayOutputStream();
+        try (OutputStream out = gzip ? new GZIPOutputStream(bytes) : bytes) {
+            if (format == Format.JSON) {
+                MAPPER.writeValue(out, notes);
+            } else {
+                for (val note : notes) { NoteProtobuf.write(note, out); }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public List<Note> decode() throws IOException {
+        try (InputStream in = gzip ? new GZIPInputStream(new ByteArrayInputStream(encoded)) : new ByteArrayInputStream(encoded)) {
+            if (format == Format.JSON) { return MAPPER.readValue(in, NOTES); }
+            val decoded = new ArrayList<Note>(pageSize);
+            for (Note note = NoteProtobuf.readNote(in); note != null; note = NoteProtobuf.readNote(in)) { decoded.add(note); }
+            return decoded;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.shannon.notes.benchmarks;
+
+import lombok.val;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Made up notes whose words follow a rough Zipf curve, so some query terms match most notes and most match few, the
+ * way words in real text do.  The same note number always gives the same body.
+ */
+final class SyntheticNotes {
+    private static final int VOCABULARY = 50_000;
+    private static final int WORDS_PER_NOTE = 20;
+    private static final int QUERY_VOCABULARY = 5_000;
+
+    private SyntheticNotes() {
+    }
+
+    private static String word(double uniform, int vocabulary) {
+        return "w" + ((int) Math.pow(vocabulary, uniform) - 1);     // log-uniform, close enough to Zipf
+    }
+
+    /**
+     * @param number    Which note
+     * @return          Its body
+     */
+    static String body(long number) {
+        val random = new SplittableRandom(number);
+        val body = new StringBuilder();
+        for (int i = 0; i < WORDS_PER_NOTE; i++) {
+            if (i > 0) { body.append(' '); }
+            body.append(word(random.nextDouble(), VOCABULARY));
+        }
+        return body.toString();
+    }
+
+    /**
+     * @return  A two word query drawn from the more common words
+     */
+    static String query() {
+        val random = ThreadLocalRandom.current();
+        return word(random.nextDouble(), QUERY_VOCABULARY) + " " + word(random.nextDouble(), QUERY_VOCABULARY);
+    }
+
+    /**
+     * @return  The first two or three characters of a word, as typed into a search box
+     */
+    static String prefix() {
+        return "w" + ThreadLocalRandom.current().nextInt(1, 100);
+    }
+}
@@ -0,0 +1,12 @@
+package org.shannon.function;
+
+/**
+ * Some consumer that throws.
+ *
+ * @param <E>       What kind of Throwable the consumer might throw
+ * @param <T>       What type the consumer accepts
+ */
+@FunctionalInterface
+public interface ExceptionalConsumer<E extends Throwable, T> {
+    void accept(T t) throws E;
+}
@@ -0,0 +1,13 @@
+package org.shannon.function;
+
+/**
+ * Some function that throws.
+ *
+ * @param <E>       What kind of Throwable the function might throw
+ * @param <T>       What type the function accepts
+ * @param <R>       What type the function returns
+ */
+@FunctionalInterface
+public interface ExceptionalFunction<E extends Throwable, T, R> {
+    R apply(T t) throws E;
+}
@@ -2,16 +2,43 @@ package org.shannon.notes;
 
 import lombok.val;
 import org.apache.commons.cli.*;
+import org.apache.lucene.util.IOUtils;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NRTCachingDirectory;
+import org.shannon.notes.repositories.IndexMaintenance;
+import org.shannon.notes.repositories.NoteRepository;
+import org.shannon.notes.repositories.impl.DurabilityMode;
+import org.shannon.notes.repositories.impl.HttpReplicationSource;
+import org.shannon.notes.repositories.impl.IndexBackup;
+import org.shannon.notes.repositories.impl.IndexReplicationSource;
+import org.shannon.notes.repositories.impl.IndexTuningProfile;
+import org.shannon.notes.repositories.impl.InstrumentedNoteRepository;
+import org.shannon.notes.repositories.impl.LuceneNoteRepository;
+import org.shannon.notes.repositories.impl.PreloadingDirectory;
+import org.shannon.notes.repositories.impl.QueuedNoteRepository;
+import org.shannon.notes.repositories.impl.ReplicaSync;
+import org.shannon.notes.repositories.impl.RepositorySettings;
+import org.shannon.notes.repositories.impl.ShardedNoteRepository;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.event.ApplicationEnvironmentPreparedEvent;
+import org.springframework.context.ApplicationListener;
 import org.springframework.context.annotation.PropertySource;
 import org.springframework.context.annotation.PropertySources;
+import org.springframework.core.env.Environment;
 
 import java.io.IOException;
+import java.net.URI;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 @SpringBootApplication
 @PropertySources(value = { @PropertySource(value = "classpath:/application.properties") })
@@ -22,36 +49,313 @@ public class Main {
     public static Directory directory;
 
     /**
-     * Print the help
+     * Where directory lives, shards go in shard-N directories under it.
+     */
+    public static Path path;
+
+    /**
+     * How many indexes to spread notes over, 1 for a single index in directory.
+     */
+    public static int shards = 1;
+
+    /**
+     * Where the index is backed up to, null unless a backup directory was given.
+     */
+    public static Path backupPath;
+
+    /**
+     * The primary this replica copies its index from, null unless this is a replica.
+     */
+    public static URI primary;
+
+    /**
+     * How often a replica asks the primary for a new commit.
+     */
+    public static long replicationIntervalMillis = 1000;
+
+    /**
+     * Megabytes of newly flushed segments a primary keeps in memory until a commit or merge writes them out, 0 for none.
+     */
+    public static double nrtCacheMB = 60;
+
+    /**
+     * Extensions of the index files to page in as they are opened, none by default.
+     */
+    public static Set<String> preloadExtensions = Collections.emptySet();
+
+    /**
+     * The tuning profile from the command line, null to take notes.tuningProfile from Spring's properties.
+     */
+    private static IndexTuningProfile tuningProfile;
+
+    private static final double NRT_CACHE_SEGMENT_MB = 5;
+    private static final int REPLICATION_TIMEOUT_MILLIS = 10_000;
+    private static final long REPLICATION_RETAIN_MILLIS = 60_000;
+
+    private static NoteRepository repository;
+    private static IndexMaintenance maintenance;
+    private static final List<IndexReplicationSource> replicationSources = new ArrayList<>();  // one per shard on a primary
+    private static final List<ReplicaSync> replicaSyncs = new ArrayList<>();                  // one per shard on a replica
+
+    /**
+     * How the repository over directory should run.
+     */
+    public static RepositorySettings settings = RepositorySettings.builder().build();
+
+    /**
+     * Print the help and exit
      *
      * @param options   The options to print
+     * @param status    What to exit with, non-zero if the command line was wrong
      */
-    private static void printHelp(Options options) {
+    private static void printHelp(Options options, int status) {
         new HelpFormatter().printHelp("java -jar noteRepository.jar <args>", options);
-        System.exit(0);
+        System.exit(status);
     }
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         val options = generateOptions();
+        Path restoreFrom = null;
         try {
             val line = new DefaultParser().parse(options, args);
 
             if (line.hasOption("help")) {
-                printHelp(options);
+                printHelp(options, 0);
             } else if (line.hasOption("tempDir")) {
-                directory = new MMapDirectory(Files.createTempDirectory("LuceneNotes"));
+                path = Files.createTempDirectory("LuceneNotes");
             } else if (line.hasOption("directory")) {
-                directory = new MMapDirectory(FileSystems.getDefault().getPath(line.getOptionValue("directory")));
+                path = FileSystems.getDefault().getPath(line.getOptionValue("directory"));
             } else {
-                printHelp(options);
+                printHelp(options, 1);
+            }
+            if (line.hasOption("shards")) {
+                shards = Integer.parseInt(line.getOptionValue("shards"));
+                if (shards < 1) { throw new IllegalArgumentException("Need at least one shard."); }
+            }
+            if (line.hasOption("backup")) {
+                backupPath = FileSystems.getDefault().getPath(line.getOptionValue("backup"));
+            }
+            if (line.hasOption("restore")) {
+                restoreFrom = FileSystems.getDefault().getPath(line.getOptionValue("restore"));
             }
-            SpringApplication.run(Main.class, args);
+            if (line.hasOption("primary")) {
+                primary = URI.create(line.getOptionValue("primary").replaceAll("/+$", ""));
+            }
+            if (line.hasOption("replicationInterval")) {
+                replicationIntervalMillis = Long.parseLong(line.getOptionValue("replicationInterval"));
+            }
+            if (line.hasOption("nrtCacheMB")) {
+                nrtCacheMB = Double.parseDouble(line.getOptionValue("nrtCacheMB"));
+            }
+            if (line.hasOption("tuning")) {
+                tuningProfile = IndexTuningProfile.valueOf(line.getOptionValue("tuning").toUpperCase());
+            }
+            if (line.hasOption("preload")) {
+                preloadExtensions = new HashSet<>(Arrays.asList(line.getOptionValue("preload").trim().split("\\s*,\\s*")));
+            }
+            settings = settingsFrom(line);
+        } catch (ParseException | IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printHelp(options, 1);
+        }
 
-        } catch (ParseException e) {
-            printHelp(options);
-        } catch (IOException e) {
-            e.printStackTrace();
+        // past the command line, anything that goes wrong is thrown out of main so the process exits non-zero
+        if (restoreFrom != null) { restore(restoreFrom); }
+        directory = openDirectory(path);
+        val application = new SpringApplication(Main.class);
+        application.addListeners((ApplicationListener<ApplicationEnvironmentPreparedEvent>) event ->
+                settings = settings.toBuilder().tuningProfile(tuningProfileFrom(event.getEnvironment())).build());
+        application.run(args);
+    }
+
+    /**
+     * The repository the command line asked for: one index in directory or several shards under path, timing every
+     * call into it and queueing asynchronous writes.  Opened on first use and shared from then on.
+     *
+     * @return              The repository
+     * @throws IOException  If an index cannot be opened
+     */
+    public static synchronized NoteRepository openRepository() throws IOException {
+        if (repository != null) { return repository; }
+        if (shards <= 1) {
+            pullFirstCommits(Collections.singletonList(directory));
+            val single = new LuceneNoteRepository(directory, settings);
+            replicate(Collections.singletonList(single));
+            maintenance = single;
+            repository = queued(new InstrumentedNoteRepository(single, settings.getMeterRegistry()));
+        } else {
+            val directories = new ArrayList<Directory>(shards);
+            for (int i = 0; i < shards; i++) {
+                directories.add(openDirectory(path.resolve("shard-" + i)));
+            }
+            pullFirstCommits(directories);
+            val sharded = new ShardedNoteRepository(directories, settings);
+            replicate(sharded.getShards());
+            maintenance = sharded;
+            repository = queued(new InstrumentedNoteRepository(sharded, settings.getMeterRegistry()));
         }
+        return repository;
+    }
+
+    /**
+     * An index's directory: memory mapped, paging in the hot files asked for as they are opened, and on a primary
+     * keeping small newly flushed segments in memory until a commit or a merge writes them out.  A replica only ever
+     * writes whole commits, so it skips the cache.
+     */
+    private static Directory openDirectory(Path indexPath) throws IOException {
+        val mapped = new MMapDirectory(indexPath);
+        Directory opened = preloadExtensions.isEmpty() ? mapped : new PreloadingDirectory(mapped, preloadExtensions);
+        if (primary == null && nrtCacheMB > 0) {
+            opened = new NRTCachingDirectory(opened, Math.min(NRT_CACHE_SEGMENT_MB, nrtCacheMB), nrtCacheMB);
+        }
+        return opened;
+    }
+
+    /**
+     * On a replica, copy the primary's latest commit into every shard that has none yet, so there is something to open
+     */
+    private static void pullFirstCommits(List<Directory> directories) throws IOException {
+        if (primary == null) { return; }
+        for (int i = 0; i < directories.size(); i++) {
+            val sync = new ReplicaSync(new HttpReplicationSource(URI.create(primary + "/api/replication/shards/" + i)
+                    , REPLICATION_TIMEOUT_MILLIS), directories.get(i));
+            if (sync.getGeneration() < 0) { sync.pull(); }
+            replicaSyncs.add(sync);
+        }
+    }
+
+    /**
+     * A replica's shards follow the primary's; a primary's shards publish their commits for replicas to copy
+     */
+    private static void replicate(List<LuceneNoteRepository> opened) {
+        for (int i = 0; i < opened.size(); i++) {
+            if (primary != null) { replicaSyncs.get(i).follow(opened.get(i), replicationIntervalMillis); }
+            else { replicationSources.add(new IndexReplicationSource(opened.get(i), REPLICATION_RETAIN_MILLIS)); }
+        }
+    }
+
+    /**
+     * @return              What publishes each shard's commits, by shard, empty on a replica
+     * @throws IOException  If an index cannot be opened
+     */
+    public static synchronized List<IndexReplicationSource> openReplicationSources() throws IOException {
+        openRepository();
+        return Collections.unmodifiableList(replicationSources);
+    }
+
+    /**
+     * @return              What keeps each shard up to date with the primary, by shard, empty on a primary
+     * @throws IOException  If an index cannot be opened
+     */
+    public static synchronized List<ReplicaSync> openReplicaSyncs() throws IOException {
+        openRepository();
+        return Collections.unmodifiableList(replicaSyncs);
+    }
+
+    /**
+     * Replace the index under path with a backup before anything opens it.  The write-ahead log is dropped as well,
+     * it describes writes to the index being replaced.
+     *
+     * @param backup        A directory the index was backed up into, with shard-N directories if sharded
+     * @throws IOException  If the backup holds no index or copying fails
+     */
+    private static void restore(Path backup) throws IOException {
+        if (shards <= 1) {
+            IndexBackup.restore(backup, path);
+        } else {
+            for (int i = 0; i < shards; i++) {
+                IndexBackup.restore(backup.resolve("shard-" + i), path.resolve("shard-" + i));
+            }
+        }
+        IOUtils.rm(path.resolve("wal"));
+    }
+
+    private static NoteRepository queued(NoteRepository repository) {
+        return new QueuedNoteRepository(repository, settings.getIngestThreadsToRun(), settings.getIngestQueueCapacity(), settings.getMeterRegistry());
+    }
+
+    /**
+     * @return              Housekeeping on the same indexes as openRepository()
+     * @throws IOException  If an index cannot be opened
+     */
+    public static synchronized IndexMaintenance openMaintenance() throws IOException {
+        openRepository();
+        return maintenance;
+    }
+
+    /**
+     * The tuning profile from the command line, or else notes.tuningProfile from wherever Spring reads properties:
+     * application.properties, the environment, system properties or --notes.tuningProfile=...
+     *
+     * @param environment   Spring's environment, ready before any bean opens the repository
+     * @return              The profile to tune the index writer with
+     */
+    private static IndexTuningProfile tuningProfileFrom(Environment environment) {
+        if (tuningProfile != null) { return tuningProfile; }
+        return IndexTuningProfile.valueOf(environment.getProperty("notes.tuningProfile", "default").trim().toUpperCase());
+    }
+
+    /**
+     * Read the repository settings out of a parsed command line, leaving anything not supplied at its default.  The
+     * tuning profile is filled in once Spring has read its properties.
+     *
+     * @param line      The parsed command line
+     * @return          The settings to run the repository with
+     */
+    private static RepositorySettings settingsFrom(CommandLine line) {
+        val builder = RepositorySettings.builder()
+                .walDirectory(path.resolve("wal"))
+                .readOnly(primary != null);
+        if (line.hasOption("refreshInterval")) {
+            builder.refreshIntervalMillis(Long.parseLong(line.getOptionValue("refreshInterval")));
+        }
+        if (line.hasOption("durability")) {
+            builder.durabilityMode(DurabilityMode.valueOf(line.getOptionValue("durability").toUpperCase()));
+        }
+        if (line.hasOption("maxBatchSize")) {
+            builder.maxBatchSize(Integer.parseInt(line.getOptionValue("maxBatchSize")));
+        }
+        if (line.hasOption("maxBatchDelay")) {
+            builder.maxBatchDelayMillis(Long.parseLong(line.getOptionValue("maxBatchDelay")));
+        }
+        if (line.hasOption("checkpointInterval")) {
+            builder.checkpointIntervalMillis(Long.parseLong(line.getOptionValue("checkpointInterval")));
+        }
+        if (line.hasOption("idCacheSize")) {
+            builder.idCacheSize(Long.parseLong(line.getOptionValue("idCacheSize")));
+        }
+        if (line.hasOption("resultCacheMB")) {
+            builder.resultCacheMaxWeight(Long.parseLong(line.getOptionValue("resultCacheMB")) * 1024 * 1024);
+        }
+        if (line.hasOption("filterCacheMB")) {
+            val megabytes = Long.parseLong(line.getOptionValue("filterCacheMB"));
+            if (megabytes > 0) { builder.filterCacheMaxBytes(megabytes * 1024 * 1024); }
+            else { builder.filterCacheSize(0); }
+        }
+        if (line.hasOption("suggestInterval")) {
+            builder.suggestRebuildMillis(Long.parseLong(line.getOptionValue("suggestInterval")));
+        }
+        if (line.hasOption("searchThreads")) {
+            builder.searchThreads(Integer.parseInt(line.getOptionValue("searchThreads")));
+        }
+        if (line.hasOption("minSliceDocs")) {
+            builder.minSliceDocs(Integer.parseInt(line.getOptionValue("minSliceDocs")));
+        }
+        if (line.hasOption("ingestThreads")) {
+            builder.ingestThreads(Integer.parseInt(line.getOptionValue("ingestThreads")));
+        }
+        if (line.hasOption("ingestQueue")) {
+            builder.ingestQueueCapacity(Integer.parseInt(line.getOptionValue("ingestQueue")));
+        }
+        if (line.hasOption("idBlockSize")) {
+            builder.idBlockSize(Integer.parseInt(line.getOptionValue("idBlockSize")));
+        }
+        if (line.hasOption("node")) {
+            val node = line.getOptionValue("node").split("/");
+            if (node.length != 2) { throw new IllegalArgumentException("node should look like 0/3"); }
+            builder.nodeId(Integer.parseInt(node[0])).nodeCount(Integer.parseInt(node[1]));
+        }
+        return builder.build();
     }
 
     /**
@@ -81,9 +385,193 @@ public class Main {
                 .hasArg(false)
                 .build();
 
+        val refreshInterval = Option.builder("r")
+                .required(false)
+                .desc("How often in milliseconds the shared searcher picks up new writes in the background. Defaults to 1000, 0 disables it")
+                .longOpt("refreshInterval")
+                .hasArg()
+                .build();
+
+        val durability = Option.builder("c")
+                .required(false)
+                .desc("How writes become durable: commit_per_write (the default) commits every write, group_commit lets concurrent writes share a commit, write_ahead_log syncs a log under the directory and commits in the background")
+                .longOpt("durability")
+                .hasArg()
+                .build();
+
+        val maxBatchSize = Option.builder("b")
+                .required(false)
+                .desc("With group_commit, the most writes released by one commit. Defaults to 256")
+                .longOpt("maxBatchSize")
+                .hasArg()
+                .build();
+
+        val maxBatchDelay = Option.builder("w")
+                .required(false)
+                .desc("With group_commit, how long in milliseconds a commit waits for more writes to join it. Defaults to 0")
+                .longOpt("maxBatchDelay")
+                .hasArg()
+                .build();
+
+        val checkpointInterval = Option.builder("x")
+                .required(false)
+                .desc("With write_ahead_log, how often in milliseconds the index is committed so the log before it can be dropped. Defaults to 5000")
+                .longOpt("checkpointInterval")
+                .hasArg()
+                .build();
+
+        val idCacheSize = Option.builder("i")
+                .required(false)
+                .desc("How many id lookups to remember the segment and doc of. Defaults to 100000, 0 turns the cache off")
+                .longOpt("idCacheSize")
+                .hasArg()
+                .build();
+
+        val resultCacheMB = Option.builder("q")
+                .required(false)
+                .desc("Roughly how many megabytes of search results to remember until the next write. Defaults to 32, 0 turns the cache off")
+                .longOpt("resultCacheMB")
+                .hasArg()
+                .build();
+
+        val filterCacheMB = Option.builder("f")
+                .required(false)
+                .desc("Roughly how many megabytes of filter bitsets to keep per index. Defaults to 32, 0 turns the cache off")
+                .longOpt("filterCacheMB")
+                .hasArg()
+                .build();
+
+        val suggestInterval = Option.builder("z")
+                .required(false)
+                .desc("How often (in milliseconds) the words GET /api/notes/suggest completes with are rebuilt from the index, if anything was written since. Defaults to 30000, 0 rebuilds them on every refresh")
+                .longOpt("suggestInterval")
+                .hasArg()
+                .build();
+
+        val shards = Option.builder("s")
+                .required(false)
+                .desc("How many indexes to spread notes over, each in a shard-N directory under the index directory. Defaults to 1. Always start with the same number")
+                .longOpt("shards")
+                .hasArg()
+                .build();
+
+        val searchThreads = Option.builder("p")
+                .required(false)
+                .desc("How many threads one query can search segments on in parallel, shared by all queries. Defaults to 0, searching on the request thread alone")
+                .longOpt("searchThreads")
+                .hasArg()
+                .build();
+
+        val minSliceDocs = Option.builder("m")
+                .required(false)
+                .desc("With searchThreads, the fewest docs worth searching on a thread of their own. Defaults to 250000")
+                .longOpt("minSliceDocs")
+                .hasArg()
+                .build();
+
+        val idBlockSize = Option.builder("k")
+                .required(false)
+                .desc("How many ids each writing thread reserves at a time. Defaults to 64")
+                .longOpt("idBlockSize")
+                .hasArg()
+                .build();
+
+        val node = Option.builder("n")
+                .required(false)
+                .desc("When several instances hand out ids for the same notes, which one this is of how many, like 0/3. Defaults to 0/1")
+                .longOpt("node")
+                .hasArg()
+                .build();
+
+        val tuning = Option.builder("u")
+                .required(false)
+                .desc("How the index writer buffers, merges and compresses: default, ingest_heavy, search_heavy or low_memory. Overrides notes.tuningProfile in application.properties")
+                .longOpt("tuning")
+                .hasArg()
+                .build();
+
+        val ingestThreads = Option.builder("e")
+                .required(false)
+                .desc("How many single note writes run at once, which also caps how many can share a commit with group_commit or a sync with write_ahead_log. Defaults to maxBatchSize with those and to 8 with commit_per_write")
+                .longOpt("ingestThreads")
+                .hasArg()
+                .build();
+
+        val ingestQueue = Option.builder("l")
+                .required(false)
+                .desc("How many single note writes may wait before more are refused with 503. Defaults to 1000")
+                .longOpt("ingestQueue")
+                .hasArg()
+                .build();
+
+        val backup = Option.builder("a")
+                .required(false)
+                .desc("Where POST /api/admin/index/backup copies the index to. Later backups into the same directory only copy what changed")
+                .longOpt("backup")
+                .hasArg()
+                .build();
+
+        val restore = Option.builder("o")
+                .required(false)
+                .desc("Replace the index in the directory with the one backed up in this directory before starting. Use the same number of shards it was backed up with")
+                .longOpt("restore")
+                .hasArg()
+                .build();
+
+        val primary = Option.builder("y")
+                .required(false)
+                .desc("Run as a read only replica of the primary at this URL (e.g. http://localhost:8080), copying its commits and sending writes to it. Give it the same number of shards as the primary")
+                .longOpt("primary")
+                .hasArg()
+                .build();
+
+        val replicationInterval = Option.builder("g")
+                .required(false)
+                .desc("How often (in milliseconds) a replica asks the primary for a new commit. Defaults to 1000")
+                .longOpt("replicationInterval")
+                .hasArg()
+                .build();
+
+        val nrtCacheMB = Option.builder("v")
+                .required(false)
+                .desc("Roughly how many megabytes of small, newly flushed segments to keep in memory per index until a commit or merge writes them out. Defaults to 60, 0 writes every segment straight to disk")
+                .longOpt("nrtCacheMB")
+                .hasArg()
+                .build();
+
+        val preload = Option.builder("j")
+                .required(false)
+                .desc("Comma separated extensions of index files to page into memory as they are opened, e.g. tim,tip,dvd,dvm for the term dictionary and doc values. Defaults to none")
+                .longOpt("preload")
+                .hasArg()
+                .build();
+
         return new Options()
                 .addOption(help)
                 .addOption(directory)
-                .addOption(temp);
+                .addOption(temp)
+                .addOption(refreshInterval)
+                .addOption(durability)
+                .addOption(maxBatchSize)
+                .addOption(maxBatchDelay)
+                .addOption(checkpointInterval)
+                .addOption(idCacheSize)
+                .addOption(resultCacheMB)
+                .addOption(filterCacheMB)
+                .addOption(suggestInterval)
+                .addOption(shards)
+                .addOption(searchThreads)
+                .addOption(minSliceDocs)
+                .addOption(idBlockSize)
+                .addOption(node)
+                .addOption(tuning)
+                .addOption(ingestThreads)
+                .addOption(ingestQueue)
+                .addOption(backup)
+                .addOption(restore)
+                .addOption(primary)
+                .addOption(replicationInterval)
+                .addOption(nrtCacheMB)
+                .addOption(preload);
     }
 }
\ No newline at end of file
@@ -0,0 +1,19 @@
+package org.shannon.notes;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.actuate.autoconfigure.metrics.MeterRegistryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Metrics are served by actuator at /actuator/metrics and /actuator/prometheus.  Per-endpoint latency histograms of
+ * NoteController come from http.server.requests, repository calls from notes.repository and the Lucene internals from
+ * notes.index.* (see application.properties for what is exposed).
+ */
+@Configuration
+public class MetricsConfig {
+    @Bean
+    public MeterRegistryCustomizer<MeterRegistry> commonTags() {
+        return registry -> registry.config().commonTags("application", "notes");
+    }
+}
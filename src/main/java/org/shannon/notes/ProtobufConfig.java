@@ -0,0 +1,20 @@
+package org.shannon.notes;
+
+import org.shannon.notes.controllers.ProtobufNoteConverter;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+/**
+ * Notes and hits can be asked for (and notes posted) as application/x-protobuf.  It goes after the JSON converter so
+ * a client that does not say what it wants still gets JSON.  Responses are gzipped per application.properties.
+ */
+@Configuration
+public class ProtobufConfig implements WebMvcConfigurer {
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(new ProtobufNoteConverter());
+    }
+}
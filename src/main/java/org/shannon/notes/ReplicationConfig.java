@@ -0,0 +1,20 @@
+package org.shannon.notes;
+
+import org.shannon.notes.controllers.WritesToPrimary;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * A replica started with --primary only serves reads; writes to notes and index housekeeping are redirected to the
+ * primary.  A primary's replication endpoints are served by ReplicationController.
+ */
+@Configuration
+public class ReplicationConfig implements WebMvcConfigurer {
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        if (Main.primary == null) { return; }
+        registry.addInterceptor(new WritesToPrimary(Main.primary))
+                .addPathPatterns("/api/notes/**", "/api/notes", "/api/admin/index/**");
+    }
+}
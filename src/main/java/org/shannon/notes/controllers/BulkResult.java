@@ -0,0 +1,14 @@
+package org.shannon.notes.controllers;
+
+import lombok.Value;
+
+/**
+ * What came of a bulk request
+ */
+@Value
+public class BulkResult {
+    /**
+     * How many notes (or ids) were handled
+     */
+    long count;
+}
@@ -0,0 +1,84 @@
+package org.shannon.notes.controllers;
+
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import org.shannon.notes.Main;
+import org.shannon.notes.repositories.IndexMaintenance;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Housekeeping on the index for quiet hours.  The merges block until the merging is done and durable.  Backups can run
+ * any time, writes carry on while they copy.
+ */
+@RestController
+@RequiredArgsConstructor
+@RequestMapping("/api/admin/index")
+public final class IndexAdminController {
+    private final @NonNull IndexMaintenance maintenance;
+    private final Path backupDirectory;             // null unless backups are configured
+
+    /**
+     * Some basic constructor that works on the repository constructed in Main.main()
+     *
+     * @throws IOException          An exception thrown opening the repository
+     */
+    public IndexAdminController() throws IOException {
+        maintenance = Main.openMaintenance();
+        backupDirectory = Main.backupPath;
+    }
+
+    /**
+     * Merge the index down to a few segments, dropping every deleted and replaced note on the way.  Expensive: it
+     * rewrites the whole index.
+     *
+     * @param maxSegments   How many segments to end up with at most
+     * @return              Segments and deleted docs before and after
+     */
+    @PostMapping("/forceMerge")
+    public ResponseEntity<?> forceMerge(@RequestParam(value="maxSegments", defaultValue="1") int maxSegments) {
+        if (maxSegments < 1) { return ResponseEntity.badRequest().build(); }
+        try {
+            return ResponseEntity.ok(maintenance.forceMerge(maxSegments));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * Merge away only the segments holding deleted and replaced notes
+     *
+     * @return              Segments and deleted docs before and after
+     */
+    @PostMapping("/expungeDeletes")
+    public ResponseEntity<?> expungeDeletes() {
+        try {
+            return ResponseEntity.ok(maintenance.expungeDeletes());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * Back the index up into the backup directory given on the command line.  Only segments the last backup did not
+     * have are copied.
+     *
+     * @return              Files copied, linked and left alone
+     */
+    @PostMapping("/backup")
+    public ResponseEntity<?> backup() {
+        if (backupDirectory == null) { return ResponseEntity.badRequest().build(); }
+        try {
+            return ResponseEntity.ok(maintenance.backup(backupDirectory));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+}
@@ -1,20 +1,48 @@
 package org.shannon.notes.controllers;
 
-import com.google.common.collect.Lists;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.hash.Hashing;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.val;
 import org.shannon.notes.Main;
 import org.shannon.notes.entities.Note;
+import org.shannon.notes.repositories.AggregationQuery;
+import org.shannon.notes.repositories.IndexVersion;
+import org.shannon.notes.repositories.NoteFilter;
+import org.shannon.notes.repositories.NoteHit;
+import org.shannon.notes.repositories.NoteQuery;
 import org.shannon.notes.repositories.NoteRepository;
-import org.shannon.notes.repositories.impl.LuceneNoteRepository;
+import org.shannon.notes.repositories.NoteSort;
+import org.shannon.notes.repositories.Projection;
+import org.shannon.notes.repositories.Suggestion;
+import org.shannon.notes.repositories.VersionConflictException;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
@@ -25,6 +53,31 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 @RequestMapping("/api/notes")
 public final class NoteController {
+    /**
+     * How many notes a bulk request hands to the repository (and so commits) at a time
+     */
+    static final int BULK_BATCH_SIZE = 1000;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final ObjectWriter NOTE_WRITER = MAPPER.writerFor(Note.class)
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);         // we flush once per page instead
+    private static final ObjectWriter HIT_WRITER = MAPPER.writerFor(NoteHit.class)
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    private static final String NDJSON = "application/x-ndjson";
+    private static final MediaType PROTOBUF = MediaType.valueOf(NoteProtobuf.MEDIA_TYPE);
+    private static final String PROTOBUF_ETAG_SUFFIX = "-protobuf";
+    private static final int STREAM_BUFFER_BYTES = 64 * 1024;
+    static final String NEXT_CURSOR = "X-Next-Cursor";
+    static final String DEFAULT_PAGE_SIZE = "100";
+    static final int MAX_PAGE_SIZE = 10_000;
+    static final int STREAM_PAGE_SIZE = 1000;
+    static final String DEFAULT_FRAGMENT_SIZE = "100";
+    static final int MAX_FRAGMENT_SIZE = 10_000;
+    static final String RETRY_AFTER_SECONDS = "1";
+    static final String DEFAULT_TAG_COUNT = "10";
+    static final int MAX_TAG_COUNT = 1000;
+    static final String DEFAULT_SUGGESTION_COUNT = "10";
+    static final int MAX_SUGGESTION_COUNT = 100;
+
     private final @NonNull NoteRepository repository;
 
     /**
@@ -33,7 +86,7 @@ public final class NoteController {
      * @throws IOException          An exception thrown by LuceneNoteRepository's constructor
      */
     public NoteController() throws IOException {
-        repository = new LuceneNoteRepository(Main.directory);
+        repository = Main.openRepository();
     }
 
     /**
@@ -49,33 +102,142 @@ public final class NoteController {
     }
 
     /**
-     * Wrapper around saving a Note
+     * Utility function to turn how a save went into a response
      *
-     * @param note          The note to save
+     * @param savedNote     The note as saved, null if saving failed
      * @return              An appropriate response given how the save went
      */
-    private ResponseEntity save(Note note) {
-        val savedNote = repository.save(note);
-
+    private static ResponseEntity<?> saved(Note savedNote, boolean protobuf) {
         if (savedNote == null) {
             val response = ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR);
             response.body("Something went wrong and could not save your note.");
             return response.build();
         } else {
-            return ResponseEntity.ok(savedNote);
+            return ok(savedNote, protobuf);
+        }
+    }
+
+    /**
+     * Utility function to construct an OK response carrying the note's ETag and when it was updated as its
+     * Last-Modified, written as the ETag says
+     *
+     * @param note          The note to respond with
+     * @param protobuf      Whether to write it as a protocol buffer rather than JSON
+     * @return              The OK response
+     */
+    private static ResponseEntity<?> ok(Note note, boolean protobuf) {
+        val response = ResponseEntity.ok()
+                .cacheControl(CacheControl.noCache())
+                .varyBy(HttpHeaders.ACCEPT)
+                .contentType(protobuf ? PROTOBUF : MediaType.APPLICATION_JSON_UTF8);
+        if (note.getVersion() != null) { response.eTag(noteETag(note.getVersion(), protobuf)).lastModified(note.getUpdated()); }
+        return response.body(note);
+    }
+
+    /**
+     * The ETag of a note: its version, marked when written as a protocol buffer so a cache never answers one
+     * representation with the other.  Either names the version to If-Match.
+     */
+    private static String noteETag(long version, boolean protobuf) {
+        return "\"" + version + (protobuf ? PROTOBUF_ETAG_SUFFIX : "") + "\"";
+    }
+
+    /**
+     * Whether an If-None-Match header names the ETag, that is the client's copy is still current.  ETags are compared
+     * weakly, as If-None-Match calls for, and "*" matches anything.
+     *
+     * @param ifNoneMatch   The If-None-Match header, null if there was none
+     * @param eTag          The current ETag, quoted
+     * @return              Whether to answer Not Modified
+     */
+    private static boolean noneMatch(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) { return false; }
+        for (val tag : ifNoneMatch.split(",")) {
+            val trimmed = tag.trim();
+            if (trimmed.equals("*") || trimmed.equals(eTag) || trimmed.equals("W/" + eTag)) { return true; }
+        }
+        return false;
+    }
+
+    /**
+     * Utility function to construct a Not Modified response, which carries the same validators the full one would
+     */
+    private static ResponseEntity<?> notModified(String eTag, long lastModified) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                .cacheControl(CacheControl.noCache())
+                .varyBy(HttpHeaders.ACCEPT)
+                .eTag(eTag)
+                .lastModified(lastModified)
+                .build();
+    }
+
+    /**
+     * The ETag of a list: the version of the index it is searched in and everything that decides what is listed and
+     * how it is written out.  Any write that becomes visible changes it, whether or not it touched what was listed.
+     */
+    private static String listETag(IndexVersion version, NoteQuery query, boolean stream, boolean protobuf) {
+        return "\"" + Long.toHexString(version.getVersion()) + "-" + Hashing.murmur3_128().newHasher()
+                .putString(query.toString(), StandardCharsets.UTF_8)
+                .putBoolean(stream)
+                .putBoolean(protobuf)
+                .hash() + "\"";
+    }
+
+    /**
+     * Parse the version out of an If-Match header.  Only a single strong ETag means anything to us; "*" (or no header)
+     * matches whatever is there.
+     *
+     * @param ifMatch       The If-Match header
+     * @return              The version it names, empty if it matches anything
+     * @throws NumberFormatException    If it is not an ETag we handed out
+     */
+    private static Optional<Long> versionOf(String ifMatch) {
+        if (ifMatch == null || ifMatch.trim().equals("*")) { return Optional.empty(); }
+        val tag = ifMatch.trim();
+        if (tag.length() < 2 || !tag.startsWith("\"") || !tag.endsWith("\"")) { throw new NumberFormatException(tag); }
+        val opaque = tag.substring(1, tag.length() - 1);
+        return Optional.of(Long.parseLong(opaque.endsWith(PROTOBUF_ETAG_SUFFIX)
+                ? opaque.substring(0, opaque.length() - PROTOBUF_ETAG_SUFFIX.length())
+                : opaque));
+    }
+
+    /**
+     * Utility function to turn what an asynchronous write failed with into a response.  A full ingest queue is 503 with
+     * a Retry-After so clients back off rather than wait.
+     *
+     * @param error         What the write completed exceptionally with
+     * @param otherwise     The response to anything else, given the unwrapped cause
+     * @return              The appropriate response
+     */
+    private static ResponseEntity<?> failed(Throwable error, Function<Throwable, ResponseEntity<?>> otherwise) {
+        val cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof RejectedExecutionException) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                    .build();
         }
+        return otherwise.apply(cause);
+    }
+
+    private static ResponseEntity<?> internalError(Throwable cause) {
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
     }
 
     /**
-     * Post a note and get back the id (and rest of the note)
+     * Post a note and get back the id (and rest of the note).  The request thread is let go while the note is
+     * written.
      *
      * @param note      Some note to post
+     * @param accept    The Accept header, which says whether to answer with JSON or a protocol buffer
      * @return          The note as it is saved (with id)
      */
     @PostMapping
-    public ResponseEntity<?> post(@RequestBody Note note) {
-        if (note.getId() != null) { return badRequest("It is invalid to supply ID."); }
-        else { return save(note); }
+    public CompletableFuture<ResponseEntity<?>> post(@RequestBody Note note
+            , @RequestHeader(value=HttpHeaders.ACCEPT, required=false) String accept) {
+        if (note.getId() != null) { return CompletableFuture.completedFuture(badRequest("It is invalid to supply ID.")); }
+        val protobuf = wantsProtobuf(accept);
+        return repository.saveAsync(note)
+                .<ResponseEntity<?>>handle((savedNote, error) -> error == null ? saved(savedNote, protobuf) : failed(error, NoteController::internalError));
     }
 
     /**
@@ -94,27 +256,39 @@ public final class NoteController {
      * Put is idempotent which means repeated uses should not have different end effects.
      *
      * Note: here since choosing the id is the purview of the database, we do not allow Put
-     *      except where the note is already in the system (Updates only)
+     *      except to a note that is saved (Updates only)
+     *
+     * The note is replaced in a single atomic write.  Send the ETag of the note you edited as If-Match and the put is
+     * refused with Precondition Failed if someone else saved it in the meantime.
      *
      * @param id                The id of the Note
      * @param givenNote         Some note to use to overwrite the current note
+     * @param ifMatch           The ETag of the note the caller edited, if the put should be conditional
+     * @param accept            The Accept header, which says whether to answer with JSON or a protocol buffer
      * @return                  An appropriate response
      */
     @PutMapping("/{id}")
-    public ResponseEntity<?> put(@PathVariable Long id, @RequestBody Note givenNote) {
-        return requireID(id, () -> {
-            if (givenNote.getId() != null && !givenNote.getId().equals(id)) {
-                return badRequest("ID in the note must match ID in the URL.");
-            }
-            givenNote.setId(id);
-            val currentNote = repository.findByID(id);
-            if (currentNote.isPresent()) {
-                repository.delete(currentNote.get());
-                return save(givenNote);
-            } else {
-                return badRequest("Cannot supply your own id.");
-            }
-        });
+    public CompletableFuture<ResponseEntity<?>> put(@PathVariable Long id, @RequestBody Note givenNote
+            , @RequestHeader(value="If-Match", required=false) String ifMatch
+            , @RequestHeader(value=HttpHeaders.ACCEPT, required=false) String accept) {
+        if (id == null) { return CompletableFuture.completedFuture(badRequest("We need an id in the URL.")); }
+        if (givenNote.getId() != null && !givenNote.getId().equals(id)) {
+            return CompletableFuture.completedFuture(badRequest("ID in the note must match ID in the URL."));
+        }
+        givenNote.setId(id);
+        final Long expectedVersion;
+        try {
+            expectedVersion = versionOf(ifMatch).orElse(null);
+        } catch (NumberFormatException e) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build());
+        }
+        val protobuf = wantsProtobuf(accept);
+        return repository.updateAsync(givenNote, expectedVersion)
+                .<ResponseEntity<?>>handle((updated, error) -> error == null
+                        ? updated.<ResponseEntity<?>>map(note -> ok(note, protobuf)).orElseGet(() -> badRequest("Cannot supply your own id."))
+                        : failed(error, cause -> cause instanceof VersionConflictException
+                                ? ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build()
+                                : internalError(cause)));
     }
 
     /**
@@ -124,38 +298,351 @@ public final class NoteController {
      * @return          An appropriate response (NoContent if it succeeds or BadRequest if malformed)
      */
     @DeleteMapping("/{id}")
-    public ResponseEntity<?> delete(@PathVariable Long id) {
-        return requireID(id, () -> {
-            repository.delete(id);
-            return ResponseEntity.noContent().build();
-        });
+    public CompletableFuture<ResponseEntity<?>> delete(@PathVariable Long id) {
+        if (id == null) { return CompletableFuture.completedFuture(badRequest("We need an id in the URL.")); }
+        return repository.deleteAsync(id)
+                .<ResponseEntity<?>>handle((deleted, error) -> error == null
+                        ? ResponseEntity.noContent().build()
+                        : failed(error, NoteController::internalError));
     }
 
     /**
-     * Get the note by id
+     * Get the note by id.  A client whose copy is still current (If-None-Match names its version in the same
+     * representation) gets Not Modified without the note being loaded.
      *
-     * @param id        The id of the note to get
-     * @return          The note if found or an appropriate error
+     * @param id            The id of the note to get
+     * @param accept        The Accept header, which says whether to answer with JSON or a protocol buffer
+     * @param ifNoneMatch   The ETags of the copies the client has, if any
+     * @return              The note if found or an appropriate error
      */
     @GetMapping("/{id}")
-    public ResponseEntity<?> get(@PathVariable Long id) {
-        return requireID(id, () -> repository.findByID(id)
-                .map(ResponseEntity::ok)
-                .orElseGet(() -> ResponseEntity.notFound().build()));
+    public ResponseEntity<?> get(@PathVariable Long id
+            , @RequestHeader(value=HttpHeaders.ACCEPT, required=false) String accept
+            , @RequestHeader(value=HttpHeaders.IF_NONE_MATCH, required=false) String ifNoneMatch) {
+        return requireID(id, () -> {
+            val protobuf = wantsProtobuf(accept);
+            if (ifNoneMatch != null) {
+                val version = repository.findVersionByID(id);
+                if (version.isPresent() && noneMatch(ifNoneMatch, noteETag(version.get(), protobuf))) {
+                    return notModified(noteETag(version.get(), protobuf), version.get());
+                }
+            }
+            return repository.findByID(id)
+                    .<ResponseEntity<?>>map(note -> ok(note, protobuf))
+                    .orElseGet(() -> ResponseEntity.notFound().build());
+        });
     }
 
     /**
-     * Get either all or the results of a query.
+     * Get one page of either all notes or the results of a query, or stream every one of them.
+     *
+     * Query syntax is lucene.  A page comes back as a JSON array with the cursor for the next page in the
+     * X-Next-Cursor header (absent on the last page).  Streaming writes every match as one JSON array, loading and
+     * writing the notes a page at a time, so memory stays flat no matter how many notes match.  Clients that accept
+     * application/x-protobuf get either as length prefixed protocol buffers instead (see NoteProtobuf).
+     *
+     * Lists carry an ETag naming the version of the index they were searched in, and Last-Modified of when that
+     * version was swapped in.  Polling with If-None-Match is answered Not Modified without searching until a write
+     * becomes visible.
+     *
+     * Rather than whole notes, fields can ask for just the ids, ids and scores, or ids, scores and a highlighted
+     * snippet of the body about fragmentSize characters long; the whole note is a GET by id away.
      *
-     * Query syntax is lucene.
+     * Hits come best match first unless sorted by id, created or updated time instead, which skips scoring.  Filters
+     * narrow the hits down without changing their scores: every tag given must be on the note and each range takes in
+     * its from and stops short of its to.  Times are in milliseconds since the epoch.
      *
      * @param queryString   Lucene query string
+     * @param size          Max number of notes on the page
+     * @param cursor        The X-Next-Cursor of the previous page
+     * @param stream        Whether to stream every match instead of a page
+     * @param fields        notes, ids, scores or snippets
+     * @param fragmentSize  Roughly how long a snippet is
+     * @param sort          relevance, id, created or updated
+     * @param order         asc or desc, ignored when sorting by relevance
+     * @param tags          Tags every hit must have
+     * @param idFrom        The lowest id to match
+     * @param idTo          The id to match below
+     * @param createdFrom   The earliest created time to match
+     * @param createdTo     The created time to match before
+     * @param updatedFrom   The earliest updated time to match
+     * @param updatedTo     The updated time to match before
+     * @param accept        The Accept header, which picks the format to stream in
+     * @param ifNoneMatch   The ETags of the lists the client has, if any
      * @return              What was found.
      */
     @GetMapping
-    public List<Note> get(@RequestParam(value="query", required=false) String queryString) {
-        return Optional.ofNullable(queryString)
-                .map(s -> repository.search(s, Integer.MAX_VALUE).collect(Collectors.toList()))
-                .orElseGet(() -> Lists.newArrayList(repository.findAll()));
+    public ResponseEntity<?> get(@RequestParam(value="query", required=false) String queryString
+            , @RequestParam(value="size", defaultValue=DEFAULT_PAGE_SIZE) int size
+            , @RequestParam(value="cursor", required=false) String cursor
+            , @RequestParam(value="stream", defaultValue="false") boolean stream
+            , @RequestParam(value="fields", defaultValue="notes") String fields
+            , @RequestParam(value="fragmentSize", defaultValue=DEFAULT_FRAGMENT_SIZE) int fragmentSize
+            , @RequestParam(value="sort", defaultValue="relevance") String sort
+            , @RequestParam(value="order", defaultValue="asc") String order
+            , @RequestParam(value="tag", required=false) List<String> tags
+            , @RequestParam(value="idFrom", required=false) Long idFrom
+            , @RequestParam(value="idTo", required=false) Long idTo
+            , @RequestParam(value="createdFrom", required=false) Long createdFrom
+            , @RequestParam(value="createdTo", required=false) Long createdTo
+            , @RequestParam(value="updatedFrom", required=false) Long updatedFrom
+            , @RequestParam(value="updatedTo", required=false) Long updatedTo
+            , @RequestHeader(value=HttpHeaders.ACCEPT, required=false) String accept
+            , @RequestHeader(value=HttpHeaders.IF_NONE_MATCH, required=false) String ifNoneMatch) {
+        if (size < 1 || size > MAX_PAGE_SIZE) { return badRequest("size must be between 1 and " + MAX_PAGE_SIZE + "."); }
+        if (fragmentSize < 1 || fragmentSize > MAX_FRAGMENT_SIZE) {
+            return badRequest("fragmentSize must be between 1 and " + MAX_FRAGMENT_SIZE + ".");
+        }
+        final Projection projection;
+        try {
+            projection = Projection.valueOf(fields.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return badRequest("fields must be one of notes, ids, scores or snippets.");
+        }
+        final NoteSort noteSort;
+        try {
+            noteSort = NoteSort.valueOf(sort.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return badRequest("sort must be one of relevance, id, created or updated.");
+        }
+        val direction = order.trim().toLowerCase(Locale.ROOT);
+        if (!direction.equals("asc") && !direction.equals("desc")) { return badRequest("order must be asc or desc."); }
+        val filter = NoteFilter.builder()
+                .tags(tags)
+                .idFrom(idFrom)
+                .idTo(idTo)
+                .createdFrom(createdFrom)
+                .createdTo(createdTo)
+                .updatedFrom(updatedFrom)
+                .updatedTo(updatedTo)
+                .build();
+        val query = NoteQuery.builder()
+                .queryString(queryString)
+                .size(stream ? STREAM_PAGE_SIZE : size)
+                .cursor(cursor)
+                .projection(projection)
+                .fragmentSize(fragmentSize)
+                .sort(noteSort)
+                .descending(direction.equals("desc"))
+                .filter(filter.isEmpty() ? null : filter)
+                .build();
+        val protobuf = wantsProtobuf(accept);
+        val version = repository.searchedVersion();     // before searching, so the list is never older than its ETag
+        val eTag = listETag(version, query, stream, protobuf);
+        if (noneMatch(ifNoneMatch, eTag)) { return notModified(eTag, version.getModifiedMillis()); }
+        if (stream && protobuf) {
+            return ResponseEntity.ok()
+                    .cacheControl(CacheControl.noCache())
+                    .varyBy(HttpHeaders.ACCEPT)
+                    .eTag(eTag)
+                    .lastModified(version.getModifiedMillis())
+                    .contentType(PROTOBUF)
+                    .body((StreamingResponseBody) out -> streamAllProtobuf(query, out));
+        }
+        if (stream) {
+            return ResponseEntity.ok()
+                    .cacheControl(CacheControl.noCache())
+                    .varyBy(HttpHeaders.ACCEPT)
+                    .eTag(eTag)
+                    .lastModified(version.getModifiedMillis())
+                    .contentType(MediaType.APPLICATION_JSON_UTF8)
+                    .body((StreamingResponseBody) out -> streamAll(query, out));
+        }
+        try {
+            val page = repository.page(query);
+            val response = ResponseEntity.ok()
+                    .cacheControl(CacheControl.noCache())
+                    .varyBy(HttpHeaders.ACCEPT)
+                    .eTag(eTag)
+                    .lastModified(version.getModifiedMillis());
+            if (page.getNextCursor() != null) { response.header(NEXT_CURSOR, page.getNextCursor()); }
+            return response.body(projection == Projection.NOTES ? page.getNotes() : page.getHits());
+        } catch (IllegalArgumentException e) {
+            return badRequest("Not a cursor we handed out.");
+        }
+    }
+
+    /**
+     * Count the notes matching a query, or every note, without sending any of them: how many matched, the most used
+     * tags and how many were created or updated per hour, day or week.  Everything is counted inside the index.
+     *
+     * @param queryString   Lucene query string
+     * @param tags          How many of the most used tags to count, 0 for none
+     * @param histogram     created or updated to count notes by date
+     * @param interval      hour, day or week, the width of each histogram bucket
+     * @return              The counts
+     */
+    @GetMapping("/aggregate")
+    public ResponseEntity<?> aggregate(@RequestParam(value="query", required=false) String queryString
+            , @RequestParam(value="tags", defaultValue=DEFAULT_TAG_COUNT) int tags
+            , @RequestParam(value="histogram", required=false) String histogram
+            , @RequestParam(value="interval", defaultValue="day") String interval) {
+        if (tags < 0 || tags > MAX_TAG_COUNT) { return badRequest("tags must be between 0 and " + MAX_TAG_COUNT + "."); }
+        val query = AggregationQuery.builder()
+                .queryString(queryString)
+                .tagCount(tags);
+        try {
+            if (histogram != null) { query.histogram(AggregationQuery.DateField.valueOf(histogram.trim().toUpperCase(Locale.ROOT))); }
+        } catch (IllegalArgumentException e) {
+            return badRequest("histogram must be created or updated.");
+        }
+        try {
+            query.interval(AggregationQuery.Interval.valueOf(interval.trim().toUpperCase(Locale.ROOT)));
+        } catch (IllegalArgumentException e) {
+            return badRequest("interval must be hour, day or week.");
+        }
+        try {
+            return ResponseEntity.ok(repository.aggregate(query.build()));
+        } catch (IllegalArgumentException e) {
+            return badRequest("Not a query we can parse.");
+        }
+    }
+
+    /**
+     * Complete the last word of what is being typed with the words most used in notes, for typeahead.  Unlike a
+     * body:pre* query nothing is searched; the words come from a suggester kept in memory, so they can trail writes
+     * by however long it takes to be rebuilt.
+     *
+     * @param prefix        What has been typed so far.  Everything before the last word is kept as it is.
+     * @param size          The most completions to return
+     * @return              The completions, most used first, each with how many notes use the word
+     */
+    @GetMapping("/suggest")
+    public ResponseEntity<?> suggest(@RequestParam(value="prefix") String prefix
+            , @RequestParam(value="size", defaultValue=DEFAULT_SUGGESTION_COUNT) int size) {
+        if (size < 1 || size > MAX_SUGGESTION_COUNT) {
+            return badRequest("size must be between 1 and " + MAX_SUGGESTION_COUNT + ".");
+        }
+        int wordStart = prefix.length();
+        while (wordStart > 0 && !Character.isWhitespace(prefix.charAt(wordStart - 1))) { wordStart--; }
+        if (wordStart == prefix.length()) { return badRequest("prefix must end in the start of a word."); }
+        val typed = prefix.substring(0, wordStart);
+        return ResponseEntity.ok(repository.suggest(prefix.substring(wordStart), size)
+                .stream()
+                .map(suggestion -> new Suggestion(typed + suggestion.getText(), suggestion.getWeight()))
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Whether an Accept header prefers protocol buffers to JSON.  Anything that would take JSON, wildcards included, gets JSON.
+     */
+    private static boolean wantsProtobuf(String accept) {
+        if (accept == null) { return false; }
+        try {
+            val types = MediaType.parseMediaTypes(accept);
+            MediaType.sortBySpecificityAndQuality(types);
+            for (val type : types) {
+                if (type.isCompatibleWith(MediaType.APPLICATION_JSON)) { return false; }
+                if (type.isCompatibleWith(PROTOBUF)) { return true; }
+            }
+        } catch (InvalidMediaTypeException e) {
+            return false;
+        }
+        return false;
+    }
+
+    /**
+     * Write every note matching the query as length prefixed protocol buffers, a page at a time
+     *
+     * @param query         The first page to write
+     * @param out           Where to write
+     * @throws IOException  If writing fails
+     */
+    private void streamAllProtobuf(NoteQuery query, OutputStream out) throws IOException {
+        val buffered = new BufferedOutputStream(out, STREAM_BUFFER_BYTES);
+        NoteQuery next = query;
+        while (next != null) {
+            val page = repository.page(next);
+            for (val note : page.getNotes()) { NoteProtobuf.write(note, buffered); }
+            for (val hit : page.getHits()) { NoteProtobuf.write(hit, buffered); }
+            buffered.flush();
+            next = page.getNextCursor() == null ? null : next.withCursor(page.getNextCursor());
+        }
+    }
+
+    /**
+     * Write every note matching the query as a JSON array, a page at a time
+     *
+     * @param query         The first page to write
+     * @param out           Where to write
+     * @throws IOException  If writing fails
+     */
+    private void streamAll(NoteQuery query, OutputStream out) throws IOException {
+        try (JsonGenerator generator = MAPPER.getFactory().createGenerator(out)) {
+            generator.writeStartArray();
+            NoteQuery next = query;
+            while (next != null) {
+                val page = repository.page(next);
+                for (val note : page.getNotes()) { NOTE_WRITER.writeValue(generator, note); }
+                for (val hit : page.getHits()) { HIT_WRITER.writeValue(generator, hit); }
+                generator.flush();
+                next = page.getNextCursor() == null ? null : next.withCursor(page.getNextCursor());
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    /**
+     * Post a lot of notes at once, either as a JSON array or as newline delimited JSON (one note per line).
+     *
+     * The body is read as a stream and saved BULK_BATCH_SIZE notes at a time, each batch with a single commit, so the
+     * request can be far bigger than memory.  If a note is malformed or carries an id then everything before it stays
+     * saved and the rest is rejected.
+     *
+     * @param body      The notes
+     * @return          How many notes were saved
+     */
+    @PostMapping(value = "/bulk", consumes = { MediaType.APPLICATION_JSON_VALUE, NDJSON })
+    public ResponseEntity<?> bulkPost(InputStream body) {
+        return inBatches(body, Note.class, batch -> {
+            if (batch.stream().anyMatch(note -> note.getId() != null)) { return badRequest("It is invalid to supply ID."); }
+            return repository.save(batch) == null
+                    ? ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Something went wrong and could not save your notes.")
+                    : null;
+        });
+    }
+
+    /**
+     * Delete a lot of notes at once given their ids, either as a JSON array or newline delimited.
+     *
+     * @param body      The ids of the notes to delete
+     * @return          How many ids were processed
+     */
+    @DeleteMapping(value = "/bulk", consumes = { MediaType.APPLICATION_JSON_VALUE, NDJSON })
+    public ResponseEntity<?> bulkDelete(InputStream body) {
+        return inBatches(body, Long.class, batch -> {
+            repository.delete(batch.stream()
+                    .map(id -> new Note(id, null))
+                    .collect(Collectors.toList()));
+            return null;
+        });
+    }
+
+    /**
+     * Read values off a JSON array or a stream of newline delimited JSON and hand them over BULK_BATCH_SIZE at a time.
+     *
+     * @param body          Either a JSON array or newline delimited JSON
+     * @param type          What each value is
+     * @param handleBatch   Handles a batch returning null to carry on or a response to stop with
+     * @param <T>           What each value is
+     * @return              The response to stop with or how many values were handled
+     */
+    private <T> ResponseEntity<?> inBatches(InputStream body, Class<T> type, Function<List<T>, ResponseEntity<?>> handleBatch) {
+        long handled = 0;
+        try (MappingIterator<T> values = MAPPER.readerFor(type).readValues(body)) {
+            val batch = new ArrayList<T>(BULK_BATCH_SIZE);
+            while (values.hasNextValue()) {
+                batch.add(values.nextValue());
+                if (batch.size() == BULK_BATCH_SIZE || !values.hasNextValue()) {
+                    val stop = handleBatch.apply(batch);
+                    if (stop != null) { return stop; }
+                    handled += batch.size();
+                    batch.clear();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            return badRequest("Could not read value " + (handled + 1) + ": " + e.getMessage());
+        }
+        return ResponseEntity.ok(new BulkResult(handled));
     }
 }
@@ -0,0 +1,262 @@
+package org.shannon.notes.controllers;
+
+import lombok.NonNull;
+import lombok.val;
+import org.shannon.notes.entities.Note;
+import org.shannon.notes.repositories.NoteHit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Notes and hits in the protocol buffers wire format, each message prefixed with its length the way
+ * writeDelimitedTo/parseDelimitedFrom do, so a body is simply one message after another.  Clients with protobuf can
+ * decode them with
+ *
+ * <pre>
+ * message Note { optional int64 id = 1; optional string body = 2; optional int64 version = 3;
+ *                optional int64 created = 4; repeated string tags = 5; }
+ * message NoteHit { optional int64 id = 1; optional float score = 2; optional string snippet = 3; }
+ * </pre>
+ *
+ * A note's updated time is its version so it is not sent twice.  Absent fields stay absent, and fields this does not
+ * know are skipped so either side can add some.
+ */
+public final class NoteProtobuf {
+    public static final String MEDIA_TYPE = "application/x-protobuf";
+
+    private static final int VARINT = 0;
+    private static final int FIXED64 = 1;
+    private static final int LENGTH_DELIMITED = 2;
+    private static final int FIXED32 = 5;
+    private static final int MAX_MESSAGE_BYTES = 64 * 1024 * 1024;
+
+    private NoteProtobuf() {
+    }
+
+    /**
+     * A message being put together before its length is known
+     */
+    private static final class Message extends ByteArrayOutputStream {
+        Message(int size) {
+            super(size);
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeLong(int field, Long value) {
+            if (value == null) { return; }
+            writeVarint(field << 3 | VARINT);
+            writeVarint(value);
+        }
+
+        void writeString(int field, String value) {
+            if (value == null) { return; }
+            val bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(field << 3 | LENGTH_DELIMITED);
+            writeVarint(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        void writeFloat(int field, Float value) {
+            if (value == null) { return; }
+            val bits = Float.floatToIntBits(value);
+            writeVarint(field << 3 | FIXED32);
+            for (int shift = 0; shift < 32; shift += 8) { write(bits >>> shift); }
+        }
+
+        void writeDelimitedTo(OutputStream out) throws IOException {
+            val length = new byte[5];
+            int size = 0;
+            for (int left = count; ; left >>>= 7) {
+                if ((left & ~0x7F) == 0) {
+                    length[size++] = (byte) left;
+                    break;
+                }
+                length[size++] = (byte) ((left & 0x7F) | 0x80);
+            }
+            out.write(length, 0, size);
+            writeTo(out);
+        }
+    }
+
+    /**
+     * Write a note prefixed with its length
+     *
+     * @param note          The note
+     * @param out           Where to write it
+     * @throws IOException  If it cannot be written
+     */
+    public static void write(@NonNull Note note, @NonNull OutputStream out) throws IOException {
+        val message = new Message(note.getBody() == null ? 32 : note.getBody().length() + 32);
+        message.writeLong(1, note.getId());
+        message.writeString(2, note.getBody());
+        message.writeLong(3, note.getVersion());
+        message.writeLong(4, note.getCreated());
+        if (note.getTags() != null) {
+            for (val tag : note.getTags()) { message.writeString(5, tag); }
+        }
+        message.writeDelimitedTo(out);
+    }
+
+    /**
+     * Write a hit prefixed with its length
+     *
+     * @param hit           The hit
+     * @param out           Where to write it
+     * @throws IOException  If it cannot be written
+     */
+    public static void write(@NonNull NoteHit hit, @NonNull OutputStream out) throws IOException {
+        val message = new Message(hit.getSnippet() == null ? 16 : hit.getSnippet().length() + 16);
+        message.writeLong(1, hit.getId());
+        message.writeFloat(2, hit.getScore());
+        message.writeString(3, hit.getSnippet());
+        message.writeDelimitedTo(out);
+    }
+
+    /**
+     * Read the next note
+     *
+     * @param in            Where the notes are
+     * @return              The note, null once there are no more
+     * @throws IOException  If what is there is not a note
+     */
+    public static Note readNote(@NonNull InputStream in) throws IOException {
+        val message = readMessage(in);
+        if (message == null) { return null; }
+        val note = new Note();
+        while (message.remaining() > 0) {
+            val tag = (int) message.readVarint();
+            switch (tag) {
+                case 1 << 3 | VARINT: note.setId(message.readVarint()); break;
+                case 2 << 3 | LENGTH_DELIMITED: note.setBody(message.readString()); break;
+                case 3 << 3 | VARINT: note.setVersion(message.readVarint()); break;
+                case 4 << 3 | VARINT: note.setCreated(message.readVarint()); break;
+                case 5 << 3 | LENGTH_DELIMITED:
+                    if (note.getTags() == null) { note.setTags(new ArrayList<>()); }
+                    note.getTags().add(message.readString());
+                    break;
+                default: message.skip(tag);
+            }
+        }
+        return note;
+    }
+
+    /**
+     * Read the next hit
+     *
+     * @param in            Where the hits are
+     * @return              The hit, null once there are no more
+     * @throws IOException  If what is there is not a hit
+     */
+    public static NoteHit readHit(@NonNull InputStream in) throws IOException {
+        val message = readMessage(in);
+        if (message == null) { return null; }
+        long id = 0;
+        Float score = null;
+        String snippet = null;
+        while (message.remaining() > 0) {
+            val tag = (int) message.readVarint();
+            switch (tag) {
+                case 1 << 3 | VARINT: id = message.readVarint(); break;
+                case 2 << 3 | FIXED32: score = Float.intBitsToFloat((int) message.readFixed(4)); break;
+                case 3 << 3 | LENGTH_DELIMITED: snippet = message.readString(); break;
+                default: message.skip(tag);
+            }
+        }
+        return new NoteHit(id, score, snippet);
+    }
+
+    /**
+     * A message read whole, being taken apart
+     */
+    private static final class Reader {
+        private final byte[] bytes;
+        private int position;
+
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        int remaining() {
+            return bytes.length - position;
+        }
+
+        private int next() throws IOException {
+            if (position >= bytes.length) { throw new EOFException("Message ends mid field"); }
+            return bytes[position++] & 0xFF;
+        }
+
+        long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                val b = next();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) { return value; }
+            }
+            throw new IOException("Varint longer than 64 bits");
+        }
+
+        long readFixed(int size) throws IOException {
+            long value = 0;
+            for (int i = 0; i < size; i++) { value |= (long) next() << (8 * i); }
+            return value;
+        }
+
+        String readString() throws IOException {
+            val length = (int) readVarint();
+            if (length < 0 || length > remaining()) { throw new EOFException("Message ends mid string"); }
+            val value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        void skip(int tag) throws IOException {
+            switch (tag & 0x7) {
+                case VARINT: readVarint(); break;
+                case FIXED64: readFixed(8); break;
+                case LENGTH_DELIMITED: {
+                    val length = (int) readVarint();
+                    if (length < 0 || length > remaining()) { throw new EOFException("Message ends mid field"); }
+                    position += length;
+                    break;
+                }
+                case FIXED32: readFixed(4); break;
+                default: throw new IOException("Unknown wire type " + (tag & 0x7));
+            }
+        }
+    }
+
+    private static Reader readMessage(InputStream in) throws IOException {
+        long length = 0;
+        for (int shift = 0; ; shift += 7) {
+            val b = in.read();
+            if (b < 0) {
+                if (shift == 0) { return null; }
+                throw new EOFException("Stream ends mid length");
+            }
+            if (shift >= 32) { throw new IOException("Message length longer than 32 bits"); }
+            length |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) { break; }
+        }
+        if (length > MAX_MESSAGE_BYTES) { throw new IOException("Message of " + length + " bytes is too long"); }
+        val bytes = new byte[(int) length];
+        for (int read = 0; read < bytes.length; ) {
+            val got = in.read(bytes, read, bytes.length - read);
+            if (got < 0) { throw new EOFException("Stream ends mid message"); }
+            read += got;
+        }
+        return new Reader(bytes);
+    }
+}
@@ -0,0 +1,93 @@
+package org.shannon.notes.controllers;
+
+import lombok.val;
+import org.shannon.notes.entities.Note;
+import org.shannon.notes.repositories.NoteHit;
+import org.springframework.core.ResolvableType;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractGenericHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Lets clients that ask for application/x-protobuf get notes and hits, or lists of them, as length prefixed protocol
+ * buffers (see NoteProtobuf) instead of JSON, and post notes that way.  Everything else is left to JSON.
+ */
+public class ProtobufNoteConverter extends AbstractGenericHttpMessageConverter<Object> {
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    public ProtobufNoteConverter() {
+        super(MediaType.valueOf(NoteProtobuf.MEDIA_TYPE));
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return clazz == Note.class || clazz == NoteHit.class || Collection.class.isAssignableFrom(clazz);
+    }
+
+    /**
+     * Notes and hits, and collections of them.  A collection whose element type was erased (a ResponseEntity&lt;?&gt;
+     * body) is taken on trust and its elements checked as they are written.
+     */
+    private static boolean isNotes(ResolvableType type, boolean erasedIsFine) {
+        val clazz = type.resolve();
+        if (clazz == null) { return false; }
+        if (clazz == Note.class || clazz == NoteHit.class) { return true; }
+        if (!Collection.class.isAssignableFrom(clazz)) { return false; }
+        val element = type.asCollection().getGeneric(0).resolve();
+        return element == null || element == Object.class ? erasedIsFine : element == Note.class || element == NoteHit.class;
+    }
+
+    @Override
+    public boolean canWrite(Type type, Class<?> clazz, MediaType mediaType) {
+        val resolved = type == null || ResolvableType.forType(type).resolve() == Object.class
+                ? ResolvableType.forClass(clazz) : ResolvableType.forType(type);
+        return canWrite(mediaType) && isNotes(resolved, true);
+    }
+
+    @Override
+    public boolean canRead(Type type, Class<?> contextClass, MediaType mediaType) {
+        val resolved = ResolvableType.forType(type);
+        return canRead(mediaType) && isNotes(resolved, false) && resolved.resolve() != NoteHit.class
+                && resolved.asCollection().getGeneric(0).resolve() != NoteHit.class;
+    }
+
+    @Override
+    protected void writeInternal(Object value, Type type, HttpOutputMessage outputMessage) throws IOException {
+        val out = new BufferedOutputStream(outputMessage.getBody(), BUFFER_BYTES);
+        for (val element : value instanceof Collection ? (Collection<?>) value : Collections.singleton(value)) {
+            if (element instanceof Note) { NoteProtobuf.write((Note) element, out); }
+            else if (element instanceof NoteHit) { NoteProtobuf.write((NoteHit) element, out); }
+            else { throw new HttpMessageNotWritableException("Only notes and hits can be written as " + NoteProtobuf.MEDIA_TYPE); }
+        }
+        out.flush();
+    }
+
+    @Override
+    public Object read(Type type, Class<?> contextClass, HttpInputMessage inputMessage) throws IOException {
+        val in = new BufferedInputStream(inputMessage.getBody(), BUFFER_BYTES);
+        if (ResolvableType.forType(type).resolve() == Note.class) {
+            val note = NoteProtobuf.readNote(in);
+            if (note == null) { throw new HttpMessageNotReadableException("No note in the body"); }
+            return note;
+        }
+        val notes = new ArrayList<Note>();
+        for (Note note = NoteProtobuf.readNote(in); note != null; note = NoteProtobuf.readNote(in)) { notes.add(note); }
+        return notes;
+    }
+
+    @Override
+    protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage) throws IOException {
+        return read(clazz, null, inputMessage);
+    }
+}
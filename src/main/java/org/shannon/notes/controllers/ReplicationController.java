@@ -0,0 +1,100 @@
+package org.shannon.notes.controllers;
+
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+import org.shannon.notes.Main;
+import org.shannon.notes.repositories.impl.IndexReplicationSource;
+import org.shannon.notes.repositories.impl.ReplicaSync;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Serves a primary's commits to its replicas, shard by shard, and tells either side how replication is going.
+ *
+ * A replica asks for the latest commit of a shard, then for each file of it that it does not have yet.  Segment files
+ * never change, so after the first copy a replica only ever fetches what was flushed or merged since.
+ */
+@RestController
+@RequiredArgsConstructor
+@RequestMapping("/api/replication")
+public final class ReplicationController {
+    private final @NonNull List<IndexReplicationSource> sources;   // by shard, empty on a replica
+    private final @NonNull List<ReplicaSync> replicas;              // by shard, empty on a primary
+
+    /**
+     * Some basic constructor that works on the repository constructed in Main.main()
+     *
+     * @throws IOException          An exception thrown opening the repository
+     */
+    public ReplicationController() throws IOException {
+        sources = Main.openReplicationSources();
+        replicas = Main.openReplicaSyncs();
+    }
+
+    /**
+     * The latest commit of a shard, which stays copyable for a minute after the next one replaces it
+     *
+     * @param shard     Which shard, from 0
+     * @return          The commit's files, or Not Found if this is not a primary or has no such shard
+     */
+    @GetMapping("/shards/{shard}")
+    public ResponseEntity<?> latest(@PathVariable int shard) {
+        if (shard < 0 || shard >= sources.size()) { return ResponseEntity.notFound().build(); }
+        try {
+            return ResponseEntity.ok(sources.get(shard).latest());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * One file of a commit the latest endpoint handed out
+     *
+     * @param shard         Which shard, from 0
+     * @param generation    The commit's generation
+     * @param file          The file's name
+     * @param response      Where the file's bytes go, or Not Found once the commit is no longer held
+     * @throws IOException  If the file cannot be read or written out
+     */
+    @GetMapping("/shards/{shard}/files/{generation}/{file:.+}")
+    public void file(@PathVariable int shard, @PathVariable long generation, @PathVariable String file
+            , HttpServletResponse response) throws IOException {
+        if (shard < 0 || shard >= sources.size()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        try {
+            sources.get(shard).copy(generation, file, response.getOutputStream());
+        } catch (NoSuchFileException e) {
+            if (!response.isCommitted()) { response.sendError(HttpServletResponse.SC_NOT_FOUND); }
+        }
+    }
+
+    /**
+     * @return  Per shard, whether this is the primary or a replica, the generation of the commit published or
+     *          searched, and on a replica how far it trails the primary
+     */
+    @GetMapping("/status")
+    public List<ReplicationStatus> status() {
+        val statuses = new ArrayList<ReplicationStatus>();
+        for (int shard = 0; shard < sources.size(); shard++) {
+            statuses.add(new ReplicationStatus(ReplicationStatus.Role.PRIMARY, shard, sources.get(shard).getGeneration(), 0));
+        }
+        for (int shard = 0; shard < replicas.size(); shard++) {
+            val replica = replicas.get(shard);
+            statuses.add(new ReplicationStatus(ReplicationStatus.Role.REPLICA, shard, replica.getGeneration(), replica.getLagMillis()));
+        }
+        return statuses;
+    }
+}
@@ -0,0 +1,24 @@
+package org.shannon.notes.controllers;
+
+import lombok.Value;
+
+/**
+ * How replication of one shard is going
+ */
+@Value
+public class ReplicationStatus {
+    public enum Role { PRIMARY, REPLICA }
+
+    Role role;
+    int shard;
+
+    /**
+     * The generation of the commit last published by a primary or searched by a replica, -1 if none yet
+     */
+    long generation;
+
+    /**
+     * How long since a replica last had the primary's latest commit, always 0 on a primary
+     */
+    long lagMillis;
+}
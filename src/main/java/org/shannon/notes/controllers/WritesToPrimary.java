@@ -0,0 +1,36 @@
+package org.shannon.notes.controllers;
+
+import lombok.NonNull;
+import lombok.val;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.net.URI;
+
+/**
+ * On a replica, sends every write on to the primary with a 307 Temporary Redirect, which clients follow with the same
+ * method and body.  Reads are served here.
+ */
+public final class WritesToPrimary extends HandlerInterceptorAdapter {
+    private final URI primary;
+
+    /**
+     * @param primary   Where the primary is, e.g. http://primary:80
+     */
+    public WritesToPrimary(@NonNull URI primary) {
+        this.primary = primary;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        val method = request.getMethod();
+        if (method.equals("GET") || method.equals("HEAD") || method.equals("OPTIONS")) { return true; }
+        response.setStatus(HttpStatus.TEMPORARY_REDIRECT.value());
+        response.setHeader(HttpHeaders.LOCATION, primary + request.getRequestURI()
+                + (request.getQueryString() == null ? "" : "?" + request.getQueryString()));
+        return false;
+    }
+}
@@ -1,5 +1,7 @@
 package org.shannon.notes.entities;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import lombok.*;
 import lombok.experimental.Wither;
 import org.apache.lucene.document.Document;
@@ -8,9 +10,14 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 @Entity
 @Data
+@JsonSerialize(using = NoteSerializer.class)
+@JsonIgnoreProperties(value = "updated", allowGetters = true)      // so a note written out can be read back in
 @AllArgsConstructor
 @NoArgsConstructor
 public class Note {
@@ -21,7 +28,49 @@ public class Note {
 
     String body;
 
+    /**
+     * Changes every time the note is saved.  It is bookkeeping rather than content so it plays no part in equality.
+     */
+    @Wither
+    @EqualsAndHashCode.Exclude
+    Long version;
+
+    /**
+     * When the note was first saved, in milliseconds since the epoch.  Kept from one save to the next unless given.
+     */
+    @Wither
+    @EqualsAndHashCode.Exclude
+    Long created;
+
+    /**
+     * Labels to filter and count notes by, null for none
+     */
+    @Wither
+    List<String> tags;
+
+    public Note(Long id, String body) {
+        this(id, body, null);
+    }
+
+    public Note(Long id, String body, Long version) {
+        this(id, body, version, null, null);
+    }
+
+    /**
+     * @return  When the note was last saved, in milliseconds since the epoch.  A version is never behind the clock it
+     *          was saved at, so it is the version.
+     */
+    public Long getUpdated() {
+        return version;
+    }
+
     public static Note fromDocument(Document doc) {
-        return new Note(Long.decode(doc.get("id")), doc.get("body"));
+        val version = doc.getField("version");
+        val created = doc.getField("created");
+        val tags = doc.getValues("tags");
+        return new Note(doc.getField("id").numericValue().longValue(), doc.get("body")
+                , version == null ? null : version.numericValue().longValue()
+                , created == null ? null : created.numericValue().longValue()
+                , tags.length == 0 ? null : new ArrayList<>(Arrays.asList(tags)));
     }
 }
@@ -0,0 +1,42 @@
+package org.shannon.notes.entities;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import lombok.val;
+
+import java.io.IOException;
+
+/**
+ * Writes a Note field by field straight to the generator, the same JSON the bean serializer would write but without
+ * going through property writers and reflection for every note in a list.
+ */
+public class NoteSerializer extends StdSerializer<Note> {
+    private static final long serialVersionUID = 1L;
+
+    public NoteSerializer() {
+        super(Note.class);
+    }
+
+    @Override
+    public void serialize(Note note, JsonGenerator generator, SerializerProvider provider) throws IOException {
+        generator.writeStartObject();
+        writeLong(generator, "id", note.getId());
+        generator.writeStringField("body", note.getBody());
+        writeLong(generator, "version", note.getVersion());
+        if (note.getCreated() != null) { generator.writeNumberField("created", note.getCreated()); }
+        if (note.getUpdated() != null) { generator.writeNumberField("updated", note.getUpdated()); }
+        if (note.getTags() != null) {
+            generator.writeArrayFieldStart("tags");
+            for (val tag : note.getTags()) { generator.writeString(tag); }
+            generator.writeEndArray();
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writeLong(JsonGenerator generator, String name, Long value) throws IOException {
+        generator.writeFieldName(name);
+        if (value == null) { generator.writeNull(); }
+        else { generator.writeNumber(value); }
+    }
+}
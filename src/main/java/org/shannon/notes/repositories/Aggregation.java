@@ -0,0 +1,46 @@
+package org.shannon.notes.repositories;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * How many notes matched and how they break down
+ */
+@Value
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class Aggregation {
+    /**
+     * How many notes carry a tag
+     */
+    @Value
+    public static class TagCount {
+        String tag;
+        long count;
+    }
+
+    /**
+     * How many notes fall in a bucket of the histogram
+     */
+    @Value
+    public static class Bucket {
+        /**
+         * When the bucket starts, in milliseconds since the epoch
+         */
+        long start;
+        long count;
+    }
+
+    long hits;
+
+    /**
+     * The most used tags, most used first, null unless asked for
+     */
+    List<TagCount> tags;
+
+    /**
+     * Every bucket holding a note, oldest first, null unless asked for
+     */
+    List<Bucket> histogram;
+}
@@ -0,0 +1,64 @@
+package org.shannon.notes.repositories;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asks how many notes match and how they break down, rather than for the notes themselves.
+ */
+@Value
+@Builder
+public class AggregationQuery {
+    /**
+     * A timestamp every note has
+     */
+    public enum DateField {
+        CREATED, UPDATED
+    }
+
+    /**
+     * How wide a histogram bucket is.  Buckets start at midnight UTC and weeks on a Thursday, like the epoch.
+     */
+    public enum Interval {
+        HOUR(TimeUnit.HOURS.toMillis(1)),
+        DAY(TimeUnit.DAYS.toMillis(1)),
+        WEEK(TimeUnit.DAYS.toMillis(7));
+
+        private final long millis;
+
+        Interval(long millis) {
+            this.millis = millis;
+        }
+
+        /**
+         * @return  How wide a bucket is in milliseconds
+         */
+        public long getMillis() {
+            return millis;
+        }
+    }
+
+    /**
+     * Some lucene query string, or null for every note
+     */
+    String queryString;
+
+    /**
+     * How many of the most used tags to count, 0 for none
+     */
+    @Builder.Default
+    int tagCount = 10;
+
+    /**
+     * Which timestamp to count notes by, or null for no histogram
+     */
+    DateField histogram;
+
+    /**
+     * How wide each histogram bucket is
+     */
+    @Builder.Default
+    Interval interval = Interval.DAY;
+}
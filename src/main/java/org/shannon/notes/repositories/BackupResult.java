@@ -0,0 +1,37 @@
+package org.shannon.notes.repositories;
+
+import lombok.Value;
+
+/**
+ * What a backup (or restore) had to do
+ */
+@Value
+public class BackupResult {
+    /**
+     * Files copied byte for byte
+     */
+    int filesCopied;
+
+    /**
+     * Files hard linked because they were on the same disk
+     */
+    int filesLinked;
+
+    /**
+     * Files the destination already had from an earlier backup
+     */
+    int filesUnchanged;
+
+    long bytesCopied;
+    long tookMillis;
+
+    /**
+     * @param other     The result of backing up another index at the same time
+     * @return          Both results added up, taking as long as the slower one
+     */
+    public BackupResult plus(BackupResult other) {
+        return new BackupResult(filesCopied + other.filesCopied, filesLinked + other.filesLinked
+                , filesUnchanged + other.filesUnchanged, bytesCopied + other.bytesCopied
+                , Math.max(tookMillis, other.tookMillis));
+    }
+}
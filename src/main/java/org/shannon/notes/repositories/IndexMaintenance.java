@@ -0,0 +1,40 @@
+package org.shannon.notes.repositories;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Heavy housekeeping on the index, best left to quiet hours.
+ *
+ * Deleted and replaced notes stay in their segments as tombstones that every search still has to step over until a
+ * merge reclaims them.
+ */
+public interface IndexMaintenance {
+    /**
+     * Merge the index down to at most maxSegments segments, dropping every tombstone on the way
+     *
+     * @param maxSegments   How many segments to end up with at most
+     * @return              What the index looked like before and after
+     * @throws IOException  If merging fails
+     */
+    MaintenanceResult forceMerge(int maxSegments) throws IOException;
+
+    /**
+     * Merge only the segments holding deletes, to drop the tombstones without merging everything
+     *
+     * @return              What the index looked like before and after
+     * @throws IOException  If merging fails
+     */
+    MaintenanceResult expungeDeletes() throws IOException;
+
+    /**
+     * Copy the index as of now into a directory while writes carry on.  Segment files never change once written, so
+     * whatever the directory already has from an earlier backup is kept and only new segments are copied.  The
+     * directory holds a complete index at every step, and once done only the new one.
+     *
+     * @param destination   Where the backup goes
+     * @return              How much had to be copied
+     * @throws IOException  If copying fails
+     */
+    BackupResult backup(Path destination) throws IOException;
+}
@@ -0,0 +1,28 @@
+package org.shannon.notes.repositories;
+
+import lombok.Value;
+
+/**
+ * Which state of the index searches currently see, so whether anything may have changed since can be told without
+ * searching
+ */
+@Value
+public class IndexVersion {
+    /**
+     * Goes up every time a write becomes visible to searches
+     */
+    long version;
+
+    /**
+     * When that last happened, in milliseconds since the epoch
+     */
+    long modifiedMillis;
+
+    /**
+     * @param other     The version of another index
+     * @return          The version of both together, which still goes up whenever either does
+     */
+    public IndexVersion plus(IndexVersion other) {
+        return new IndexVersion(version + other.version, Math.max(modifiedMillis, other.modifiedMillis));
+    }
+}
@@ -0,0 +1,25 @@
+package org.shannon.notes.repositories;
+
+import lombok.Value;
+
+/**
+ * What some index maintenance achieved
+ */
+@Value
+public class MaintenanceResult {
+    int segmentsBefore;
+    int segmentsAfter;
+    int deletedDocsBefore;
+    int deletedDocsAfter;
+    long tookMillis;
+
+    /**
+     * @param other     The result of the same maintenance on another index
+     * @return          Both results added up, taking as long as the slower one
+     */
+    public MaintenanceResult plus(MaintenanceResult other) {
+        return new MaintenanceResult(segmentsBefore + other.segmentsBefore, segmentsAfter + other.segmentsAfter
+                , deletedDocsBefore + other.deletedDocsBefore, deletedDocsAfter + other.deletedDocsAfter
+                , Math.max(tookMillis, other.tookMillis));
+    }
+}
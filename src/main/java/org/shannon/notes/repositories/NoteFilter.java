@@ -0,0 +1,37 @@
+package org.shannon.notes.repositories;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * Narrows what a query matches without playing any part in how well it matches.  Every bound is optional; lower bounds
+ * are inclusive, upper bounds exclusive, and times are in milliseconds since the epoch.
+ *
+ * Filters are run as constant score clauses, so the same filter used again is answered from a cached bitset per
+ * segment rather than searched again.
+ */
+@Value
+@Builder
+public class NoteFilter {
+    Long idFrom;
+    Long idTo;
+    Long createdFrom;
+    Long createdTo;
+    Long updatedFrom;
+    Long updatedTo;
+
+    /**
+     * Tags a note must all carry, null for any
+     */
+    List<String> tags;
+
+    /**
+     * @return  Whether this filter lets every note through
+     */
+    public boolean isEmpty() {
+        return idFrom == null && idTo == null && createdFrom == null && createdTo == null
+                && updatedFrom == null && updatedTo == null && (tags == null || tags.isEmpty());
+    }
+}
@@ -0,0 +1,23 @@
+package org.shannon.notes.repositories;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Value;
+
+/**
+ * The part of a found note that was asked for
+ */
+@Value
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class NoteHit {
+    long id;
+
+    /**
+     * How well the note matched, null unless asked for
+     */
+    Float score;
+
+    /**
+     * Some of the body with what matched wrapped in &lt;b&gt;, null unless asked for
+     */
+    String snippet;
+}
@@ -0,0 +1,37 @@
+package org.shannon.notes.repositories;
+
+import lombok.AllArgsConstructor;
+import lombok.Value;
+import org.shannon.notes.entities.Note;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of notes.
+ */
+@Value
+@AllArgsConstructor
+public class NotePage {
+    /**
+     * The notes on this page, best match first, or empty when only part of each note was asked for
+     */
+    List<Note> notes;
+
+    /**
+     * Hand this back as the cursor to get the next page, null once there are no more pages
+     */
+    String nextCursor;
+
+    /**
+     * The hits on this page, best match first, when only part of each note was asked for and otherwise empty
+     */
+    List<NoteHit> hits;
+
+    /**
+     * A page of whole notes
+     */
+    public NotePage(List<Note> notes, String nextCursor) {
+        this(notes, nextCursor, Collections.emptyList());
+    }
+}
@@ -0,0 +1,57 @@
+package org.shannon.notes.repositories;
+
+import lombok.Builder;
+import lombok.Value;
+import lombok.experimental.Wither;
+
+/**
+ * Asks for one page of notes.
+ */
+@Value
+@Builder
+@Wither
+public class NoteQuery {
+    /**
+     * Some lucene query string, or null for every note
+     */
+    String queryString;
+
+    /**
+     * Max number of notes on the page
+     */
+    @Builder.Default
+    int size = 100;
+
+    /**
+     * Where the previous page left off (its nextCursor), or null for the first page
+     */
+    String cursor;
+
+    /**
+     * How much of each hit to return
+     */
+    @Builder.Default
+    Projection projection = Projection.NOTES;
+
+    /**
+     * Roughly how many characters a snippet runs to, when returning snippets
+     */
+    @Builder.Default
+    int fragmentSize = 100;
+
+    /**
+     * What order the notes come in
+     */
+    @Builder.Default
+    NoteSort sort = NoteSort.RELEVANCE;
+
+    /**
+     * Whether to sort biggest (or newest) first.  Relevance is always best first.
+     */
+    boolean descending;
+
+    /**
+     * What to narrow the query down to, or null for everything it matches
+     */
+    NoteFilter filter;
+}
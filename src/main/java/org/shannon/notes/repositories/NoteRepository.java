@@ -3,7 +3,9 @@ package org.shannon.notes.repositories;
 import org.shannon.notes.entities.Note;
 import org.springframework.data.repository.CrudRepository;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Stream;
 
 public interface NoteRepository extends CrudRepository<Note, Long> {
@@ -15,6 +17,20 @@ public interface NoteRepository extends CrudRepository<Note, Long> {
      */
     Optional<Note> findByID(long id);
 
+    /**
+     * Get the version of a note without loading it, so a copy of it can be checked cheaply
+     *
+     * @param id        The id of the note
+     * @return          Its version, or Optional.Empty() if there is no such note or it was saved without one
+     */
+    Optional<Long> findVersionByID(long id);
+
+    /**
+     * @return          Which state of the index searches see right now.  Anything searched for afterwards is at
+     *                  least as new.
+     */
+    IndexVersion searchedVersion();
+
     /**
      * Searches using the queryString for up to count notes.
      *
@@ -23,4 +39,81 @@ public interface NoteRepository extends CrudRepository<Note, Long> {
      * @return                  A Stream of the Notes found
      */
     Stream<Note> search(String queryString, int count);
+
+    /**
+     * Get one page of notes, best match first.  Pages are cut with a cursor rather than an offset so walking through
+     * every page costs the same per page no matter how deep it goes.
+     *
+     * @param query             What to search for and where the previous page left off
+     * @return                  The page
+     * @throws IllegalArgumentException     If the cursor is not one handed out by a previous page
+     */
+    NotePage page(NoteQuery query);
+
+    /**
+     * Count the notes matching a query, by tag and by date, inside the index without loading a single note.
+     *
+     * @param query             What to count and how to break it down
+     * @return                  The counts
+     * @throws IllegalArgumentException     If the query string does not parse
+     */
+    Aggregation aggregate(AggregationQuery query);
+
+    /**
+     * Complete the start of a word with words from note bodies, most used first, for typeahead.  Words come from a
+     * suggester kept in memory and rebuilt in the background, so they can trail writes for a while.
+     *
+     * @param prefix            The start of the word
+     * @param count             The most words to return
+     * @return                  The words, most used first
+     */
+    List<Suggestion> suggest(String prefix, int count);
+
+    /**
+     * Replace a note in one atomic write, without reading it first unless asked to check its version.
+     *
+     * Only a note that is saved can be updated, so a deleted note stays deleted.  The check sees every earlier write,
+     * searchable yet or not.
+     *
+     * @param note              The note to save.  Must have an id.
+     * @param expectedVersion   The version the caller last saw, or null to overwrite whatever is there
+     * @return                  The saved note with its new version, or Optional.empty() if there is no such note
+     * @throws VersionConflictException     If expectedVersion is not the version currently saved
+     */
+    Optional<Note> update(Note note, Long expectedVersion);
+
+    /**
+     * Save without holding the caller's thread for the write.  Repositories with nowhere to queue writes just save
+     * right away.
+     *
+     * @param note              The note to save
+     * @return                  Completes with what save would have returned, or exceptionally with a
+     *                          RejectedExecutionException if too many writes are already waiting
+     */
+    default CompletableFuture<Note> saveAsync(Note note) {
+        return CompletableFuture.supplyAsync(() -> save(note), Runnable::run);
+    }
+
+    /**
+     * Update without holding the caller's thread for the write.
+     *
+     * @param note              The note to save.  Must have an id.
+     * @param expectedVersion   The version the caller last saw, or null to overwrite whatever is there
+     * @return                  Completes with what update would have returned, or exceptionally with what it threw or
+     *                          a RejectedExecutionException if too many writes are already waiting
+     */
+    default CompletableFuture<Optional<Note>> updateAsync(Note note, Long expectedVersion) {
+        return CompletableFuture.supplyAsync(() -> update(note, expectedVersion), Runnable::run);
+    }
+
+    /**
+     * Delete without holding the caller's thread for the write.
+     *
+     * @param id                The id of the note to delete
+     * @return                  Completes once deleted, or exceptionally with a RejectedExecutionException if too many
+     *                          writes are already waiting
+     */
+    default CompletableFuture<Void> deleteAsync(Long id) {
+        return CompletableFuture.runAsync(() -> delete(id), Runnable::run);
+    }
 }
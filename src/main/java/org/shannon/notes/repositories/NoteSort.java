@@ -0,0 +1,27 @@
+package org.shannon.notes.repositories;
+
+/**
+ * What order a page of notes comes in.  Anything but relevance is read straight off doc values and never scores a
+ * note.  Ties are broken by id in the same direction.
+ */
+public enum NoteSort {
+    /**
+     * Best match first
+     */
+    RELEVANCE,
+
+    /**
+     * By id, which is roughly the order notes were first saved in
+     */
+    ID,
+
+    /**
+     * By when each note was first saved
+     */
+    CREATED,
+
+    /**
+     * By when each note was last saved
+     */
+    UPDATED
+}
@@ -0,0 +1,27 @@
+package org.shannon.notes.repositories;
+
+/**
+ * How much of each hit a page carries.  Anything less than whole notes is cheaper to find and far smaller to send, and
+ * the whole note is always a GET by id away.
+ */
+public enum Projection {
+    /**
+     * Whole notes
+     */
+    NOTES,
+
+    /**
+     * Just the ids, which come out of the sort without reading a single stored field
+     */
+    IDS,
+
+    /**
+     * Ids and how well each matched
+     */
+    SCORES,
+
+    /**
+     * Ids, scores and a highlighted snippet of the body around what matched
+     */
+    SNIPPETS
+}
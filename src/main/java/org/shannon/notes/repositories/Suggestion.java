@@ -0,0 +1,16 @@
+package org.shannon.notes.repositories;
+
+import lombok.Value;
+
+/**
+ * A completion of what is being typed
+ */
+@Value
+public class Suggestion {
+    String text;
+
+    /**
+     * How many notes use the word, which is what suggestions are ordered by
+     */
+    long weight;
+}
@@ -0,0 +1,27 @@
+package org.shannon.notes.repositories;
+
+import lombok.Getter;
+
+/**
+ * Thrown when a conditional write expected a different version of the note than the one saved.
+ */
+@Getter
+public class VersionConflictException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final long id;
+    private final Long expectedVersion;
+    private final Long actualVersion;
+
+    /**
+     * @param id                The id of the note written
+     * @param expectedVersion   The version the writer expected
+     * @param actualVersion     The version actually saved, null if the note is not saved at all
+     */
+    public VersionConflictException(long id, Long expectedVersion, Long actualVersion) {
+        super("Note " + id + " is at version " + actualVersion + " not " + expectedVersion);
+        this.id = id;
+        this.expectedVersion = expectedVersion;
+        this.actualVersion = actualVersion;
+    }
+}
@@ -0,0 +1,131 @@
+package org.shannon.notes.repositories.impl;
+
+import lombok.NonNull;
+import lombok.val;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.search.SimpleCollector;
+import org.shannon.notes.repositories.Aggregation;
+import org.shannon.notes.repositories.AggregationQuery;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Counts hits, tags and dates straight off the doc values of every matching doc, never scoring and never touching a
+ * stored field.
+ *
+ * Tags are counted by ordinal into an array per segment and only turned into strings once the segment is done, so the
+ * cost per hit is an array increment per tag.  Notes are mostly appended in the order they are saved, so neighbouring
+ * hits tend to land in the same histogram bucket and the bucket's counter is kept at hand.
+ */
+final class Aggregator extends SimpleCollector {
+    private final AggregationQuery query;
+    private long hits;
+    private final Map<String, Long> tagCounts = new HashMap<>();
+    private final TreeMap<Long, long[]> buckets = new TreeMap<>();
+
+    private SortedSetDocValues tags;            // null unless counting tags
+    private int[] ordCounts;
+    private NumericDocValues dates;             // null unless counting dates
+    private long lastBucket = Long.MIN_VALUE;
+    private long[] lastCount;
+
+    /**
+     * @param query     What to count
+     */
+    Aggregator(@NonNull AggregationQuery query) {
+        this.query = query;
+    }
+
+    @Override
+    public boolean needsScores() {
+        return false;
+    }
+
+    @Override
+    protected void doSetNextReader(LeafReaderContext context) throws IOException {
+        finish();
+        if (query.getTagCount() > 0) {
+            tags = DocValues.getSortedSet(context.reader(), NoteFieldVisitor.TAGS);
+            ordCounts = new int[(int) tags.getValueCount()];
+        }
+        if (query.getHistogram() != null) {
+            dates = DocValues.getNumeric(context.reader()
+                    , query.getHistogram() == AggregationQuery.DateField.CREATED ? NoteFieldVisitor.CREATED : NoteFieldVisitor.VERSION);
+        }
+    }
+
+    @Override
+    public void collect(int doc) throws IOException {
+        hits++;
+        if (tags != null && tags.advanceExact(doc)) {
+            for (long ord = tags.nextOrd(); ord != SortedSetDocValues.NO_MORE_ORDS; ord = tags.nextOrd()) {
+                ordCounts[(int) ord]++;
+            }
+        }
+        if (dates != null && dates.advanceExact(doc)) {
+            val width = query.getInterval().getMillis();
+            val bucket = Math.floorDiv(dates.longValue(), width) * width;
+            if (bucket != lastBucket) {
+                lastBucket = bucket;
+                lastCount = buckets.computeIfAbsent(bucket, start -> new long[1]);
+            }
+            lastCount[0]++;
+        }
+    }
+
+    /**
+     * Turn the last segment's tag ordinals into tags.  Call once the search is done, while the reader is still open.
+     *
+     * @throws IOException  If the tags cannot be read
+     */
+    void finish() throws IOException {
+        if (tags == null) { return; }
+        for (int ord = 0; ord < ordCounts.length; ord++) {
+            if (ordCounts[ord] > 0) { tagCounts.merge(tags.lookupOrd(ord).utf8ToString(), (long) ordCounts[ord], Long::sum); }
+        }
+        tags = null;
+        ordCounts = null;
+    }
+
+    /**
+     * Add what another aggregator counted, typically over another shard, to this one
+     *
+     * @param other     A finished aggregator
+     */
+    void merge(@NonNull Aggregator other) {
+        hits += other.hits;
+        other.tagCounts.forEach((tag, count) -> tagCounts.merge(tag, count, Long::sum));
+        other.buckets.forEach((start, count) -> buckets.computeIfAbsent(start, key -> new long[1])[0] += count[0]);
+        lastBucket = Long.MIN_VALUE;
+    }
+
+    /**
+     * @return  What a finished aggregator counted, cut down to the most used tags
+     */
+    Aggregation toAggregation() {
+        List<Aggregation.TagCount> topTags = query.getTagCount() > 0
+                ? tagCounts.entrySet().stream()
+                        .sorted(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder())
+                                .thenComparing(Map.Entry.comparingByKey()))
+                        .limit(query.getTagCount())
+                        .map(entry -> new Aggregation.TagCount(entry.getKey(), entry.getValue()))
+                        .collect(Collectors.toList())
+                : null;
+        List<Aggregation.Bucket> histogram = null;
+        if (query.getHistogram() != null) {
+            histogram = new ArrayList<>(buckets.size());
+            for (val bucket : buckets.entrySet()) { histogram.add(new Aggregation.Bucket(bucket.getKey(), bucket.getValue()[0])); }
+        }
+        return new Aggregation(hits, topTags, histogram);
+    }
+}
@@ -0,0 +1,39 @@
+package org.shannon.notes.repositories.impl;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * One commit of an index as a primary publishes it: every file the commit needs with its length and the checksum from
+ * its footer, so a replica can tell which files it already has without reading them.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CommitPoint {
+    long generation;
+
+    /**
+     * The segments file, which a replica must copy last
+     */
+    String segmentsFile;
+
+    /**
+     * Every file of the commit, the segments file included, by name
+     */
+    Map<String, FileInfo> files;
+
+    /**
+     * What a replica needs to know to check a file
+     */
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class FileInfo {
+        long length;
+        long checksum;
+    }
+}
@@ -0,0 +1,93 @@
+package org.shannon.notes.repositories.impl;
+
+import lombok.val;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Builds searchers that search groups of segments (slices) in parallel on a pool shared by every repository in the
+ * process.
+ *
+ * The pool is bounded in both threads and queued slices.  When it is full the request thread searches the slice
+ * itself, so a busy night never queues up more work than the pool can take and never starves the web threads of CPU
+ * beyond the pool's size.  Indexes too small for more than one slice are searched on the request thread as before.
+ */
+public class ConcurrentSearcherFactory extends SearcherFactory {
+    private static final int QUEUED_SLICES_PER_THREAD = 16;
+    private static final Map<Integer, ExecutorService> SHARED = new ConcurrentHashMap<>();
+
+    private final ExecutorService executor;
+    private final int minSliceDocs;
+
+    /**
+     * @param threads       How many threads search slices, shared with every other factory asking for as many
+     * @param minSliceDocs  The fewest docs worth handing a thread of their own
+     */
+    public ConcurrentSearcherFactory(int threads, int minSliceDocs) {
+        if (threads < 1) { throw new IllegalArgumentException("Need at least one search thread."); }
+        if (minSliceDocs < 1) { throw new IllegalArgumentException("Slices need at least one doc."); }
+        this.executor = shared(threads);
+        this.minSliceDocs = minSliceDocs;
+    }
+
+    private static ExecutorService shared(int threads) {
+        return SHARED.computeIfAbsent(threads, n -> new ThreadPoolExecutor(n, n, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(n * QUEUED_SLICES_PER_THREAD),
+                runnable -> {
+                    val thread = new Thread(runnable, "note-search");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy()));
+    }
+
+    /**
+     * @return  The pool slices are searched on so it can be observed
+     */
+    public ThreadPoolExecutor getExecutor() {
+        return (ThreadPoolExecutor) executor;
+    }
+
+    @Override
+    public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) {
+        if (reader.maxDoc() < 2L * minSliceDocs) { return new IndexSearcher(reader); }
+        return new IndexSearcher(reader, executor) {
+            @Override
+            protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+                return ConcurrentSearcherFactory.slices(leaves, minSliceDocs);
+            }
+        };
+    }
+
+    /**
+     * Biggest segments first, every segment of at least minSliceDocs on its own and the small ones gathered up until
+     * they are worth a slice together
+     */
+    static IndexSearcher.LeafSlice[] slices(List<LeafReaderContext> leaves, int minSliceDocs) {
+        val sorted = new ArrayList<LeafReaderContext>(leaves);
+        sorted.sort(Comparator.comparingInt((LeafReaderContext leaf) -> leaf.reader().maxDoc()).reversed());
+
+        val slices = new ArrayList<IndexSearcher.LeafSlice>();
+        val group = new ArrayList<LeafReaderContext>();
+        long groupDocs = 0;
+        for (val leaf : sorted) {
+            group.add(leaf);
+            groupDocs += leaf.reader().maxDoc();
+            if (groupDocs >= minSliceDocs) {
+                slices.add(new IndexSearcher.LeafSlice(group.toArray(new LeafReaderContext[0])));
+                group.clear();
+                groupDocs = 0;
+            }
+        }
+        if (!group.isEmpty()) { slices.add(new IndexSearcher.LeafSlice(group.toArray(new LeafReaderContext[0]))); }
+        return slices.toArray(new IndexSearcher.LeafSlice[0]);
+    }
+}
@@ -0,0 +1,22 @@
+package org.shannon.notes.repositories.impl;
+
+/**
+ * How a write becomes durable before it is acknowledged.
+ */
+public enum DurabilityMode {
+    /**
+     * Every write commits (and so fsyncs) on its own.  Simple, but caps ingest at disk-sync speed.
+     */
+    COMMIT_PER_WRITE,
+
+    /**
+     * Concurrent writes wait together for one shared commit.
+     */
+    GROUP_COMMIT,
+
+    /**
+     * Every write is appended to a log and synced, sharing syncs with concurrent writes, and the index is committed
+     * every so often in the background.  What the last commit missed is replayed from the log on startup.
+     */
+    WRITE_AHEAD_LOG
+}
@@ -0,0 +1,42 @@
+package org.shannon.notes.repositories.impl;
+
+import lombok.NonNull;
+import lombok.val;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.QueryCache;
+import org.apache.lucene.search.QueryCachingPolicy;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.UsageTrackingQueryCachingPolicy;
+
+import java.io.IOException;
+
+/**
+ * Gives every searcher another factory builds the repository's own filter cache.
+ *
+ * The cache keeps a bitset per segment for filter clauses the policy has seen often enough, so a tag or time range
+ * asked for again is a bitset lookup rather than another walk of the doc values.  Segments never change, so the
+ * bitsets stay good across refreshes until their segment is merged away.
+ */
+final class FilterCachingSearcherFactory extends SearcherFactory {
+    private final SearcherFactory delegate;
+    private final QueryCache cache;                 // null to cache nothing
+    private final QueryCachingPolicy policy = new UsageTrackingQueryCachingPolicy();
+
+    /**
+     * @param delegate  What builds the searchers
+     * @param cache     Where to keep filter bitsets, null to keep none
+     */
+    FilterCachingSearcherFactory(@NonNull SearcherFactory delegate, QueryCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    @Override
+    public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) throws IOException {
+        val searcher = delegate.newSearcher(reader, previousReader);
+        searcher.setQueryCache(cache);
+        searcher.setQueryCachingPolicy(policy);
+        return searcher;
+    }
+}
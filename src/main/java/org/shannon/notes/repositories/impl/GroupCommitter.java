@@ -0,0 +1,164 @@
+package org.shannon.notes.repositories.impl;
+
+import io.micrometer.core.instrument.Timer;
+import lombok.val;
+import org.apache.lucene.index.IndexWriter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Folds the commits of concurrent writers into one.
+ *
+ * Writers add their documents and then ask for a commit.  A single committer thread takes the first request, gathers
+ * up to maxBatchSize more for at most maxBatchDelay, commits once and releases the whole batch.  While one commit is
+ * running the next batch piles up behind it, so even with no delay the batches grow with the load.
+ */
+public class GroupCommitter implements Closeable {
+    private static final CompletableFuture<Void> SHUTDOWN = new CompletableFuture<>();
+
+    private final IndexWriter writer;
+    private final Timer commits;
+    private final int maxBatchSize;
+    private final long maxBatchDelayNanos;
+    private final BlockingQueue<CompletableFuture<Void>> requests = new LinkedBlockingQueue<>();
+    private final Thread committer;
+    private final AtomicLong commitCount = new AtomicLong();
+    private final AtomicLong committedRequestCount = new AtomicLong();
+    private boolean closed;                         // guarded by requests, so nothing is queued behind SHUTDOWN
+
+    /**
+     * @param writer                    The writer to commit
+     * @param maxBatchSize              The most commit requests released by a single commit
+     * @param maxBatchDelayMillis       The longest to wait for a batch to fill once its first request arrives
+     * @param commits                   Where to record how long each commit took
+     */
+    public GroupCommitter(IndexWriter writer, int maxBatchSize, long maxBatchDelayMillis, Timer commits) {
+        if (maxBatchSize < 1) { throw new IllegalArgumentException("maxBatchSize must be at least 1"); }
+        this.writer = writer;
+        this.commits = commits;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxBatchDelayMillis));
+        committer = new Thread(this::run, "note-group-committer");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /**
+     * Ask for everything written so far to be committed.
+     *
+     * @return      Completes once a commit that started after this call has finished
+     */
+    public CompletableFuture<Void> requestCommit() {
+        val request = new CompletableFuture<Void>();
+        synchronized (requests) {
+            if (closed || !committer.isAlive()) {
+                request.completeExceptionally(new IllegalStateException("The group committer is closed."));
+            } else {
+                requests.add(request);
+            }
+        }
+        return request;
+    }
+
+    /**
+     * Block until everything written so far is committed.
+     *
+     * @throws IOException  If the commit failed or we were interrupted waiting for it
+     */
+    public void awaitCommit() throws IOException {
+        try {
+            requestCommit().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for a group commit", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    private void run() {
+        val batch = new ArrayList<CompletableFuture<Void>>(maxBatchSize);
+        boolean shuttingDown = false;
+        while (!shuttingDown) {
+            try {
+                val first = requests.take();
+                val deadline = System.nanoTime() + maxBatchDelayNanos;
+                shuttingDown = first == SHUTDOWN;
+                if (!shuttingDown) { batch.add(first); }
+                while (!shuttingDown && batch.size() < maxBatchSize) {
+                    val remaining = deadline - System.nanoTime();
+                    val next = remaining > 0 ? requests.poll(remaining, TimeUnit.NANOSECONDS) : requests.poll();
+                    if (next == null) { break; }
+                    shuttingDown = next == SHUTDOWN;
+                    if (!shuttingDown) { batch.add(next); }
+                }
+            } catch (InterruptedException e) {
+                shuttingDown = true;
+            }
+            commit(batch);
+            batch.clear();
+        }
+    }
+
+    private void commit(ArrayList<CompletableFuture<Void>> batch) {
+        if (batch.isEmpty()) { return; }
+        try {
+            IndexMetrics.record(commits, writer::commit);
+            commitCount.incrementAndGet();
+            committedRequestCount.addAndGet(batch.size());
+            batch.forEach(request -> request.complete(null));
+        } catch (IOException | RuntimeException e) {
+            batch.forEach(request -> request.completeExceptionally(e));
+        }
+    }
+
+    /**
+     * @return  How many commits have been made
+     */
+    public long getCommitCount() {
+        return commitCount.get();
+    }
+
+    /**
+     * @return  How many commit requests have been satisfied
+     */
+    public long getCommittedRequestCount() {
+        return committedRequestCount.get();
+    }
+
+    /**
+     * @return  How many commit requests are waiting for the next batch
+     */
+    public int getPendingCount() {
+        return requests.size();
+    }
+
+    /**
+     * Commit whatever is pending and stop the committer thread.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (requests) {
+            if (closed) { return; }
+            closed = true;
+            requests.add(SHUTDOWN);
+        }
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for the group committer to finish", e);
+        }
+        val abandoned = new ArrayList<CompletableFuture<Void>>();
+        requests.drainTo(abandoned);
+        abandoned.forEach(request -> request.completeExceptionally(new IllegalStateException("The group committer is closed.")));
+    }
+}
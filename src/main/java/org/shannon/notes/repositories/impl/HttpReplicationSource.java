@@ -0,0 +1,65 @@
+package org.shannon.notes.repositories.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.NonNull;
+import lombok.val;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.file.NoSuchFileException;
+
+/**
+ * A primary's commits as its replication endpoints serve them, one shard at a time
+ */
+public class HttpReplicationSource implements ReplicationSource {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final URI shard;
+    private final int timeoutMillis;
+
+    /**
+     * @param shard         Where the primary serves the shard's commits, e.g. http://primary/api/replication/shards/0
+     * @param timeoutMillis How long to wait to connect and between reads
+     */
+    public HttpReplicationSource(@NonNull URI shard, int timeoutMillis) {
+        this.shard = shard;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        val connection = (HttpURLConnection) URI.create(shard + path).toURL().openConnection();
+        connection.setConnectTimeout(timeoutMillis);
+        connection.setReadTimeout(timeoutMillis);
+        if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+            connection.disconnect();
+            throw new NoSuchFileException(shard + path);
+        }
+        if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            connection.disconnect();
+            throw new IOException(shard + path + " answered " + connection.getResponseCode());
+        }
+        return connection;
+    }
+
+    @Override
+    public CommitPoint latest() throws IOException {
+        val connection = open("");
+        try (InputStream in = connection.getInputStream()) {
+            return MAPPER.readValue(in, CommitPoint.class);
+        }
+    }
+
+    @Override
+    public void copy(long generation, @NonNull String file, @NonNull OutputStream out) throws IOException {
+        val connection = open("/files/" + generation + "/" + file);
+        try (InputStream in = connection.getInputStream()) {
+            val buffer = new byte[BUFFER_BYTES];
+            int read;
+            while ((read = in.read(buffer)) != -1) { out.write(buffer, 0, read); }
+        }
+    }
+}
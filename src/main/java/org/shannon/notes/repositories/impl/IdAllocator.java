@@ -0,0 +1,207 @@
+package org.shannon.notes.repositories.impl;
+
+import lombok.val;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out note ids without every writer fighting over one counter.
+ *
+ * Each thread reserves a block of ids at a time and hands them out on its own, so the shared counter is only touched
+ * once per block.  The highest id reserved goes into the user data of every commit, so reopening an index is a map
+ * lookup rather than a sort over every note; ids reserved but never handed out before a crash are simply skipped.
+ *
+ * Only blocks with ids left to hand out are tracked, and only weakly, so neither threads coming and going nor a long
+ * uptime grow what isHandedOut and getHighWater have to look through.
+ *
+ * Several instances handing out ids for the same notes can each take a node id of a node count.  Node n then only
+ * hands out ids congruent to n modulo the node count, so instances never collide without talking to each other.
+ */
+public class IdAllocator {
+    /**
+     * The commit user data key holding the highest sequence number reserved
+     */
+    public static final String HIGH_WATER = "notes.idHighWater";
+
+    /**
+     * The ids one thread has reserved.  Only its thread writes to it, others only read it.
+     */
+    private static class Block {
+        volatile long next = 1;                             // the next sequence number to hand out
+        volatile long last = 0;                             // the last sequence number reserved, empty while next > last
+    }
+
+    private final int blockSize;
+    private final int nodeId;
+    private final int nodeCount;
+    private final AtomicLong reserved = new AtomicLong();  // highest sequence number reserved by any block
+    private final AtomicLong floor = new AtomicLong();     // sequence numbers up to here are used, never hand them out
+    private final AtomicLong usedUp = new AtomicLong();    // highest sequence number handed out of a block no longer tracked
+    private final Set<Block> outstanding = Collections.newSetFromMap(new WeakHashMap<>());  // guarded by itself
+    private final ThreadLocal<Block> local = ThreadLocal.withInitial(Block::new);
+    private int tracked;                                    // blocks added to outstanding and not removed, guarded by it
+    private volatile boolean closed;
+
+    /**
+     * @param blockSize     How many ids a thread reserves at a time
+     * @param nodeId        Which of nodeCount instances this is, from 0
+     * @param nodeCount     How many instances hand out ids for the same notes
+     */
+    public IdAllocator(int blockSize, int nodeId, int nodeCount) {
+        if (blockSize < 1) { throw new IllegalArgumentException("Blocks need at least one id."); }
+        if (nodeCount < 1 || nodeId < 0 || nodeId >= nodeCount) { throw new IllegalArgumentException("Node id must be in [0, node count)."); }
+        this.blockSize = blockSize;
+        this.nodeId = nodeId;
+        this.nodeCount = nodeCount;
+    }
+
+    /**
+     * @param settings  Where the block size and node come from
+     */
+    public IdAllocator(RepositorySettings settings) {
+        this(settings.getIdBlockSize(), settings.getNodeId(), settings.getNodeCount());
+    }
+
+    private long idOf(long sequence) {
+        return sequence * nodeCount + nodeId;
+    }
+
+    private long sequenceOf(long id) {
+        return Math.floorDiv(id, nodeCount);
+    }
+
+    private boolean isOurs(long id) {
+        return Math.floorMod(id, nodeCount) == nodeId;
+    }
+
+    /**
+     * @return  An id never handed out before
+     */
+    public long next() {
+        val block = local.get();
+        long sequence = block.next;
+        if (sequence > block.last || sequence <= floor.get()) {
+            val last = reserved.accumulateAndGet(floor.get() + blockSize, (current, atLeast) -> Math.max(current + blockSize, atLeast));
+            sequence = last - blockSize + 1;
+            synchronized (outstanding) {
+                usedUp.accumulateAndGet(Math.min(block.next - 1, block.last), Math::max);
+                block.next = sequence;                      // next before last so readers never see a tail that is not ours
+                block.last = last;
+                if (outstanding.add(block)) { tracked++; }
+            }
+        }
+        block.next = sequence + 1;
+        if (sequence == block.last) { untrack(block); }
+        return idOf(sequence);
+    }
+
+    /**
+     * Stop tracking a block with nothing left to hand out
+     */
+    private void untrack(Block block) {
+        synchronized (outstanding) {
+            usedUp.accumulateAndGet(block.last, Math::max);
+            if (outstanding.remove(block)) { tracked--; }
+        }
+    }
+
+    /**
+     * Note an id that was saved without being handed out here, so it never will be
+     *
+     * @param id    Some id saved with a note
+     */
+    public void observe(long id) {
+        if (!isOurs(id)) { return; }
+        val sequence = sequenceOf(id);
+        if (sequence > floor.get()) {
+            floor.accumulateAndGet(sequence, Math::max);
+            reserved.accumulateAndGet(sequence, Math::max);
+        }
+    }
+
+    /**
+     * Start from what an index already holds
+     *
+     * @param highWater     The highest sequence number the index may hold, from its commit or its notes
+     */
+    public void recover(long highWater) {
+        floor.accumulateAndGet(highWater, Math::max);
+        reserved.accumulateAndGet(highWater, Math::max);
+    }
+
+    /**
+     * Start from the highest id in an index that predates persisted high water marks
+     *
+     * @param maxId     The highest id of any note in the index
+     */
+    public void recoverFromMaxId(long maxId) {
+        recover(sequenceOf(maxId));
+    }
+
+    /**
+     * @param id    Some id
+     * @return      Whether the id could belong to a note: handed out, saved or from before the index was opened
+     */
+    public boolean isHandedOut(long id) {
+        if (id < 1) { return false; }
+        val sequence = sequenceOf(id);
+        if (!isOurs(id)) { return sequence <= reserved.get(); }
+        if (sequence <= floor.get()) { return true; }
+        if (sequence > reserved.get()) { return false; }
+        synchronized (outstanding) {
+            for (val block : outstanding) {
+                if (block.next <= sequence && sequence <= block.last) { return false; }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return  The sequence number to persist: everything reserved, or once closed only what was really handed out
+     */
+    long getHighWater() {
+        if (!closed) { return reserved.get(); }
+        synchronized (outstanding) {
+            // a block left by a thread that died has been collected, so what it handed out is unknown
+            if (outstanding.size() < tracked) { return reserved.get(); }
+            long highWater = Math.max(floor.get(), usedUp.get());
+            for (val block : outstanding) {
+                highWater = Math.max(highWater, Math.min(block.next - 1, block.last));
+            }
+            return highWater;
+        }
+    }
+
+    /**
+     * Commit user data that always holds the current high water mark, for IndexWriter.setLiveCommitData
+     */
+    Iterable<Map.Entry<String, String>> commitData() {
+        return () -> Collections.singletonMap(HIGH_WATER, Long.toString(getHighWater())).entrySet().iterator();
+    }
+
+    /**
+     * Read the high water mark back out of commit user data
+     *
+     * @param commitData    The user data of the last commit
+     * @return              The high water mark or null if the commit predates them
+     */
+    static Long highWaterOf(Iterable<Map.Entry<String, String>> commitData) {
+        if (commitData == null) { return null; }
+        for (val entry : commitData) {
+            if (HIGH_WATER.equals(entry.getKey())) { return Long.parseLong(entry.getValue()); }
+        }
+        return null;
+    }
+
+    /**
+     * Stop reserving ahead so the last commit records exactly the ids handed out and a reopen carries on right after
+     * them
+     */
+    public void close() {
+        closed = true;
+    }
+}
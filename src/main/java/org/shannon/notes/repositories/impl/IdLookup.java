@@ -0,0 +1,123 @@
+package org.shannon.notes.repositories.impl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import lombok.Value;
+import lombok.val;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+
+import java.io.IOException;
+
+/**
+ * Primary key lookups: finds the one live document holding an id by seeking the id term in each segment, with no
+ * query, no scoring and no collector.
+ *
+ * Optionally remembers which segment and doc an id was last found in.  A remembered location is only trusted while
+ * its segment is part of the searcher and the doc is still live.  Locations in a segment that was merged away are
+ * not hunted down when it closes, they are dropped as misses when next looked up or pushed out by newer ones.
+ */
+public class IdLookup {
+    /**
+     * Where a live document was found
+     */
+    @Value
+    public static class Location {
+        LeafReaderContext leaf;
+        int doc;
+    }
+
+    @Value
+    private static class CachedLocation {
+        IndexReader.CacheKey segment;
+        int doc;
+    }
+
+    private final Cache<Long, CachedLocation> cache;        // null when caching is off
+
+    /**
+     * @param cacheSize     How many id locations to remember, zero or less to remember none
+     */
+    public IdLookup(long cacheSize) {
+        cache = cacheSize > 0
+                ? CacheBuilder.newBuilder().maximumSize(cacheSize).recordStats().build()
+                : null;
+    }
+
+    /**
+     * Find the live document holding the id
+     *
+     * @param searcher      The searcher to look in
+     * @param id            The id to find
+     * @return              Where the document is or null if no live document holds the id
+     * @throws IOException  If the index cannot be read
+     */
+    public Location find(IndexSearcher searcher, long id) throws IOException {
+        val leaves = searcher.getIndexReader().leaves();
+        if (cache != null) {
+            val cached = cache.asMap().get(id);                     // a peek, since a stale location is no hit
+            if (cached != null) {
+                for (val leaf : leaves) {
+                    if (segmentOf(leaf) == cached.getSegment() && isLive(leaf, cached.getDoc())) {
+                        cache.getIfPresent(id);                     // counted as the hit it is
+                        return new Location(leaf, cached.getDoc());
+                    }
+                }
+                cache.invalidate(id);
+            }
+            cache.getIfPresent(id);                                 // counted as the miss it is
+        }
+
+        val term = LuceneNoteRepository.idTerm(id).bytes();
+        PostingsEnum postings = null;
+        for (int i = leaves.size() - 1; i >= 0; i--) {               // newest segments first since that is where updates land
+            val leaf = leaves.get(i);
+            val terms = leaf.reader().terms(LuceneNoteRepository.ID_TERM);
+            if (terms == null) { continue; }
+            val termsEnum = terms.iterator();
+            if (!termsEnum.seekExact(term)) { continue; }
+            postings = termsEnum.postings(postings, PostingsEnum.NONE);
+            for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                if (isLive(leaf, doc)) {
+                    remember(id, leaf, doc);
+                    return new Location(leaf, doc);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static IndexReader.CacheKey segmentOf(LeafReaderContext leaf) {
+        val helper = leaf.reader().getCoreCacheHelper();
+        return helper == null ? null : helper.getKey();
+    }
+
+    private static boolean isLive(LeafReaderContext leaf, int doc) {
+        val liveDocs = leaf.reader().getLiveDocs();
+        return liveDocs == null || liveDocs.get(doc);
+    }
+
+    private void remember(long id, LeafReaderContext leaf, int doc) {
+        val segment = segmentOf(leaf);
+        if (cache == null || segment == null) { return; }
+        cache.put(id, new CachedLocation(segment, doc));
+    }
+
+    /**
+     * Forget every remembered location
+     */
+    public void clear() {
+        if (cache != null) { cache.invalidateAll(); }
+    }
+
+    /**
+     * @return  Hits and misses of the remembered locations, all zero when caching is off
+     */
+    public CacheStats getCacheStats() {
+        return cache == null ? new CacheStats(0, 0, 0, 0, 0, 0) : cache.stats();
+    }
+}
@@ -0,0 +1,118 @@
+package org.shannon.notes.repositories.impl;
+
+import lombok.NonNull;
+import lombok.val;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.FilterDirectory;
+import org.apache.lucene.store.IOContext;
+import org.shannon.notes.repositories.BackupResult;
+
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * Copies one commit of an index into another directory, file by file.
+ *
+ * Lucene never changes a file once written and never reuses a name, so a file the destination already has at the
+ * same length is the same file and is left alone.  Files are hard linked rather than copied when both sides are on
+ * the same disk.  The commit's segments file goes last, so until it lands the destination still opens as whatever it
+ * held before, and only then are the files no longer needed dropped.
+ */
+public final class IndexBackup {
+    private IndexBackup() {
+    }
+
+    /**
+     * Copy a commit, typically one pinned by a SnapshotDeletionPolicy so it cannot be deleted underneath us
+     *
+     * @param source        The directory the commit is in
+     * @param commit        The commit to copy
+     * @param destination   Where to copy it, created if need be
+     * @return              How much had to be copied
+     * @throws IOException  If copying fails
+     */
+    public static BackupResult copy(@NonNull Directory source, @NonNull IndexCommit commit, @NonNull Path destination) throws IOException {
+        val started = System.currentTimeMillis();
+        val unwrapped = FilterDirectory.unwrap(source);
+        val sourcePath = unwrapped instanceof FSDirectory ? ((FSDirectory) unwrapped).getDirectory() : null;
+        int copied = 0, linked = 0, unchanged = 0;
+        long bytes = 0;
+        try (val target = FSDirectory.open(Files.createDirectories(destination))) {
+            val files = new ArrayList<String>(commit.getFileNames());
+            files.remove(commit.getSegmentsFileName());
+            files.add(commit.getSegmentsFileName());
+            val existing = new HashSet<String>();
+            for (val name : target.listAll()) { existing.add(name); }
+            val written = new ArrayList<String>();
+            for (val name : files) {
+                if (existing.contains(name) && target.fileLength(name) == source.fileLength(name)) {
+                    unchanged++;
+                    continue;
+                }
+                if (existing.contains(name)) { target.deleteFile(name); }     // left half copied by an earlier backup
+                if (sourcePath != null && link(sourcePath.resolve(name), destination.resolve(name))) {
+                    linked++;
+                } else {
+                    target.copyFrom(source, name, name, IOContext.READONCE);
+                    copied++;
+                    bytes += source.fileLength(name);
+                }
+                written.add(name);
+            }
+            target.sync(written);
+            target.syncMetaData();
+            val kept = new HashSet<String>(files);
+            for (val name : target.listAll()) {
+                if (!kept.contains(name) && isIndexFile(name)) { target.deleteFile(name); }
+            }
+        }
+        return new BackupResult(copied, linked, unchanged, bytes, System.currentTimeMillis() - started);
+    }
+
+    /**
+     * Replace whatever index is in a directory with the latest commit of a backup
+     *
+     * @param backup        A directory backed up into by copy
+     * @param index         Where the index to replace lives, created if need be
+     * @return              How much had to be copied
+     * @throws IOException  If the backup holds no index or copying fails
+     */
+    public static BackupResult restore(@NonNull Path backup, @NonNull Path index) throws IOException {
+        try (val from = FSDirectory.open(backup)) {
+            val commits = DirectoryReader.listCommits(from);
+            val commit = commits.get(commits.size() - 1);
+            if (Files.isDirectory(index)) {
+                try (val to = FSDirectory.open(index)) {
+                    for (val name : to.listAll()) {
+                        if (isIndexFile(name)) { to.deleteFile(name); }
+                    }
+                }
+            }
+            return copy(from, commit, index);
+        }
+    }
+
+    static boolean isIndexFile(String name) {
+        return name.startsWith(IndexFileNames.SEGMENTS) || IndexFileNames.CODEC_FILE_PATTERN.matcher(name).matches();
+    }
+
+    /**
+     * @return  Whether the link was made, false if links are not possible between the two
+     */
+    private static boolean link(Path from, Path to) throws IOException {
+        try {
+            Files.createLink(to, from);
+            return true;
+        } catch (UnsupportedOperationException | FileSystemException e) {     // another disk or no links here
+            return false;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package org.shannon.notes.repositories.impl;
+
+import com.google.common.cache.CacheStats;
+import io.micrometer.core.instrument.*;
+import lombok.val;
+import org.apache.lucene.search.LRUQueryCache;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FilterDirectory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NRTCachingDirectory;
+import org.shannon.function.ExceptionalSupplier;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Timers, counters and gauges for the Lucene side of a LuceneNoteRepository: how long commits, refreshes, merges,
+ * query parsing and stored field loading take, and what shape the index is in.
+ *
+ * Every meter is tagged with the index name so the shards of a ShardedNoteRepository can be told apart.
+ */
+public class IndexMetrics {
+    private final MeterRegistry registry;
+    private final Tags tags;
+    private final Timer commits;
+    private final Timer refreshes;
+    private final Timer merges;
+    private final Timer parses;
+    private final Timer loads;
+    private final Timer walSyncs;
+    private final Timer suggestBuilds;
+    private final Counter errors;
+
+    /**
+     * @param registry      Where the meters go
+     * @param index         The name to tag every meter with
+     */
+    public IndexMetrics(MeterRegistry registry, String index) {
+        this.registry = registry;
+        this.tags = Tags.of("index", index);
+        commits = timer("notes.index.commit", "Commits of the index writer, each an fsync");
+        refreshes = timer("notes.index.refresh", "Opening a new near real time reader");
+        merges = timer("notes.index.merge", "Segment merges");
+        parses = timer("notes.index.parse", "Parsing query strings the parsed query cache did not have");
+        loads = timer("notes.index.load", "Loading the stored fields of a batch of hits");
+        walSyncs = timer("notes.wal.sync", "Syncs of the write-ahead log, each shared by every write appended before it");
+        suggestBuilds = timer("notes.suggest.build", "Rebuilding the suggester from the term dictionary");
+        errors = Counter.builder("notes.index.errors")
+                .description("Failures the repository swallowed and logged")
+                .tags(tags)
+                .register(registry);
+    }
+
+    private Timer timer(String name, String description) {
+        return Timer.builder(name)
+                .description(description)
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    /**
+     * Time something that might throw
+     *
+     * @param timer     What to record to
+     * @param action    What to time
+     * @param <E>       What action might throw
+     * @param <T>       What action produces
+     * @return          Whatever action returned
+     * @throws E        Whatever action threw
+     */
+    static <E extends Throwable, T> T record(Timer timer, ExceptionalSupplier<E, T> action) throws E {
+        val started = System.nanoTime();
+        try {
+            return action.get();
+        } finally {
+            timer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Keep an eye on the shape of a repository's index for as long as the repository is around
+     *
+     * @param repository    The repository to watch
+     */
+    void watch(LuceneNoteRepository repository) {
+        val searchers = repository.getSearchers();
+        gauge("notes.index.segments", "Segments in the current searcher", repository, r -> quietly(() -> searchers.getSegmentCount()));
+        gauge("notes.index.deleted.ratio", "Share of docs in the current searcher that are deleted", repository,
+                r -> quietly(() -> searchers.withSearcher(searcher -> {
+                    val reader = searcher.getIndexReader();
+                    return reader.maxDoc() == 0 ? 0.0 : (double) reader.numDeletedDocs() / reader.maxDoc();
+                })));
+        if (!repository.isReadOnly()) {
+            gauge("notes.index.ram.buffer.bytes", "Bytes buffered by the index writer and not yet flushed", repository,
+                    r -> r.getWriter().ramBytesUsed());
+        }
+        gauge("notes.index.refresh.lag.ms", "How long the oldest write not yet visible to searches has waited", repository,
+                r -> searchers.getRefreshLagMillis());
+        gauge("notes.index.searchers.acquired", "Searchers currently held by requests", repository,
+                r -> searchers.getAcquiredCount());
+        gauge("notes.suggest.bytes", "Bytes of heap the suggester's FST takes up", repository, r -> r.getSuggester().ramBytesUsed());
+        if (FilterDirectory.unwrap(repository.getDirectory()) instanceof MMapDirectory) {
+            gauge("notes.index.mapped.bytes", "Bytes of index files memory mapped by the directory", repository,
+                    r -> quietly(() -> sizeOf(FilterDirectory.unwrap(r.getDirectory()))));
+        }
+        if (repository.getDirectory() instanceof NRTCachingDirectory) {
+            gauge("notes.index.nrt.cached.bytes", "Bytes of newly flushed segments held in memory and not yet written out",
+                    (NRTCachingDirectory) repository.getDirectory(), NRTCachingDirectory::ramBytesUsed);
+        }
+        repository.getWriteAheadLog().ifPresent(wal ->
+                gauge("notes.wal.bytes", "Bytes of write-ahead log kept until a commit covers them", wal, WriteAheadLog::getSizeInBytes));
+        repository.getCommitter().ifPresent(committer ->
+                gauge("notes.index.commit.pending", "Writes waiting for the next group commit", committer, GroupCommitter::getPendingCount));
+        cache("id", repository, r -> r.getIdLookup().getCacheStats());
+        cache("results", repository, r -> r.getSearchCache().getResultStats());
+        cache("parsed", repository, r -> r.getSearchCache().getParsedQueryStats());
+        repository.getFilterCache().ifPresent(filters -> {
+            counter("notes.cache.hits", "filters", filters, LRUQueryCache::getHitCount);
+            counter("notes.cache.misses", "filters", filters, LRUQueryCache::getMissCount);
+            counter("notes.cache.evictions", "filters", filters, LRUQueryCache::getEvictionCount);
+        });
+    }
+
+    /**
+     * Count the hits, misses and evictions of one of the repository's Guava caches
+     */
+    private void cache(String cache, LuceneNoteRepository repository, Function<LuceneNoteRepository, CacheStats> stats) {
+        counter("notes.cache.hits", cache, repository, r -> stats.apply(r).hitCount());
+        counter("notes.cache.misses", cache, repository, r -> stats.apply(r).missCount());
+        counter("notes.cache.evictions", cache, repository, r -> stats.apply(r).evictionCount());
+    }
+
+    private <T> void counter(String name, String cache, T watched, ToDoubleFunction<T> count) {
+        FunctionCounter.builder(name, watched, count)
+                .tags(tags).tag("cache", cache).register(registry);
+    }
+
+    /**
+     * Keep an eye on how far a replica trails its primary
+     *
+     * @param sync      What keeps the replica up to date
+     */
+    void watch(ReplicaSync sync) {
+        gauge("notes.replication.lag.ms", "How long since the replica last had the primary's latest commit", sync, ReplicaSync::getLagMillis);
+        gauge("notes.replication.generation", "The generation of the commit the replica searches", sync, ReplicaSync::getGeneration);
+    }
+
+    private <T> void gauge(String name, String description, T watched, ToDoubleFunction<T> value) {
+        Gauge.builder(name, watched, value)
+                .description(description)
+                .tags(tags)
+                .register(registry);
+    }
+
+    private static double quietly(ExceptionalSupplier<IOException, Number> value) {
+        try {
+            return value.get().doubleValue();
+        } catch (IOException | RuntimeException e) {       // the index is closing, nothing to report
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Every index file is mapped once it is opened, so the files are what is mapped
+     */
+    private static long sizeOf(Directory directory) throws IOException {
+        long bytes = 0;
+        for (val file : directory.listAll()) {
+            try {
+                bytes += directory.fileLength(file);
+            } catch (IOException e) {                   // merged away while we were looking
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Count a failure that was swallowed
+     */
+    void failed() {
+        errors.increment();
+    }
+
+    public Timer getCommits() {
+        return commits;
+    }
+
+    public Timer getRefreshes() {
+        return refreshes;
+    }
+
+    public Timer getMerges() {
+        return merges;
+    }
+
+    public Timer getParses() {
+        return parses;
+    }
+
+    public Timer getLoads() {
+        return loads;
+    }
+
+    public Timer getWalSyncs() {
+        return walSyncs;
+    }
+
+    public Timer getSuggestBuilds() {
+        return suggestBuilds;
+    }
+}
@@ -0,0 +1,116 @@
+package org.shannon.notes.repositories.impl;
+
+import lombok.NonNull;
+import lombok.val;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.store.IOContext;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.NoSuchFileException;
+import java.util.HashMap;
+import java.util.TreeMap;
+
+/**
+ * Publishes a primary's commits for replicas to copy.
+ *
+ * Every commit handed out is pinned through the repository's SnapshotDeletionPolicy, so merges cannot delete its
+ * files while a replica is still copying them.  Once a newer commit is published the older one stays pinned for
+ * retainMillis more, long enough for a replica halfway through it to finish, and is then let go.
+ */
+public class IndexReplicationSource implements ReplicationSource, Closeable {
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final LuceneNoteRepository repository;
+    private final long retainMillis;
+    private final TreeMap<Long, Held> held = new TreeMap<>();      // by generation, guarded by this
+
+    private static final class Held {
+        final IndexCommit commit;
+        final CommitPoint point;
+        long supersededAt = Long.MAX_VALUE;
+
+        Held(IndexCommit commit, CommitPoint point) {
+            this.commit = commit;
+            this.point = point;
+        }
+    }
+
+    /**
+     * @param repository    The primary's index
+     * @param retainMillis  How long a commit stays copyable once a newer one is published
+     */
+    public IndexReplicationSource(@NonNull LuceneNoteRepository repository, long retainMillis) {
+        if (repository.isReadOnly()) { throw new IllegalArgumentException("Only a primary can publish commits."); }
+        this.repository = repository;
+        this.retainMillis = retainMillis;
+    }
+
+    @Override
+    public synchronized CommitPoint latest() throws IOException {
+        val now = System.currentTimeMillis();
+        val commit = repository.snapshot();
+        val newest = held.isEmpty() ? null : held.lastEntry().getValue();
+        if (newest != null && newest.commit.getGeneration() == commit.getGeneration()) {
+            repository.release(commit);             // pinned once already
+        } else {
+            if (newest != null) { newest.supersededAt = now; }
+            held.put(commit.getGeneration(), new Held(commit, pointOf(commit)));
+        }
+        val expired = held.headMap(held.lastKey()).values().iterator();
+        while (expired.hasNext()) {
+            val old = expired.next();
+            if (old.supersededAt + retainMillis > now) { break; }
+            repository.release(old.commit);
+            expired.remove();
+        }
+        return held.lastEntry().getValue().point;
+    }
+
+    private CommitPoint pointOf(IndexCommit commit) throws IOException {
+        val directory = commit.getDirectory();
+        val files = new HashMap<String, CommitPoint.FileInfo>();
+        for (val name : commit.getFileNames()) {
+            try (val in = directory.openInput(name, IOContext.READONCE)) {
+                files.put(name, new CommitPoint.FileInfo(in.length(), CodecUtil.retrieveChecksum(in)));
+            }
+        }
+        return new CommitPoint(commit.getGeneration(), commit.getSegmentsFileName(), files);
+    }
+
+    @Override
+    public void copy(long generation, @NonNull String file, @NonNull OutputStream out) throws IOException {
+        synchronized (this) {
+            val commit = held.get(generation);
+            if (commit == null || !commit.point.getFiles().containsKey(file)) { throw new NoSuchFileException(file); }
+        }
+        // a commit let go meanwhile can have its files deleted, but one already open stays readable on POSIX
+        try (val in = repository.getDirectory().openInput(file, IOContext.READONCE)) {
+            val buffer = new byte[BUFFER_BYTES];
+            for (long left = in.length(); left > 0; ) {
+                val chunk = (int) Math.min(left, buffer.length);
+                in.readBytes(buffer, 0, chunk);
+                out.write(buffer, 0, chunk);
+                left -= chunk;
+            }
+        }
+    }
+
+    /**
+     * @return  The generation of the commit last published, -1 if none has been
+     */
+    public synchronized long getGeneration() {
+        return held.isEmpty() ? -1 : held.lastKey();
+    }
+
+    /**
+     * Let go of every commit still held
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        for (val commit : held.values()) { repository.release(commit.commit); }
+        held.clear();
+    }
+}
@@ -0,0 +1,88 @@
+package org.shannon.notes.repositories.impl;
+
+import lombok.val;
+import org.apache.lucene.codecs.lucene50.Lucene50StoredFieldsFormat;
+import org.apache.lucene.codecs.lucene70.Lucene70Codec;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.TieredMergePolicy;
+
+/**
+ * Named sets of IndexWriter settings that go together: how much to buffer before flushing, how eagerly to merge and
+ * reclaim deletes, how many merges to run at once, compound files and how hard to compress stored fields.
+ */
+public enum IndexTuningProfile {
+    /**
+     * Lucene's own defaults, which is what every index got before profiles existed
+     */
+    DEFAULT {
+        @Override
+        void tune(IndexWriterConfig config, TieredMergePolicy mergePolicy, ConcurrentMergeScheduler scheduler) {
+        }
+    },
+
+    /**
+     * Big buffers so flushes are rare, lazy merging with many segments per tier and no compound files, and merges
+     * that are never throttled.  Searches see more segments in exchange.
+     */
+    INGEST_HEAVY {
+        @Override
+        void tune(IndexWriterConfig config, TieredMergePolicy mergePolicy, ConcurrentMergeScheduler scheduler) {
+            config.setRAMBufferSizeMB(256)
+                    .setUseCompoundFile(false);
+            mergePolicy.setSegmentsPerTier(20)
+                    .setMaxMergeAtOnce(20)
+                    .setNoCFSRatio(0);
+            scheduler.disableAutoIOThrottle();
+        }
+    },
+
+    /**
+     * Few segments and deletes reclaimed early, so every search visits as little as possible.  Writes pay for it with
+     * more merging.
+     */
+    SEARCH_HEAVY {
+        @Override
+        void tune(IndexWriterConfig config, TieredMergePolicy mergePolicy, ConcurrentMergeScheduler scheduler) {
+            config.setRAMBufferSizeMB(64)
+                    .setUseCompoundFile(false);
+            mergePolicy.setSegmentsPerTier(4)
+                    .setMaxMergeAtOnce(4)
+                    .setDeletesPctAllowed(20)
+                    .setNoCFSRatio(0);
+        }
+    },
+
+    /**
+     * Small buffers and one merge at a time, with compound files to keep file handles down and stored fields
+     * compressed as hard as they go.
+     */
+    LOW_MEMORY {
+        @Override
+        void tune(IndexWriterConfig config, TieredMergePolicy mergePolicy, ConcurrentMergeScheduler scheduler) {
+            config.setRAMBufferSizeMB(8)
+                    .setRAMPerThreadHardLimitMB(64)
+                    .setUseCompoundFile(true)
+                    .setCodec(new Lucene70Codec(Lucene50StoredFieldsFormat.Mode.BEST_COMPRESSION));
+            mergePolicy.setMaxMergedSegmentMB(1024)
+                    .setNoCFSRatio(1);
+            scheduler.setMaxMergesAndThreads(2, 1);
+        }
+    };
+
+    abstract void tune(IndexWriterConfig config, TieredMergePolicy mergePolicy, ConcurrentMergeScheduler scheduler);
+
+    /**
+     * Apply this profile to a writer config
+     *
+     * @param config        The config to tune
+     * @param scheduler     The merge scheduler the writer should use
+     * @return              The config
+     */
+    public IndexWriterConfig apply(IndexWriterConfig config, ConcurrentMergeScheduler scheduler) {
+        val mergePolicy = new TieredMergePolicy();
+        tune(config, mergePolicy, scheduler);
+        return config.setMergePolicy(mergePolicy)
+                .setMergeScheduler(scheduler);
+    }
+}
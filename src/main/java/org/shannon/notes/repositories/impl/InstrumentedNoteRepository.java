@@ -0,0 +1,157 @@
+package org.shannon.notes.repositories.impl;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+import org.shannon.notes.entities.Note;
+import org.shannon.notes.repositories.Aggregation;
+import org.shannon.notes.repositories.AggregationQuery;
+import org.shannon.notes.repositories.IndexVersion;
+import org.shannon.notes.repositories.NotePage;
+import org.shannon.notes.repositories.NoteQuery;
+import org.shannon.notes.repositories.NoteRepository;
+import org.shannon.notes.repositories.Suggestion;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Times every call to another NoteRepository, tagged with the method and the exception it threw if any, so latency
+ * can be pinned on a repository method before digging into the index metrics.
+ */
+@RequiredArgsConstructor
+public class InstrumentedNoteRepository implements NoteRepository {
+    private final @NonNull NoteRepository repository;
+    private final @NonNull MeterRegistry registry;
+
+    private Timer timer(String method, String exception) {
+        return Timer.builder("notes.repository")
+                .description("Calls to the note repository")
+                .tag("method", method)
+                .tag("exception", exception)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private <T> T timed(String method, Supplier<T> call) {
+        val started = System.nanoTime();
+        String exception = "none";
+        try {
+            return call.get();
+        } catch (RuntimeException e) {
+            exception = e.getClass().getSimpleName();
+            throw e;
+        } finally {
+            timer(method, exception).record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void timed(String method, Runnable call) {
+        timed(method, () -> {
+            call.run();
+            return null;
+        });
+    }
+
+    /**
+     * @return  The repository being timed
+     */
+    public NoteRepository getRepository() {
+        return repository;
+    }
+
+    @Override
+    public Optional<Note> findByID(long id) {
+        return timed("findByID", () -> repository.findByID(id));
+    }
+
+    @Override
+    public Optional<Long> findVersionByID(long id) {
+        return timed("findVersionByID", () -> repository.findVersionByID(id));
+    }
+
+    @Override
+    public IndexVersion searchedVersion() {
+        return timed("searchedVersion", () -> repository.searchedVersion());
+    }
+
+    @Override
+    public Stream<Note> search(String queryString, int count) {
+        return timed("search", () -> repository.search(queryString, count));
+    }
+
+    @Override
+    public NotePage page(NoteQuery query) {
+        return timed("page", () -> repository.page(query));
+    }
+
+    @Override
+    public Aggregation aggregate(AggregationQuery query) {
+        return timed("aggregate", () -> repository.aggregate(query));
+    }
+
+    @Override
+    public List<Suggestion> suggest(String prefix, int count) {
+        return timed("suggest", () -> repository.suggest(prefix, count));
+    }
+
+    @Override
+    public Optional<Note> update(Note note, Long expectedVersion) {
+        return timed("update", () -> repository.update(note, expectedVersion));
+    }
+
+    @Override
+    public Note save(Note entity) {
+        return timed("save", () -> repository.save(entity));
+    }
+
+    @Override
+    public Iterable<Note> save(Iterable<? extends Note> entities) {
+        return timed("saveAll", () -> repository.save(entities));
+    }
+
+    @Override
+    public Note findOne(Long id) {
+        return timed("findOne", () -> repository.findOne(id));
+    }
+
+    @Override
+    public boolean exists(Long id) {
+        return timed("exists", () -> repository.exists(id));
+    }
+
+    @Override
+    public Iterable<Note> findAll() {
+        return timed("findAll", repository::findAll);
+    }
+
+    @Override
+    public long count() {
+        return timed("count", repository::count);
+    }
+
+    @Override
+    public void delete(Long id) {
+        timed("delete", () -> repository.delete(id));
+    }
+
+    @Override
+    public void delete(Note entity) {
+        timed("delete", () -> repository.delete(entity));
+    }
+
+    @Override
+    public void delete(Iterable<? extends Note> entities) {
+        timed("deleteAll", () -> repository.delete(entities));
+    }
+
+    @Override
+    public void deleteAll() {
+        timed("deleteEverything", repository::deleteAll);
+    }
+}
@@ -1,134 +1,1149 @@
 package org.shannon.notes.repositories.impl;
 
 import lombok.NonNull;
+import lombok.Value;
 import lombok.val;
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.*;
 import org.apache.lucene.index.*;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.*;
+import org.apache.lucene.search.uhighlight.LengthGoalBreakIterator;
+import org.apache.lucene.search.uhighlight.UnifiedHighlighter;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.NumericUtils;
 import org.shannon.function.ExceptionalSupplier;
 import org.shannon.notes.entities.Note;
+import org.shannon.notes.repositories.Aggregation;
+import org.shannon.notes.repositories.AggregationQuery;
+import org.shannon.notes.repositories.BackupResult;
+import org.shannon.notes.repositories.IndexMaintenance;
+import org.shannon.notes.repositories.IndexVersion;
+import org.shannon.notes.repositories.MaintenanceResult;
+import org.shannon.notes.repositories.NoteFilter;
+import org.shannon.notes.repositories.NotePage;
+import org.shannon.notes.repositories.NoteQuery;
 import org.shannon.notes.repositories.NoteRepository;
+import org.shannon.notes.repositories.NoteSort;
+import org.shannon.notes.repositories.Projection;
+import org.shannon.notes.repositories.Suggestion;
+import org.shannon.notes.repositories.VersionConflictException;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.text.BreakIterator;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-public class LuceneNoteRepository implements NoteRepository, Closeable {
+public class LuceneNoteRepository implements NoteRepository, IndexMaintenance, Closeable {
+
+    /**
+     * Pages are ordered best match first with ties broken by id so a cursor always lands in the same place
+     */
+    private static final Sort PAGE_SORT = new Sort(SortField.FIELD_SCORE, new SortField("id", SortField.Type.LONG));
+
+    /**
+     * The id as a single indexed term so a note can be replaced or deleted by term
+     */
+    static final String ID_TERM = "idTerm";
+    private static final String VERSION = NoteFieldVisitor.VERSION;
+    private static final int LEGACY_BATCH_SIZE = 1000;
+    private static final String CREATED = NoteFieldVisitor.CREATED;
+    private static final String TAGS = NoteFieldVisitor.TAGS;
+    private static final int ID_LOCK_STRIPES = 64;
+
+    /**
+     * A write to an id as it was handed to the writer, kept until the shared searcher can see it
+     */
+    @Value
+    private static class WrittenNote {
+        long sequence;                              // orders writes, only those seen by a refresh are dropped
+        boolean deleted;
+        Long version;
+        Long created;
+    }
 
     private final Directory directory;
-    private final Analyzer analyzer = new StandardAnalyzer();       // pretty "standard"
-    private final AtomicLong maxId;
+    private final Analyzer analyzer = new PerFieldAnalyzerWrapper(new StandardAnalyzer()       // pretty "standard"
+            , Collections.singletonMap(TAGS, new KeywordAnalyzer()));                       // but tags match exactly
+    private final IdAllocator ids;
+    private final IndexMetrics metrics;
     private final IndexWriter writer;
+    private final SnapshotDeletionPolicy snapshots = new SnapshotDeletionPolicy(new KeepOnlyLastCommitDeletionPolicy());
+    private final SharedSearcher searchers;
+    private final RepositorySettings settings;
+    private final GroupCommitter committer;         // null unless writes are group committed
+    private final WriteAheadLog wal;                // null unless writes are logged
+    private final ScheduledExecutorService checkpoints;     // null unless the log is checkpointed in the background
+    private final Object checkpointLock = new Object();
+    private volatile long checkpointed;             // how much of the log the next commit covers
+    private final AtomicLong lastVersion = new AtomicLong();
+    private final IdLookup idLookup;
+    private final SearchCache searchCache;
+    private final LRUQueryCache filterCache;        // null unless filters are cached
+    private final Object[] idLocks = new Object[ID_LOCK_STRIPES];   // every write to an id holds its stripe
+    private final Map<Long, WrittenNote> unrefreshed = new ConcurrentHashMap<>();  // by id, writes searches may not see yet
+    private final AtomicLong writeSequence = new AtomicLong();
+    private volatile long refreshingThrough;        // the last write sequence the refresh under way is sure to see
+    private final TermSuggester suggester = new TermSuggester(NoteFieldVisitor.BODY);
+    private final ScheduledExecutorService suggestRebuilds;     // null if the suggester is rebuilt on every refresh
+    private volatile boolean suggestStale;          // something was refreshed in since the suggester was built
 
     public LuceneNoteRepository(Directory directory) throws IOException {
+        this(directory, RepositorySettings.builder().build());
+    }
+
+    public LuceneNoteRepository(Directory directory, @NonNull RepositorySettings settings) throws IOException {
+        this(directory, settings, new IdAllocator(settings));
+    }
+
+    /**
+     * @param directory     Where the index lives
+     * @param settings      How to run
+     * @param ids           Where ids come from, shared by every repository handing out the same ids
+     * @throws IOException  If the index cannot be opened
+     */
+    LuceneNoteRepository(Directory directory, @NonNull RepositorySettings settings, @NonNull IdAllocator ids) throws IOException {
         this.directory = directory;
-        writer = new IndexWriter(directory, new IndexWriterConfig(analyzer));
-        val searcher = getSearcher();
-        val topDocs = searcher.search(new MatchAllDocsQuery(), 1, new Sort(new SortField("id", SortField.Type.LONG, true)));
-        maxId = new AtomicLong(
-                topDocsToNotes(topDocs, searcher)
-                .map(Note::getId)
-                .findFirst()
-                .orElse(0L)
-        );
+        this.ids = ids;
+        this.settings = settings;
+        metrics = new IndexMetrics(settings.getMeterRegistry(), settings.getIndexName());
+        idLookup = new IdLookup(settings.getIdCacheSize());
+        searchCache = new SearchCache(settings.getParsedQueryCacheSize(), settings.getResultCacheMaxWeight());
+        filterCache = settings.getFilterCacheSize() > 0
+                ? new LRUQueryCache(settings.getFilterCacheSize(), settings.getFilterCacheMaxBytes())
+                : null;
+        val factory = new FilterCachingSearcherFactory(settings.getSearchThreads() > 0
+                ? new ConcurrentSearcherFactory(settings.getSearchThreads(), settings.getMinSliceDocs())
+                : new SearcherFactory(), filterCache);
+        Arrays.setAll(idLocks, i -> new Object());
+        if (settings.isReadOnly()) {                // a replica, whatever is copied into directory is all there is
+            writer = null;
+            committer = null;
+            wal = null;
+            checkpoints = null;
+            searchers = new SharedSearcher(directory, factory, settings.getRefreshIntervalMillis(), metrics.getRefreshes());
+            searchers.onRefresh(searchCache::clearResults);
+            suggestRebuilds = startSuggester();
+            metrics.watch(this);
+            return;
+        }
+        writer = new IndexWriter(directory, settings.getTuningProfile()
+                .apply(new IndexWriterConfig(analyzer), new TimedMergeScheduler(metrics.getMerges()))
+                .setIndexDeletionPolicy(snapshots));        // keeps a commit being backed up or replicated from being deleted
+        searchers = new SharedSearcher(writer, factory, settings.getRefreshIntervalMillis(), metrics.getRefreshes());
+        searchers.onBeforeRefresh(() -> refreshingThrough = writeSequence.get());
+        searchers.onRefresh(this::forgetRefreshedWrites);
+        committer = settings.getDurabilityMode() == DurabilityMode.GROUP_COMMIT
+                ? new GroupCommitter(writer, settings.getMaxBatchSize(), settings.getMaxBatchDelayMillis(), metrics.getCommits())
+                : null;
+        searchers.onRefresh(searchCache::clearResults);
+        checkpointed = WriteAheadLog.committedOf(writer.getLiveCommitData());
+        val highWater = IdAllocator.highWaterOf(writer.getLiveCommitData());
+        if (highWater != null) {
+            ids.recover(highWater);
+        } else {                                    // an index from before high water marks were committed
+            ids.recoverFromMaxId(searchers.withSearcher(searcher -> {
+                val topDocs = searcher.search(new MatchAllDocsQuery(), 1, new Sort(new SortField("id", SortField.Type.LONG, true)));
+                return topDocsToNotes(topDocs, searcher)
+                        .stream()
+                        .map(Note::getId)
+                        .findFirst()
+                        .orElse(0L);
+            }));
+        }
+        if (settings.getDurabilityMode() == DurabilityMode.WRITE_AHEAD_LOG) {
+            if (settings.getWalDirectory() == null) { throw new IllegalArgumentException("A write-ahead log needs a walDirectory."); }
+            wal = new WriteAheadLog(settings.getWalDirectory(), metrics.getWalSyncs());
+        } else {
+            wal = null;
+        }
+        writer.setLiveCommitData(commitData());
+        if (wal != null) { replayLog(); }
+        upgradeLegacyDocuments();
+        if (wal != null && settings.getCheckpointIntervalMillis() > 0) {
+            checkpoints = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                val thread = new Thread(runnable, "note-checkpoint");
+                thread.setDaemon(true);
+                return thread;
+            });
+            checkpoints.scheduleWithFixedDelay(this::checkpointQuietly, settings.getCheckpointIntervalMillis()
+                    , settings.getCheckpointIntervalMillis(), TimeUnit.MILLISECONDS);
+        } else {
+            checkpoints = null;
+        }
+        suggestRebuilds = startSuggester();
+        metrics.watch(this);
+    }
+
+    /**
+     * Build the suggester from what can be searched now, and have it rebuilt on a schedule if anything was refreshed
+     * in meanwhile, or on every refresh
+     *
+     * @return              What rebuilds it on a schedule, null if it is rebuilt on every refresh
+     * @throws IOException  If the terms cannot be read
+     */
+    private ScheduledExecutorService startSuggester() throws IOException {
+        rebuildSuggester();
+        val interval = settings.getSuggestRebuildMillis();
+        if (interval <= 0) {
+            searchers.onRefresh(this::rebuildSuggesterQuietly);
+            return null;
+        }
+        searchers.onRefresh(() -> suggestStale = true);
+        ScheduledExecutorService rebuilds = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            val thread = new Thread(runnable, "note-suggest-rebuild");
+            thread.setDaemon(true);
+            return thread;
+        });
+        rebuilds.scheduleWithFixedDelay(() -> {
+            if (suggestStale) { rebuildSuggesterQuietly(); }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+        return rebuilds;
+    }
+
+    private void rebuildSuggester() throws IOException {
+        suggestStale = false;                       // before reading, so a refresh during the build is not missed
+        IndexMetrics.record(metrics.getSuggestBuilds(), () -> searchers.withSearcher(searcher -> {
+            suggester.build(searcher.getIndexReader());
+            return null;
+        }));
+    }
+
+    private void rebuildSuggesterQuietly() {
+        try {
+            rebuildSuggester();
+        } catch (IOException | RuntimeException e) {
+            failed(e);
+        }
+    }
+
+    /**
+     * Commit user data that always holds the id high water mark and, with a write-ahead log, how much of the log the
+     * commit covers
+     */
+    private Iterable<Map.Entry<String, String>> commitData() {
+        if (wal == null) { return ids.commitData(); }
+        return () -> {
+            val data = new HashMap<String, String>();
+            ids.commitData().forEach(entry -> data.put(entry.getKey(), entry.getValue()));
+            data.put(WriteAheadLog.COMMITTED, Long.toString(checkpointed));
+            return data.entrySet().iterator();
+        };
+    }
+
+    /**
+     * Redo whatever the log holds past the last commit, commit it and carry on logging after it
+     */
+    private void replayLog() throws IOException {
+        checkpointed = wal.replay(checkpointed, this::redo);
+        IndexMetrics.record(metrics.getCommits(), writer::commit);
+        wal.start(checkpointed);
+        searchers.refresh();
+    }
+
+    /**
+     * Apply a logged write again.  Every record replaces or deletes by id term, so redoing one the index already holds
+     * changes nothing.
+     */
+    private void redo(WriteAheadLog.Record record) throws IOException {
+        switch (record.getOp()) {
+            case SAVE:
+                ids.observe(record.getId());
+                lastVersion.accumulateAndGet(record.getNote().getVersion(), Math::max);
+                writer.updateDocument(idTerm(record.getId()), toDocument(record.getNote()));
+                break;
+            case DELETE:
+                writer.deleteDocuments(idTerm(record.getId()));
+                break;
+            case DELETE_ALL:
+                writer.deleteAll();
+                break;
+        }
+    }
+
+    /**
+     * Commit everything applied so far and drop the log the commit covers.  Writes carry on meanwhile: one applied
+     * before the roll but logged after it is simply redone on top of the commit after a crash.
+     */
+    private void checkpoint() throws IOException {
+        synchronized (checkpointLock) {
+            checkpointed = wal.roll();
+            IndexMetrics.record(metrics.getCommits(), writer::commit);
+            wal.dropBefore(checkpointed);
+        }
+    }
+
+    private void checkpointQuietly() {
+        try {
+            if (wal.getPosition() != checkpointed) { checkpoint(); }     // nothing logged, nothing to commit
+        } catch (IOException | RuntimeException e) {
+            failed(e);
+        }
+    }
+
+    /**
+     * With a write-ahead log, log a write that has just been handed to the writer.  Writes to an existing id log
+     * under the id's lock so the log has them in the order they were applied.
+     *
+     * @return  Where to sync up to, zero without a log
+     */
+    private long log(WriteAheadLog.Op op, long id, Note saved) throws IOException {
+        return wal == null ? 0 : wal.append(op, id, saved);
+    }
+
+    /**
+     * Notes saved before they had a version (and an id term) cannot be replaced by term, so reindex them once.
+     *
+     * Every segment is walked once in doc order next to its versions, so finding them costs one pass over the index
+     * however many there are, and they are reindexed a batch at a time with a single commit and refresh at the end.
+     */
+    private void upgradeLegacyDocuments() throws IOException {
+        val legacy = new BooleanQuery.Builder()
+                .add(new MatchAllDocsQuery(), BooleanClause.Occur.FILTER)
+                .add(new DocValuesFieldExistsQuery(VERSION), BooleanClause.Occur.MUST_NOT)
+                .build();
+        boolean upgraded = false;
+        try (val reader = DirectoryReader.open(writer)) {
+            val visitor = new NoteFieldVisitor();
+            val batch = new ArrayList<Note>(LEGACY_BATCH_SIZE);
+            for (val leaf : reader.leaves()) {
+                val docs = leaf.reader();
+                val liveDocs = docs.getLiveDocs();
+                val versions = DocValues.getNumeric(docs, VERSION);
+                for (int doc = 0; doc < docs.maxDoc(); doc++) {
+                    if ((liveDocs != null && !liveDocs.get(doc)) || versions.advanceExact(doc)) { continue; }
+                    docs.document(doc, visitor.reset());
+                    batch.add(visitor.toNote());
+                    if (batch.size() == LEGACY_BATCH_SIZE) {
+                        reindexLegacy(batch, legacy);
+                        batch.clear();
+                        upgraded = true;
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                reindexLegacy(batch, legacy);
+                upgraded = true;
+            }
+        }
+        if (upgraded) {
+            IndexMetrics.record(metrics.getCommits(), writer::commit);
+            searchers.refresh();
+        }
+    }
+
+    /**
+     * Replace legacy notes with versioned copies.  Only the legacy docs are deleted, they have no id term to go by.
+     */
+    private void reindexLegacy(List<Note> batch, Query legacy) throws IOException {
+        writer.deleteDocuments(new BooleanQuery.Builder()
+                .add(LongPoint.newSetQuery("id", batch.stream().mapToLong(Note::getId).toArray()), BooleanClause.Occur.FILTER)
+                .add(legacy, BooleanClause.Occur.FILTER)
+                .build());
+        writer.addDocuments(batch.stream()
+                .map(note -> toDocument(note.withVersion(nextVersion())))
+                .collect(Collectors.toList()));
     }
 
     @Override
     public void close() throws IOException {
-        writer.close();
+        if (suggestRebuilds != null) {
+            suggestRebuilds.shutdown();             // not shutdownNow, an interrupt would close an NIOFSDirectory's channels
+            try {
+                suggestRebuilds.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (checkpoints != null) {
+            checkpoints.shutdown();                 // not shutdownNow, an interrupt would close the log's channel
+            try {
+                checkpoints.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (committer != null) { committer.close(); }
+        searchers.close();
+        ids.close();
+        if (wal != null) {
+            wal.close();
+            checkpointed = wal.getPosition();
+        }
+        if (writer != null) {
+            writer.setLiveCommitData(commitData()); // so closing commits the exact high water mark
+            writer.close();
+        }
+        if (wal != null) { wal.dropBefore(checkpointed); }
         directory.close();
     }
 
-    private IndexSearcher getSearcher() throws IOException {
-        return new IndexSearcher(DirectoryReader.open(writer));
+    /**
+     * @return  The searcher shared by every read so its lifecycle can be observed
+     */
+    public SharedSearcher getSearchers() {
+        return searchers;
     }
 
-    private static Stream<Note> topDocsToNotes(TopDocs topDocs, IndexSearcher searcher) {
-        return Arrays.stream(topDocs.scoreDocs)
-                .flatMap(scoreDoc -> {
-                    try {
-                        return Stream.of(searcher.doc(scoreDoc.doc));
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                        return Stream.empty();
-                    }
-                })
-                .map(Note::fromDocument);
+    /**
+     * @return  The writer, so its buffers can be observed, or null if this is a read only replica
+     */
+    IndexWriter getWriter() {
+        return writer;
+    }
+
+    /**
+     * @return  Whether this is a read only replica, refusing every write
+     */
+    public boolean isReadOnly() {
+        return writer == null;
+    }
+
+    /**
+     * @throws UnsupportedOperationException    If this is a read only replica
+     */
+    private void requireWritable() {
+        if (writer == null) { throw new UnsupportedOperationException("This index is a read only replica, write to the primary."); }
+    }
+
+    /**
+     * Pin the last commit so merges cannot delete its files until it is released, committing first if nothing has been
+     *
+     * @return              The commit
+     * @throws IOException  If the first commit fails
+     */
+    IndexCommit snapshot() throws IOException {
+        requireWritable();
+        if (!DirectoryReader.indexExists(directory)) {
+            IndexMetrics.record(metrics.getCommits(), writer::commit);
+        }
+        return snapshots.snapshot();
+    }
+
+    /**
+     * Let go of a commit pinned by snapshot
+     *
+     * @param commit        The commit
+     * @throws IOException  If its files cannot be dropped
+     */
+    void release(IndexCommit commit) throws IOException {
+        snapshots.release(commit);
+        writer.deleteUnusedFiles();
+    }
+
+    /**
+     * @return  Where the index lives
+     */
+    Directory getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return  Commit, refresh, merge, parse and load timings
+     */
+    public IndexMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Log and count a failure we are about to swallow
+     */
+    /**
+     * Log a failure that is swallowed and count it
+     */
+    void failed(Exception e) {
+        e.printStackTrace();
+        metrics.failed();
+    }
+
+    /**
+     * Load the notes for some hits.  The docs are visited in docId order, so each segment's stored fields are read
+     * front to back and a compressed block holding several hits is only decompressed once, but come back in hit
+     * order.  A doc that cannot be read is logged and left null.
+     *
+     * @param hits      The hits to load
+     * @param searcher  The searcher that found them
+     * @return          The note for each hit, in the same order
+     */
+    private Note[] load(ScoreDoc[] hits, IndexSearcher searcher) {
+        // doc in the high half and hit in the low half, so sorting puts them in doc order without boxing anything
+        val byDoc = new long[hits.length];
+        for (int hit = 0; hit < hits.length; hit++) { byDoc[hit] = ((long) hits[hit].doc << 32) | hit; }
+        Arrays.sort(byDoc);
+
+        val notes = new Note[hits.length];
+        val leaves = searcher.getIndexReader().leaves();
+        val visitor = new NoteFieldVisitor();
+        for (val docAndHit : byDoc) {
+            val doc = (int) (docAndHit >>> 32);
+            val leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+            try {
+                leaf.reader().document(doc - leaf.docBase, visitor.reset());
+                notes[(int) docAndHit] = visitor.toNote();
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+        return notes;
+    }
+
+    private List<Note> topDocsToNotes(TopDocs topDocs, IndexSearcher searcher) {
+        return IndexMetrics.<RuntimeException, List<Note>>record(metrics.getLoads(), () -> {
+            val notes = new ArrayList<Note>(topDocs.scoreDocs.length);
+            for (val note : load(topDocs.scoreDocs, searcher)) {
+                if (note != null) { notes.add(note); }
+            }
+            return notes;
+        });
     }
 
     private Stream<Note> search(@NonNull Query query, int count) {
         try {
-            val searcher = new IndexSearcher(DirectoryReader.open(writer));
-            val topDocs = searcher.search(query, count);
-            return topDocsToNotes(topDocs, searcher);
+            return searchers.withSearcher(searcher -> topDocsToNotes(searcher.search(query, count), searcher))
+                    .stream();
         } catch (IOException e) {
-            e.printStackTrace();
+            failed(e);
             return Stream.empty();
         }
     }
 
+    /**
+     * @return  The group committer if writes are group committed
+     */
+    public Optional<GroupCommitter> getCommitter() {
+        return Optional.ofNullable(committer);
+    }
+
+    /**
+     * @return  The write-ahead log if writes are logged
+     */
+    public Optional<WriteAheadLog> getWriteAheadLog() {
+        return Optional.ofNullable(wal);
+    }
+
+    /**
+     * Block until everything written so far is committed, either by committing, by joining the next group commit or,
+     * with a write-ahead log, by checkpointing.
+     */
+    private void makeDurable() throws IOException {
+        if (wal != null) { checkpoint(); }
+        else if (committer == null) { IndexMetrics.record(metrics.getCommits(), writer::commit); }
+        else { committer.awaitCommit(); }
+    }
+
+    /**
+     * Block until a write is durable: with a write-ahead log once the log is synced up to it, otherwise once it is
+     * committed.
+     *
+     * @param logged        Where log() said the write ended
+     */
+    private void makeDurable(long logged) throws IOException {
+        if (wal != null) { wal.sync(logged); }
+        else { makeDurable(); }
+    }
+
+    /**
+     * Let the shared searcher know about a write and, if configured, wait until the write is visible.
+     */
+    private void afterWrite() throws IOException {
+        searchers.markDirty();
+        if (settings.isRefreshAfterWrite()) { searchers.refresh(); }
+    }
+
+    /**
+     * @return  How ids are looked up, so its cache can be observed
+     */
+    public IdLookup getIdLookup() {
+        return idLookup;
+    }
+
+    /**
+     * Goes straight to the id term in each segment rather than running a query
+     */
     @Override
     public Optional<Note> findByID(long id) {
-        return search(LongPoint.newExactQuery("id", id), 1)
-                .findAny();
+        try {
+            return Optional.ofNullable(searchers.withSearcher(searcher -> {
+                val location = idLookup.find(searcher, id);
+                if (location == null) { return null; }
+                val visitor = new NoteFieldVisitor();
+                location.getLeaf().reader().document(location.getDoc(), visitor);
+                return visitor.toNote();
+            }));
+        } catch (IOException e) {
+            failed(e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Reads the version off doc values, never touching stored fields
+     */
+    @Override
+    public Optional<Long> findVersionByID(long id) {
+        try {
+            return Optional.ofNullable(searchers.withSearcher(searcher -> {
+                val location = idLookup.find(searcher, id);
+                if (location == null) { return null; }
+                val versions = DocValues.getNumeric(location.getLeaf().reader(), VERSION);
+                return versions.advanceExact(location.getDoc()) ? versions.longValue() : null;
+            }));
+        } catch (IOException e) {
+            failed(e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * The version of the reader behind the shared searcher
+     *
+     * @throws UncheckedIOException     If the searcher cannot be acquired
+     */
+    @Override
+    public IndexVersion searchedVersion() {
+        try {
+            return new IndexVersion(searchers.getVersion(), searchers.getModifiedMillis());
+        } catch (IOException e) {
+            failed(e);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return  The suggester, so its size can be observed
+     */
+    TermSuggester getSuggester() {
+        return suggester;
+    }
+
+    /**
+     * @return  The parsed query and search result caches, so they can be observed
+     */
+    public SearchCache getSearchCache() {
+        return searchCache;
+    }
+
+    /**
+     * @return  The per segment filter bitsets, if filters are cached, so they can be observed
+     */
+    public Optional<LRUQueryCache> getFilterCache() {
+        return Optional.ofNullable(filterCache);
+    }
+
+    /**
+     * @return  Where ids come from
+     */
+    public IdAllocator getIdAllocator() {
+        return ids;
+    }
+
+    /**
+     * Parse a query string the way every search here does, remembering the parsed query
+     *
+     * @param queryString       Some lucene query string
+     * @return                  The query
+     * @throws ParseException   If it does not parse
+     */
+    Query parse(String queryString) throws ParseException {
+        return searchCache.parse(queryString, s -> IndexMetrics.record(metrics.getParses(), () -> new QueryParser("body", analyzer).parse(s)));
     }
 
+    /**
+     * Hot query strings come straight out of the search cache until a write is refreshed into the searcher
+     */
     @Override
     public Stream<Note> search(@NonNull String queryString, int count) {
         try {
-            return search( new QueryParser("body", analyzer).parse(queryString), count);
-        } catch (ParseException e) {
-            e.printStackTrace();
+            val query = parse(queryString);
+            val noteQuery = NoteQuery.builder().queryString(queryString).size(count).build();
+            return searchers.withSearcher(searcher -> searchCache.results(noteQuery, false, searcher
+                    , () -> new NotePage(topDocsToNotes(searcher.search(query, count), searcher), null)))
+                    .getNotes()
+                    .stream();
+        } catch (ParseException | IOException e) {
+            failed(e);
             return Stream.empty();
         }
     }
 
-    private static <T> T doOrNull(ExceptionalSupplier<Exception, T> supplier) {
+    @Override
+    public NotePage page(@NonNull NoteQuery noteQuery) {
+        val after = PageCursor.decode(noteQuery.getCursor());
+        try {
+            val query = queryOf(noteQuery);
+            return searchers.withSearcher(searcher -> {
+                ExceptionalSupplier<IOException, NotePage> search = () -> PageCursor.page(scoredPage(searcher, query, noteQuery, after)
+                        , noteQuery.getSize(), noteQuery.getProjection());
+                // later pages, streams above all, are seldom asked for twice and would push out the first pages that are
+                return noteQuery.getQueryString() == null || noteQuery.getCursor() != null
+                        ? search.get()
+                        : searchCache.results(noteQuery, true, searcher, search);
+            });
+        } catch (ParseException | IOException e) {
+            failed(e);
+            return new NotePage(Collections.emptyList(), null);
+        }
+    }
+
+    /**
+     * Looks the prefix up in the suggester, lower cased the way the body is analyzed.  Nothing is searched.
+     */
+    @Override
+    public List<Suggestion> suggest(@NonNull String prefix, int count) {
+        try {
+            return suggester.lookup(prefix.toLowerCase(Locale.ROOT), count);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Aggregation aggregate(@NonNull AggregationQuery query) {
+        try {
+            return aggregator(parseOrAll(query.getQueryString()), query).toAggregation();
+        } catch (ParseException e) {
+            throw new IllegalArgumentException("Not a query we can parse.", e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Parse a query string, or match every note without one
+     */
+    Query parseOrAll(String queryString) throws ParseException {
+        return queryString == null ? new MatchAllDocsQuery() : parse(queryString);
+    }
+
+    /**
+     * The query a page asks for, with its filter as non-scoring clauses.  Id ranges go to the id points; created and
+     * updated ranges to the doc values, which every note has whenever it was indexed.
+     *
+     * @param page              The page asked for
+     * @return                  The query
+     * @throws ParseException   If the query string does not parse
+     */
+    Query queryOf(NoteQuery page) throws ParseException {
+        val query = parseOrAll(page.getQueryString());
+        val filter = page.getFilter();
+        if (filter == null || filter.isEmpty()) { return query; }
+        val filtered = new BooleanQuery.Builder().add(query, BooleanClause.Occur.MUST);
+        if (filter.getIdFrom() != null || filter.getIdTo() != null) {
+            filtered.add(LongPoint.newRangeQuery("id", lowerOf(filter.getIdFrom()), upperOf(filter.getIdTo())), BooleanClause.Occur.FILTER);
+        }
+        if (filter.getCreatedFrom() != null || filter.getCreatedTo() != null) {
+            filtered.add(NumericDocValuesField.newSlowRangeQuery(CREATED, lowerOf(filter.getCreatedFrom()), upperOf(filter.getCreatedTo()))
+                    , BooleanClause.Occur.FILTER);
+        }
+        if (filter.getUpdatedFrom() != null || filter.getUpdatedTo() != null) {
+            filtered.add(NumericDocValuesField.newSlowRangeQuery(VERSION, lowerOf(filter.getUpdatedFrom()), upperOf(filter.getUpdatedTo()))
+                    , BooleanClause.Occur.FILTER);
+        }
+        if (filter.getTags() != null) {
+            for (val tag : filter.getTags()) { filtered.add(new TermQuery(new Term(TAGS, tag)), BooleanClause.Occur.FILTER); }
+        }
+        return filtered.build();
+    }
+
+    private static long lowerOf(Long from) {
+        return from == null ? Long.MIN_VALUE : from;
+    }
+
+    /**
+     * @return  The inclusive upper bound below an exclusive one
+     */
+    private static long upperOf(Long to) {
+        return to == null ? Long.MAX_VALUE : Math.max(to, Long.MIN_VALUE + 1) - 1;
+    }
+
+    /**
+     * The sort a page asks for.  Anything but relevance reads doc values and skips scoring altogether.
+     */
+    private static Sort sortOf(NoteQuery page) {
+        switch (page.getSort()) {
+            case ID:
+                return new Sort(new SortField("id", SortField.Type.LONG, page.isDescending()));
+            case CREATED:
+                return new Sort(new SortField(CREATED, SortField.Type.LONG, page.isDescending())
+                        , new SortField("id", SortField.Type.LONG, page.isDescending()));
+            case UPDATED:
+                return new Sort(new SortField(VERSION, SortField.Type.LONG, page.isDescending())
+                        , new SortField("id", SortField.Type.LONG, page.isDescending()));
+            default:
+                return PAGE_SORT;
+        }
+    }
+
+    /**
+     * Count what a query matches, so counts from several repositories can be merged
+     *
+     * @param query         What to count
+     * @param aggregation   How to break it down
+     * @return              The finished counts
+     * @throws IOException  If searching fails
+     */
+    Aggregator aggregator(Query query, AggregationQuery aggregation) throws IOException {
+        return searchers.withSearcher(searcher -> aggregator(searcher, query, aggregation));
+    }
+
+    private Aggregator aggregator(IndexSearcher searcher, Query query, AggregationQuery aggregation) throws IOException {
+        val aggregator = new Aggregator(aggregation);
+        searcher.search(query, aggregator);
+        aggregator.finish();
+        return aggregator;
+    }
+
+    /**
+     * One page of hits with their scores, so pages from several repositories can be merged
+     *
+     * @param query         What to search for
+     * @param page          How many hits and how much of each
+     * @param after         Where the previous page left off, null for the first page
+     * @return              The hits in page order
+     * @throws IOException  If searching fails
+     */
+    List<ScoredNote> scoredPage(Query query, NoteQuery page, PageCursor after) throws IOException {
+        return searchers.withSearcher(searcher -> scoredPage(searcher, query, page, after));
+    }
+
+    private List<ScoredNote> scoredPage(IndexSearcher searcher, Query query, NoteQuery page, PageCursor after) throws IOException {
+        // ids are unique so the doc only matters to skip the cursor's own hit, which the last doc always does
+        val relevance = page.getSort() == NoteSort.RELEVANCE;
+        FieldDoc afterDoc = null;
+        if (after != null) {
+            val lastDoc = searcher.getIndexReader().maxDoc() - 1;
+            if (relevance) { afterDoc = new FieldDoc(lastDoc, after.getScore(), new Object[] { after.getScore(), after.getId() }); }
+            else if (page.getSort() == NoteSort.ID) { afterDoc = new FieldDoc(lastDoc, Float.NaN, new Object[] { after.getId() }); }
+            else { afterDoc = new FieldDoc(lastDoc, Float.NaN, new Object[] { after.getValue(), after.getId() }); }
+        }
+        val topDocs = searcher.searchAfter(afterDoc, query, page.getSize(), sortOf(page), relevance, false);
+        val snippets = page.getProjection() == Projection.SNIPPETS
+                ? highlight(searcher, query, topDocs, page.getFragmentSize())
+                : null;
+        return IndexMetrics.<RuntimeException, List<ScoredNote>>record(metrics.getLoads(), () -> {
+            val notes = page.getProjection() == Projection.NOTES
+                    ? load(topDocs.scoreDocs, searcher)
+                    : idsOf(topDocs.scoreDocs);
+            val hits = new ArrayList<ScoredNote>(notes.length);
+            for (int hit = 0; hit < notes.length; hit++) {
+                if (notes[hit] != null) {
+                    val fields = ((FieldDoc) topDocs.scoreDocs[hit]).fields;
+                    hits.add(new ScoredNote(topDocs.scoreDocs[hit].score, relevance ? 0 : (Long) fields[0]
+                            , notes[hit], snippets == null ? null : snippets[hit]));
+                }
+            }
+            return hits;
+        });
+    }
+
+    /**
+     * The ids of some hits sorted by sortOf, which the sort already read out of the doc values
+     *
+     * @param hits      Hits sorted by sortOf, which always sorts by id last
+     * @return          A note with just the id for each hit, in the same order
+     */
+    private static Note[] idsOf(ScoreDoc[] hits) {
+        val notes = new Note[hits.length];
+        for (int hit = 0; hit < hits.length; hit++) {
+            val fields = ((FieldDoc) hits[hit]).fields;
+            notes[hit] = new Note((Long) fields[fields.length - 1], null);
+        }
+        return notes;
+    }
+
+    /**
+     * Highlight what matched in the body of some hits.  The body is analyzed again rather than indexed with offsets,
+     * which only costs anything for the notes on the page.  Notes where nothing in the body matched get their opening
+     * words instead.
+     *
+     * @param searcher      The searcher that found the hits
+     * @param query         What was searched for
+     * @param topDocs       The hits
+     * @param fragmentSize  Roughly how many characters each snippet runs to
+     * @return              A snippet for each hit, in the same order
+     * @throws IOException  If reading the bodies fails
+     */
+    private String[] highlight(IndexSearcher searcher, Query query, TopDocs topDocs, int fragmentSize) throws IOException {
+        val highlighter = new UnifiedHighlighter(searcher, analyzer);
+        highlighter.setBreakIterator(() -> LengthGoalBreakIterator.createClosestToLength(BreakIterator.getWordInstance(Locale.ROOT), fragmentSize));
+        return highlighter.highlight("body", query, topDocs);
+    }
+
+    private <T> T doOrNull(ExceptionalSupplier<Exception, T> supplier) {
         try {
             return supplier.get();
         } catch (Exception e) {
-            e.printStackTrace();
+            failed(e);
             return null;
         }
     }
 
+    /**
+     * Give the note an id if it does not have one yet
+     *
+     * @param note      Some note about to be saved
+     * @return          The note with an id
+     */
+    private Note withAllocatedId(@NonNull Note note) {
+        if (note.getId() == null) { return note.withId(ids.next()); }
+        ids.observe(note.getId());
+        return note;
+    }
+
+    /**
+     * Give a note its id, a new version and, unless it says otherwise, its created time: that of the note it replaces,
+     * or now for a new one.  A note replacing another is stamped under the id's lock, so versions go up in the order
+     * the writes reach the index.
+     *
+     * @param note          The note about to be written
+     * @param current       The note it replaces as lastWritten found it, null if there is none
+     * @return              The note to write
+     */
+    private Note stamped(@NonNull Note note, WrittenNote current) {
+        val version = nextVersion();
+        val stamped = withAllocatedId(note).withVersion(version);
+        if (note.getCreated() != null) { return stamped; }
+        val created = current == null ? null : current.getCreated();
+        return stamped.withCreated(created == null ? version : created);
+    }
+
+    /**
+     * The note with an id as it was last handed to the writer, whether or not a refresh has made it searchable, so
+     * writes never wait on a reopen to see each other.  Only holds still under the id's lock.
+     *
+     * @param id            The note's id
+     * @return              Its version and created time, null if there is no such note
+     * @throws IOException  If the searcher cannot be read
+     */
+    private WrittenNote lastWritten(long id) throws IOException {
+        val written = unrefreshed.get(id);
+        if (written != null) { return written.isDeleted() ? null : written; }
+        return searchers.withSearcher(searcher -> {
+            val location = idLookup.find(searcher, id);
+            if (location == null) { return null; }
+            val reader = location.getLeaf().reader();
+            return new WrittenNote(0, false, valueOf(DocValues.getNumeric(reader, VERSION), location.getDoc())
+                    , valueOf(DocValues.getNumeric(reader, CREATED), location.getDoc()));
+        });
+    }
+
+    private static Long valueOf(NumericDocValues values, int doc) throws IOException {
+        return values.advanceExact(doc) ? values.longValue() : null;
+    }
+
+    /**
+     * Remember a write just handed to the writer until a refresh makes it searchable.  Writes to an existing id call
+     * this under the id's lock.
+     *
+     * @param id        The note's id
+     * @param saved     The note written, null for a delete
+     */
+    private void written(long id, Note saved) {
+        unrefreshed.put(id, saved == null
+                ? new WrittenNote(writeSequence.incrementAndGet(), true, null, null)
+                : new WrittenNote(writeSequence.incrementAndGet(), false, saved.getVersion(), saved.getCreated()));
+    }
+
+    /**
+     * Drop the writes the searcher just swapped in can see.  A write remembered again meanwhile has a later sequence
+     * and stays.
+     */
+    private void forgetRefreshedWrites() {
+        val through = refreshingThrough;
+        unrefreshed.forEach((id, written) -> {
+            if (written.getSequence() <= through) { unrefreshed.remove(id, written); }
+        });
+    }
+
+    /**
+     * Versions only ever go up, even across restarts, since they never fall behind the clock
+     */
+    private long nextVersion() {
+        return lastVersion.updateAndGet(last -> Math.max(last + 1, System.currentTimeMillis()));
+    }
+
+    private Object lockFor(long id) {
+        return idLocks[(int) Math.floorMod(id, (long) ID_LOCK_STRIPES)];
+    }
+
+    static Term idTerm(long id) {
+        val bytes = new byte[Long.BYTES];
+        NumericUtils.longToSortableBytes(id, bytes, 0);
+        return new Term(ID_TERM, new BytesRef(bytes));
+    }
+
+    private static Document toDocument(Note note) {
+        val doc = new Document();
+        doc.add(new StoredField("id", note.getId()));                          // Stored for retrieval
+        doc.add(new NumericDocValuesField("id", note.getId()));                // for sorting
+        doc.add(new LongPoint("id", note.getId()));                            // for exact queries
+        doc.add(new StringField(ID_TERM, idTerm(note.getId()).bytes(), Field.Store.NO));   // for replacing by term
+        doc.add(new StoredField(VERSION, note.getVersion()));
+        doc.add(new NumericDocValuesField(VERSION, note.getVersion()));        // readable without loading the doc
+        if (note.getCreated() != null) {
+            doc.add(new StoredField(CREATED, note.getCreated()));
+            doc.add(new NumericDocValuesField(CREATED, note.getCreated()));    // for histograms
+        }
+        if (note.getTags() != null) {
+            for (val tag : note.getTags()) {
+                doc.add(new StringField(TAGS, tag, Field.Store.YES));          // for tags:x queries
+                doc.add(new SortedSetDocValuesField(TAGS, new BytesRef(tag)));  // for counting
+            }
+        }
+        doc.add(new TextField("body", note.getBody(), Field.Store.YES));       // last, NoteFieldVisitor stops at it
+        return doc;
+    }
+
+    /**
+     * Saves a new note, or replaces the saved one if the note already has an id.
+     *
+     * @throws IllegalArgumentException     If the note has an id that was never handed out
+     */
     @Override
     public Note save(@NonNull Note note) {
-            val noteToSave = note.getId() == null ? note.withId(maxId.incrementAndGet()) : note;
-            val doc = new Document();
-            doc.add(new StoredField("id", noteToSave.getId()));                          // Stored for retrieval
-            doc.add(new NumericDocValuesField("id", noteToSave.getId()));                // for sorting
-            doc.add(new LongPoint("id", noteToSave.getId()));                            // for exact queries
-            doc.add(new TextField("body", noteToSave.getBody(), Field.Store.YES));       // typical full text search
-            return doOrNull(() -> {
-                writer.addDocument(doc);
-                writer.commit();            // allows the near real time readers to see this doc... Could be done at read, but usually pay at index time.
-                return noteToSave;
-            });
+        requireWritable();
+        val isNew = note.getId() == null;
+        requireHandedOut(note);
+        return doOrNull(() -> {
+            final Note noteToSave;
+            final long logged;
+            if (isNew) {
+                noteToSave = stamped(note, null);
+                writer.addDocument(toDocument(noteToSave));
+                logged = log(WriteAheadLog.Op.SAVE, noteToSave.getId(), noteToSave);
+                written(noteToSave.getId(), noteToSave);
+            } else {
+                synchronized (lockFor(note.getId())) {
+                    noteToSave = replace(note, lastWritten(note.getId()));
+                    logged = log(WriteAheadLog.Op.SAVE, noteToSave.getId(), noteToSave);
+                }
+            }
+            afterWrite();               // visibility comes from refreshing the shared searcher...
+            makeDurable(logged);        // ...and the note is only handed back once it would survive a crash
+            return noteToSave;
+        });
+    }
+
+    /**
+     * Only ids handed out here can be saved to, so a client can never claim one the allocator will hand out later
+     */
+    private void requireHandedOut(Note note) {
+        if (note.getId() != null && !ids.isHandedOut(note.getId())) {
+            throw new IllegalArgumentException("Can only save a note with an id we handed out.");
+        }
+    }
+
+    /**
+     * Stamp a note and replace whatever is saved under its id.  Call under the id's lock.
+     *
+     * @param note          The note to save.  Must have an id.
+     * @param current       The note it replaces as lastWritten found it, null if there is none
+     * @return              The note saved
+     */
+    private Note replace(Note note, WrittenNote current) throws IOException {
+        val noteToSave = stamped(note, current);
+        writer.updateDocument(idTerm(noteToSave.getId()), toDocument(noteToSave));
+        written(noteToSave.getId(), noteToSave);
+        return noteToSave;
     }
 
     @Override
-    public Iterable<Note> save(Iterable<? extends Note> entities) {
-        throw new UnsupportedOperationException();
+    public Optional<Note> update(@NonNull Note note, Long expectedVersion) {
+        requireWritable();
+        if (note.getId() == null) { throw new IllegalArgumentException("Can only update a note with an id."); }
+        val id = note.getId();
+        try {
+            final Note noteToSave;
+            final long logged;
+            synchronized (lockFor(id)) {            // every earlier write to this id happened under this lock
+                val current = lastWritten(id);
+                if (current == null) { return Optional.empty(); }
+                if (expectedVersion != null && !expectedVersion.equals(current.getVersion())) {
+                    throw new VersionConflictException(id, expectedVersion, current.getVersion());
+                }
+                noteToSave = replace(note, current);
+                logged = log(WriteAheadLog.Op.SAVE, id, noteToSave);
+            }
+            afterWrite();
+            makeDurable(logged);
+            return Optional.of(noteToSave);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Saves the whole batch with a single addDocuments and a single commit.
+     *
+     * Callers importing a lot of notes should hand them over in batches rather than all at once since the batch is
+     * held in memory.
+     *
+     * @param entities      The notes to save
+     * @return              The saved notes (with ids) or null if the batch could not be saved
+     */
+    @Override
+    public Iterable<Note> save(@NonNull Iterable<? extends Note> entities) {
+        requireWritable();
+        Map<Boolean, List<Note>> isNew = StreamSupport.stream(entities.spliterator(), false)
+                .collect(Collectors.partitioningBy(note -> note.getId() == null));
+        if (isNew.get(true).isEmpty() && isNew.get(false).isEmpty()) { return new ArrayList<>(); }
+        isNew.get(false).forEach(this::requireHandedOut);
+        return doOrNull(() -> {
+            val newNotes = new ArrayList<Note>(isNew.get(true).size());
+            for (val note : isNew.get(true)) { newNotes.add(stamped(note, null)); }
+            writer.addDocuments(newNotes.stream()
+                    .map(LuceneNoteRepository::toDocument)
+                    .collect(Collectors.toList()));
+            long logged = 0;
+            for (val note : newNotes) {
+                logged = log(WriteAheadLog.Op.SAVE, note.getId(), note);
+                written(note.getId(), note);
+            }
+            val notesToSave = new ArrayList<Note>(newNotes);
+            for (val note : isNew.get(false)) {
+                synchronized (lockFor(note.getId())) {
+                    val replaced = replace(note, lastWritten(note.getId()));
+                    logged = log(WriteAheadLog.Op.SAVE, replaced.getId(), replaced);
+                    notesToSave.add(replaced);
+                }
+            }
+            afterWrite();
+            makeDurable(logged);
+            return notesToSave;
+        });
     }
 
     @Override
     public Note findOne(Long aLong) {
-        throw new UnsupportedOperationException();
+        return aLong == null ? null : findByID(aLong).orElse(null);
     }
 
     @Override
     public boolean exists(Long aLong) {
-        throw new UnsupportedOperationException();
+        return aLong != null && findByID(aLong).isPresent();
     }
 
     @Override
@@ -137,18 +1152,37 @@ public class LuceneNoteRepository implements NoteRepository, Closeable {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * @return  The number of live notes straight from the reader's stats, no search involved
+     */
     @Override
     public long count() {
-        throw new UnsupportedOperationException();
+        try {
+            return searchers.withSearcher(searcher -> (long) searcher.getIndexReader().numDocs());
+        } catch (IOException e) {
+            failed(e);
+            return 0;
+        }
     }
 
+    /**
+     * Deletes are made durable just like saves, so a crash can never bring a deleted note back
+     */
     @Override
     public void delete(Long aLong) {
+        requireWritable();
         if (aLong != null) {
             try {
-                writer.deleteDocuments(LongPoint.newExactQuery("id", aLong));
+                final long logged;
+                synchronized (lockFor(aLong)) {
+                    writer.deleteDocuments(idTerm(aLong));
+                    logged = log(WriteAheadLog.Op.DELETE, aLong, null);
+                    written(aLong, null);
+                }
+                afterWrite();
+                makeDurable(logged);
             } catch (IOException e) {
-                e.printStackTrace();
+                failed(e);
             }
         }
     }
@@ -158,13 +1192,98 @@ public class LuceneNoteRepository implements NoteRepository, Closeable {
         delete(entity.getId());
     }
 
+    /**
+     * Deletes the whole batch with a single commit.  Each id is deleted (and logged) under its lock, so the index, the
+     * log and what later updates check against have the deletes in the same order as any concurrent updates to the
+     * same ids.
+     *
+     * @param entities      The notes to delete.  Only their ids matter.
+     */
     @Override
-    public void delete(Iterable<? extends Note> entities) {
-        throw new UnsupportedOperationException();
+    public void delete(@NonNull Iterable<? extends Note> entities) {
+        requireWritable();
+        val ids = StreamSupport.stream(entities.spliterator(), false)
+                .map(Note::getId)
+                .filter(Objects::nonNull)
+                .mapToLong(Long::longValue)
+                .toArray();
+        if (ids.length == 0) { return; }
+        try {
+            long logged = 0;
+            for (val id : ids) {
+                synchronized (lockFor(id)) {
+                    writer.deleteDocuments(idTerm(id));
+                    logged = log(WriteAheadLog.Op.DELETE, id, null);
+                    written(id, null);
+                }
+            }
+            afterWrite();
+            makeDurable(logged);
+        } catch (IOException e) {
+            failed(e);
+        }
     }
 
     @Override
     public void deleteAll() {
-        throw new UnsupportedOperationException();
+        requireWritable();
+        try {
+            writer.deleteAll();
+            val logged = log(WriteAheadLog.Op.DELETE_ALL, 0, null);
+            idLookup.clear();
+            searchers.markDirty();
+            searchers.refresh();                    // even without refreshAfterWrite, so no deleted note looks saved
+            makeDurable(logged);
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    /**
+     * Run some merge, make it durable and visible, and report what it did to the index
+     */
+    private MaintenanceResult maintain(ExceptionalSupplier<IOException, Void> merge) throws IOException {
+        requireWritable();
+        val started = System.currentTimeMillis();
+        val segmentsBefore = searchers.getSegmentCount();
+        val deletedBefore = searchers.withSearcher(searcher -> searcher.getIndexReader().numDeletedDocs());
+        merge.get();
+        makeDurable();
+        searchers.refresh();
+        return new MaintenanceResult(segmentsBefore, searchers.getSegmentCount()
+                , deletedBefore, searchers.withSearcher(searcher -> searcher.getIndexReader().numDeletedDocs())
+                , System.currentTimeMillis() - started);
+    }
+
+    @Override
+    public MaintenanceResult forceMerge(int maxSegments) throws IOException {
+        if (maxSegments < 1) { throw new IllegalArgumentException("Need at least one segment."); }
+        return maintain(() -> {
+            writer.forceMerge(maxSegments, true);
+            return null;
+        });
+    }
+
+    @Override
+    public MaintenanceResult expungeDeletes() throws IOException {
+        return maintain(() -> {
+            writer.forceMergeDeletes(true);
+            return null;
+        });
+    }
+
+    /**
+     * Commit, pin the commit so merges cannot delete its files while they are copied, and copy it.
+     */
+    @Override
+    public BackupResult backup(@NonNull Path destination) throws IOException {
+        requireWritable();
+        makeDurable();
+        val commit = snapshots.snapshot();
+        try {
+            return IndexBackup.copy(directory, commit, destination);
+        } finally {
+            release(commit);                        // and whatever was merged away meanwhile
+        }
     }
 }
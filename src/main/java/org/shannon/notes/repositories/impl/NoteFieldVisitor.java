@@ -0,0 +1,83 @@
+package org.shannon.notes.repositories.impl;
+
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.StoredFieldVisitor;
+import org.shannon.notes.entities.Note;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a Note straight out of the stored fields of a doc.
+ *
+ * Loading a Document builds a field object per stored field and boxes every number, only for Note.fromDocument to
+ * throw them away again.  This takes the numbers as the longs they were stored as and the strings as they are, skips
+ * anything else and stops at the body, which every doc stores last.  One visitor can be reset and reused for a whole
+ * page.
+ */
+final class NoteFieldVisitor extends StoredFieldVisitor {
+    static final String ID = "id";
+    static final String VERSION = "version";
+    static final String BODY = "body";
+    static final String CREATED = "created";
+    static final String TAGS = "tags";
+
+    private Long id;
+    private Long version;
+    private String body;
+    private Long created;
+    private List<String> tags;             // null until a tag is read
+
+    /**
+     * Forget the last doc so the next can be read
+     *
+     * @return  This visitor
+     */
+    NoteFieldVisitor reset() {
+        id = null;
+        version = null;
+        body = null;
+        created = null;
+        tags = null;
+        return this;
+    }
+
+    /**
+     * @return  The note read from the last doc visited
+     */
+    Note toNote() {
+        return new Note(id, body, version, created, tags);
+    }
+
+    @Override
+    public Status needsField(FieldInfo fieldInfo) {
+        if (body != null) { return Status.STOP; }
+        switch (fieldInfo.name) {
+            case ID:
+            case VERSION:
+            case BODY:
+            case CREATED:
+            case TAGS:
+                return Status.YES;
+            default:
+                return Status.NO;
+        }
+    }
+
+    @Override
+    public void longField(FieldInfo fieldInfo, long value) {
+        if (ID.equals(fieldInfo.name)) { id = value; }
+        else if (VERSION.equals(fieldInfo.name)) { version = value; }
+        else if (CREATED.equals(fieldInfo.name)) { created = value; }
+    }
+
+    @Override
+    public void stringField(FieldInfo fieldInfo, byte[] value) {
+        if (BODY.equals(fieldInfo.name)) { body = new String(value, StandardCharsets.UTF_8); }
+        else if (TAGS.equals(fieldInfo.name)) {
+            if (tags == null) { tags = new ArrayList<>(); }
+            tags.add(new String(value, StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.shannon.notes.repositories.impl;
+
+import lombok.Value;
+import lombok.val;
+import org.shannon.notes.repositories.NotePage;
+import org.shannon.notes.repositories.Projection;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Where a page left off: the score, sort value and id of its last hit.  Since ids are unique and pages are sorted by
+ * score or value then id, this lands in the same place no matter how the index changes underneath it.
+ */
+@Value
+class PageCursor {
+    private static final int BYTES = Float.BYTES + Long.BYTES * 2;
+    private static final int SCORE_ONLY_BYTES = Float.BYTES + Long.BYTES;     // handed out before pages were sortable
+
+    float score;
+
+    /**
+     * The value the page is sorted by, zero when sorted by relevance
+     */
+    long value;
+    long id;
+
+    /**
+     * @return  The cursor packed into url safe base64
+     */
+    String encode() {
+        val buffer = ByteBuffer.allocate(BYTES)
+                .putFloat(score)
+                .putLong(value)
+                .putLong(id);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+
+    /**
+     * @param cursor    Some cursor handed out by encode
+     * @return          The cursor, or null if there is none
+     * @throws IllegalArgumentException     If it is not a cursor handed out by encode
+     */
+    static PageCursor decode(String cursor) {
+        if (cursor == null) { return null; }
+        val bytes = Base64.getUrlDecoder().decode(cursor);
+        if (bytes.length != BYTES && bytes.length != SCORE_ONLY_BYTES) { throw new IllegalArgumentException("Not a cursor: " + cursor); }
+        val buffer = ByteBuffer.wrap(bytes);
+        return new PageCursor(buffer.getFloat(), bytes.length == BYTES ? buffer.getLong() : 0, buffer.getLong());
+    }
+
+    /**
+     * Turn a page worth of sorted hits into a page, pointing at the next one if the page is full
+     *
+     * @param hits          Up to size hits, in page order
+     * @param size          How many hits a full page has
+     * @param projection    How much of each hit was asked for
+     * @return              The page
+     */
+    static NotePage page(List<ScoredNote> hits, int size, Projection projection) {
+        String next = null;
+        if (hits.size() >= size) {
+            val last = hits.get(hits.size() - 1);
+            next = new PageCursor(last.getScore(), last.getValue(), last.getNote().getId()).encode();
+        }
+        if (projection == Projection.NOTES) {
+            return new NotePage(hits.stream()
+                    .map(ScoredNote::getNote)
+                    .collect(Collectors.toList()), next);
+        }
+        return new NotePage(Collections.emptyList(), next, hits.stream()
+                .map(hit -> hit.toHit(projection))
+                .collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,59 @@
+package org.shannon.notes.repositories.impl;
+
+import lombok.NonNull;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.store.FilterDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.MMapDirectory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A memory mapped directory that touches every page of its hot files as it opens them, so the first search after a
+ * restart or a merge does not stall on page faults in the term dictionary or doc values.
+ *
+ * Lucene can only preload every file a directory maps, which on a big index would pull stored fields nobody reads into
+ * the page cache too.  So hot files are opened through a second, preloading MMapDirectory over the same path, and
+ * everything else (all writes included) goes to the one wrapped as usual.
+ */
+public class PreloadingDirectory extends FilterDirectory {
+    private final MMapDirectory preloaded;
+    private final Set<String> extensions;
+
+    /**
+     * @param directory     The directory to read and write through
+     * @param extensions    The extensions of the files to preload, e.g. tim, tip, dvd and dvm
+     * @throws IOException  If the second directory cannot be opened
+     */
+    public PreloadingDirectory(@NonNull MMapDirectory directory, @NonNull Set<String> extensions) throws IOException {
+        super(directory);
+        preloaded = new MMapDirectory(directory.getDirectory());
+        preloaded.setPreload(true);
+        this.extensions = Collections.unmodifiableSet(new HashSet<>(extensions));
+    }
+
+    @Override
+    public IndexInput openInput(String name, IOContext context) throws IOException {
+        return extensions.contains(IndexFileNames.getExtension(name)) ? preloaded.openInput(name, context) : in.openInput(name, context);
+    }
+
+    /**
+     * @return  The extensions of the files preloaded
+     */
+    public Set<String> getExtensions() {
+        return extensions;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            preloaded.close();
+        } finally {
+            in.close();
+        }
+    }
+}
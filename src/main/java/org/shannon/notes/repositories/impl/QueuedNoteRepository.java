@@ -0,0 +1,218 @@
+package org.shannon.notes.repositories.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.NonNull;
+import lombok.val;
+import org.shannon.notes.entities.Note;
+import org.shannon.notes.repositories.Aggregation;
+import org.shannon.notes.repositories.AggregationQuery;
+import org.shannon.notes.repositories.IndexVersion;
+import org.shannon.notes.repositories.NotePage;
+import org.shannon.notes.repositories.NoteQuery;
+import org.shannon.notes.repositories.NoteRepository;
+import org.shannon.notes.repositories.Suggestion;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Runs the asynchronous writes of another NoteRepository on a few ingest threads fed by a bounded queue.
+ *
+ * Callers get their thread back as soon as the write is queued.  When the queue is full the write is refused straight
+ * away with a RejectedExecutionException rather than piling up, so a burst turns into quick refusals the client can
+ * retry instead of every request thread waiting on the index.  Everything else goes straight to the other repository.
+ */
+public class QueuedNoteRepository implements NoteRepository, Closeable {
+    private final NoteRepository repository;
+    private final ThreadPoolExecutor ingest;
+    private final Timer waits;
+    private final Counter rejections;
+
+    /**
+     * @param repository    Where the writes go
+     * @param threads       How many writes run at once
+     * @param capacity      How many writes may wait for a thread before more are refused
+     * @param registry      Where the queue depth, wait times and refusals are reported
+     */
+    public QueuedNoteRepository(@NonNull NoteRepository repository, int threads, int capacity, @NonNull MeterRegistry registry) {
+        if (threads < 1 || capacity < 1) { throw new IllegalArgumentException("Need at least one ingest thread and queue slot."); }
+        this.repository = repository;
+        ingest = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(capacity),
+                runnable -> {
+                    val thread = new Thread(runnable, "note-ingest");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        waits = Timer.builder("notes.ingest.wait")
+                .description("How long writes waited in the ingest queue")
+                .publishPercentileHistogram()
+                .register(registry);
+        rejections = Counter.builder("notes.ingest.rejected")
+                .description("Writes refused because the ingest queue was full")
+                .register(registry);
+        Gauge.builder("notes.ingest.queue.depth", ingest, executor -> executor.getQueue().size())
+                .description("Writes waiting for an ingest thread")
+                .register(registry);
+    }
+
+    /**
+     * Queue a write, timing how long it waits for a thread
+     */
+    private <T> CompletableFuture<T> queue(Supplier<T> write) {
+        val queuedAt = System.nanoTime();
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                waits.record(System.nanoTime() - queuedAt, TimeUnit.NANOSECONDS);
+                return write.get();
+            }, ingest);
+        } catch (RejectedExecutionException e) {
+            rejections.increment();
+            val refused = new CompletableFuture<T>();
+            refused.completeExceptionally(e);
+            return refused;
+        }
+    }
+
+    /**
+     * @return  How many writes are waiting for an ingest thread
+     */
+    public int getQueueDepth() {
+        return ingest.getQueue().size();
+    }
+
+    /**
+     * @return  The repository the writes go to
+     */
+    public NoteRepository getRepository() {
+        return repository;
+    }
+
+    @Override
+    public CompletableFuture<Note> saveAsync(Note note) {
+        return queue(() -> repository.save(note));
+    }
+
+    @Override
+    public CompletableFuture<Optional<Note>> updateAsync(Note note, Long expectedVersion) {
+        return queue(() -> repository.update(note, expectedVersion));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteAsync(Long id) {
+        return queue(() -> {
+            repository.delete(id);
+            return null;
+        });
+    }
+
+    /**
+     * Stop taking writes and wait a little for the queued ones to finish
+     */
+    @Override
+    public void close() {
+        ingest.shutdown();
+        try {
+            ingest.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public Optional<Note> findByID(long id) {
+        return repository.findByID(id);
+    }
+
+    @Override
+    public Optional<Long> findVersionByID(long id) {
+        return repository.findVersionByID(id);
+    }
+
+    @Override
+    public IndexVersion searchedVersion() {
+        return repository.searchedVersion();
+    }
+
+    @Override
+    public Stream<Note> search(String queryString, int count) {
+        return repository.search(queryString, count);
+    }
+
+    @Override
+    public NotePage page(NoteQuery query) {
+        return repository.page(query);
+    }
+
+    @Override
+    public Aggregation aggregate(AggregationQuery query) {
+        return repository.aggregate(query);
+    }
+
+    @Override
+    public List<Suggestion> suggest(String prefix, int count) {
+        return repository.suggest(prefix, count);
+    }
+
+    @Override
+    public Optional<Note> update(Note note, Long expectedVersion) {
+        return repository.update(note, expectedVersion);
+    }
+
+    @Override
+    public Note save(Note entity) {
+        return repository.save(entity);
+    }
+
+    @Override
+    public Iterable<Note> save(Iterable<? extends Note> entities) {
+        return repository.save(entities);
+    }
+
+    @Override
+    public Note findOne(Long id) {
+        return repository.findOne(id);
+    }
+
+    @Override
+    public boolean exists(Long id) {
+        return repository.exists(id);
+    }
+
+    @Override
+    public Iterable<Note> findAll() {
+        return repository.findAll();
+    }
+
+    @Override
+    public long count() {
+        return repository.count();
+    }
+
+    @Override
+    public void delete(Long id) {
+        repository.delete(id);
+    }
+
+    @Override
+    public void delete(Note entity) {
+        repository.delete(entity);
+    }
+
+    @Override
+    public void delete(Iterable<? extends Note> entities) {
+        repository.delete(entities);
+    }
+
+    @Override
+    public void deleteAll() {
+        repository.deleteAll();
+    }
+}
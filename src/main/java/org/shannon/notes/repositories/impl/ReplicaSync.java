@@ -0,0 +1,202 @@
+package org.shannon.notes.repositories.impl;
+
+import lombok.NonNull;
+import lombok.val;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a replica's directory a copy of the primary's latest commit.
+ *
+ * Segment files never change once written, so each pull only copies the files the replica does not already have with
+ * the same length and checksum, typically the few small segments flushed since the last pull.  The segments file comes
+ * last under a pending name and is renamed into place once everything it points at is synced, so a replica that dies
+ * mid-pull reopens as the commit it had before.  Files the new commit no longer needs are dropped after the replica's
+ * searcher has moved on to it.
+ */
+public class ReplicaSync implements Closeable {
+    private static final String PENDING = "pending_";
+
+    private final ReplicationSource source;
+    private final Directory directory;
+    private volatile CommitPoint current;           // null until the first pull
+    private volatile long generation;
+    private volatile long caughtUpAt = System.currentTimeMillis();
+    private ScheduledExecutorService follower;      // null unless following
+    private boolean failing;                        // only the first of a run of failed pulls is logged
+
+    /**
+     * @param source        Where to copy commits from
+     * @param directory     Where the replica's index lives, empty or as an earlier pull left it
+     * @throws IOException  If the directory cannot be read
+     */
+    public ReplicaSync(@NonNull ReplicationSource source, @NonNull Directory directory) throws IOException {
+        this.source = source;
+        this.directory = directory;
+        generation = DirectoryReader.indexExists(directory) ? SegmentInfos.getLastCommitGeneration(directory) : -1;
+    }
+
+    /**
+     * Copy the source's latest commit unless this replica has it already
+     *
+     * @return              Whether a new commit was copied
+     * @throws IOException  If the source cannot be reached, or a file cannot be copied or comes over corrupt
+     */
+    public synchronized boolean pull() throws IOException {
+        val asked = System.currentTimeMillis();
+        val latest = source.latest();
+        if (latest.getGeneration() == generation) {
+            current = latest;
+            caughtUpAt = asked;
+            return false;
+        }
+        val existing = new HashSet<String>(Arrays.asList(directory.listAll()));
+        val written = new ArrayList<String>();
+        for (val file : latest.getFiles().entrySet()) {
+            val name = file.getKey();
+            if (name.equals(latest.getSegmentsFile()) || (existing.contains(name) && matches(name, file.getValue()))) { continue; }
+            if (existing.contains(name)) { directory.deleteFile(name); }      // left half copied by an earlier pull
+            fetch(latest.getGeneration(), name, name, file.getValue());
+            written.add(name);
+        }
+        val pending = PENDING + latest.getSegmentsFile();
+        if (existing.contains(pending)) { directory.deleteFile(pending); }
+        fetch(latest.getGeneration(), latest.getSegmentsFile(), pending, latest.getFiles().get(latest.getSegmentsFile()));
+        written.add(pending);
+        directory.sync(written);
+        for (val name : existing) {
+            if (name.startsWith(IndexFileNames.SEGMENTS + "_") && SegmentInfos.generationFromSegmentsFileName(name) > latest.getGeneration()) {
+                directory.deleteFile(name);         // from before the primary was restored to an older commit
+            }
+        }
+        directory.rename(pending, latest.getSegmentsFile());
+        directory.syncMetaData();
+        current = latest;
+        generation = latest.getGeneration();
+        caughtUpAt = asked;
+        return true;
+    }
+
+    private boolean matches(String name, CommitPoint.FileInfo expected) throws IOException {
+        if (directory.fileLength(name) != expected.getLength()) { return false; }
+        try (val in = directory.openInput(name, IOContext.READONCE)) {
+            return CodecUtil.retrieveChecksum(in) == expected.getChecksum();
+        } catch (CorruptIndexException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Copy one file and check it came over whole
+     */
+    private void fetch(long commitGeneration, String name, String as, CommitPoint.FileInfo expected) throws IOException {
+        try (IndexOutput out = directory.createOutput(as, IOContext.DEFAULT)) {
+            source.copy(commitGeneration, name, new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    out.writeByte((byte) b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.writeBytes(b, off, len);
+                }
+            });
+        }
+        try (val in = directory.openInput(as, IOContext.READONCE)) {
+            if (in.length() != expected.getLength() || CodecUtil.checksumEntireFile(in) != expected.getChecksum()) {
+                throw new CorruptIndexException("Copied from generation " + commitGeneration + " but does not match", as);
+            }
+        } catch (IOException e) {
+            directory.deleteFile(as);
+            throw e;
+        }
+    }
+
+    /**
+     * Drop the index files the current commit no longer needs, and anything a failed pull left pending.  A file some
+     * reader still has open stays readable on POSIX; where it cannot be deleted yet it is tried again next time.
+     */
+    private void dropUnused() {
+        val kept = current;
+        if (kept == null) { return; }
+        try {
+            for (val name : directory.listAll()) {
+                if (kept.getFiles().containsKey(name) || !(name.startsWith(PENDING) || IndexBackup.isIndexFile(name))) { continue; }
+                try {
+                    directory.deleteFile(name);
+                } catch (IOException e) {           // still open somewhere, next time
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Pull in the background, refreshing the replica's searcher after every new commit
+     *
+     * @param replica           The read only repository over the directory
+     * @param intervalMillis    How long to wait between pulls
+     */
+    public synchronized void follow(@NonNull LuceneNoteRepository replica, long intervalMillis) {
+        if (!replica.isReadOnly()) { throw new IllegalArgumentException("Only a read only replica can follow a primary."); }
+        if (follower != null) { throw new IllegalStateException("Already following."); }
+        replica.getMetrics().watch(this);
+        follower = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            val thread = new Thread(runnable, "note-replica-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        follower.scheduleWithFixedDelay(() -> followQuietly(replica), 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void followQuietly(LuceneNoteRepository replica) {
+        try {
+            if (pull()) {
+                replica.getSearchers().refresh();
+                dropUnused();
+            }
+            failing = false;
+        } catch (IOException | RuntimeException e) {   // the primary is down or restarting, try again next time
+            if (!failing) { e.printStackTrace(); }
+            failing = true;
+        }
+    }
+
+    /**
+     * @return  The generation of the commit the replica has, -1 if none yet
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return  How long (in milliseconds) since the replica last had the primary's latest commit, which grows for as
+     *          long as the primary cannot be reached
+     */
+    public long getLagMillis() {
+        return Math.max(0, System.currentTimeMillis() - caughtUpAt);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (follower != null) { follower.shutdownNow(); }
+    }
+}
@@ -0,0 +1,28 @@
+package org.shannon.notes.repositories.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Where a replica copies commits from: the primary's index itself, or the primary over HTTP
+ */
+public interface ReplicationSource {
+    /**
+     * The latest commit, held so its files can be copied for a while even as newer commits replace it
+     *
+     * @return              The commit
+     * @throws IOException  If the commit cannot be read or reached
+     */
+    CommitPoint latest() throws IOException;
+
+    /**
+     * Write one file of a commit that latest handed out
+     *
+     * @param generation    The commit's generation
+     * @param file          The file's name
+     * @param out           Where to write it
+     * @throws java.nio.file.NoSuchFileException    If the commit is no longer held or has no such file
+     * @throws IOException  If the file cannot be read or reached
+     */
+    void copy(long generation, String file, OutputStream out) throws IOException;
+}
@@ -0,0 +1,183 @@
+package org.shannon.notes.repositories.impl;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import lombok.Builder;
+import lombok.Value;
+
+import java.nio.file.Path;
+
+/**
+ * Knobs for how a LuceneNoteRepository runs.  Everything defaults to something sane so
+ * RepositorySettings.builder().build() is always a valid choice.
+ */
+@Value
+@Builder(toBuilder = true)
+public class RepositorySettings {
+    private static final int COMMIT_PER_WRITE_INGEST_THREADS = 8;
+
+    /**
+     * How often (in milliseconds) the shared searcher is refreshed in the background.  Zero or less disables the
+     * background refresh.
+     */
+    @Builder.Default
+    long refreshIntervalMillis = 1000;
+
+    /**
+     * How the index writer buffers, merges and compresses.
+     */
+    @Builder.Default
+    IndexTuningProfile tuningProfile = IndexTuningProfile.DEFAULT;
+
+    /**
+     * Whether a write blocks until the shared searcher can see it.  Turning this off trades read-your-writes for
+     * cheaper writes and leaves visibility to the background refresh.
+     */
+    @Builder.Default
+    boolean refreshAfterWrite = true;
+
+    /**
+     * How a write becomes durable before it is acknowledged.
+     */
+    @Builder.Default
+    DurabilityMode durabilityMode = DurabilityMode.COMMIT_PER_WRITE;
+
+    /**
+     * With GROUP_COMMIT, the most writes released by a single commit.
+     */
+    @Builder.Default
+    int maxBatchSize = 256;
+
+    /**
+     * With GROUP_COMMIT, how long (in milliseconds) a commit waits for more writes to join it.  Zero still batches
+     * whatever arrived while the previous commit was running.
+     */
+    @Builder.Default
+    long maxBatchDelayMillis = 0;
+
+    /**
+     * With WRITE_AHEAD_LOG, where the log files go.  Required in that mode.
+     */
+    Path walDirectory;
+
+    /**
+     * With WRITE_AHEAD_LOG, how often (in milliseconds) the index is committed so the log before it can be dropped.
+     * Zero or less only commits on close, leaving the whole log to replay after a crash.
+     */
+    @Builder.Default
+    long checkpointIntervalMillis = 5000;
+
+    /**
+     * How many id to segment/doc locations to remember for id lookups.  Zero or less turns the cache off.
+     */
+    @Builder.Default
+    long idCacheSize = 100_000;
+
+    /**
+     * How many parsed queries to remember so hot query strings skip the parser.  Zero or less turns it off.
+     */
+    @Builder.Default
+    long parsedQueryCacheSize = 1000;
+
+    /**
+     * Roughly how many bytes of search results to remember.  Zero or less turns it off.
+     */
+    @Builder.Default
+    long resultCacheMaxWeight = 32L * 1024 * 1024;
+
+    /**
+     * How many filter clauses to keep a bitset per segment of once they are used often enough.  Zero or less turns
+     * the filter cache off.
+     */
+    @Builder.Default
+    int filterCacheSize = 1000;
+
+    /**
+     * Roughly how many bytes of filter bitsets to keep
+     */
+    @Builder.Default
+    long filterCacheMaxBytes = 32L * 1024 * 1024;
+
+    /**
+     * How often (in milliseconds) the words suggested to complete what is typed are rebuilt from the index, if
+     * anything has been written since.  Zero or less rebuilds them as part of every refresh, which keeps them exact
+     * but makes every refresh walk the whole term dictionary.
+     */
+    @Builder.Default
+    long suggestRebuildMillis = 30_000;
+
+    /**
+     * How many threads a single query can search segments on, shared by every repository asking for as many.  Zero or
+     * less searches on the request thread alone.
+     */
+    @Builder.Default
+    int searchThreads = 0;
+
+    /**
+     * With searchThreads, the fewest docs worth searching on a thread of their own.  Smaller segments are grouped
+     * together and indexes smaller than two of these are searched on the request thread.
+     */
+    @Builder.Default
+    int minSliceDocs = 250_000;
+
+    /**
+     * How many ids a thread reserves at a time.  Bigger blocks mean less contention and bigger gaps after a crash.
+     */
+    @Builder.Default
+    int idBlockSize = 64;
+
+    /**
+     * Which of nodeCount instances handing out ids for the same notes this is, from 0.
+     */
+    @Builder.Default
+    int nodeId = 0;
+
+    /**
+     * How many instances hand out ids for the same notes.  Each only hands out ids congruent to its nodeId.
+     */
+    @Builder.Default
+    int nodeCount = 1;
+
+    /**
+     * How many single note writes from the API run at once.  Each thread waits for its own write to be durable, so
+     * with GROUP_COMMIT or WRITE_AHEAD_LOG this also caps how many writes can share a commit or a sync.  Zero or less
+     * picks enough for the durability mode, see getIngestThreadsToRun().
+     */
+    @Builder.Default
+    int ingestThreads = 0;
+
+    /**
+     * How many single note writes from the API may wait for an ingest thread before more are refused.
+     */
+    @Builder.Default
+    int ingestQueueCapacity = 1000;
+
+    /**
+     * Only search the index, never write to it, as a replica whose index is copied in from a primary does.  Every
+     * write is refused and the durability settings play no part.
+     */
+    @Builder.Default
+    boolean readOnly = false;
+
+    /**
+     * Where commit, refresh, merge, parse and load timings and the index gauges go.  The global registry picks up
+     * whatever registries Spring adds to it.
+     */
+    @Builder.Default
+    MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+    /**
+     * What the index is called in metrics.
+     */
+    @Builder.Default
+    String indexName = "notes";
+
+    /**
+     * @return  ingestThreads if set, or else maxBatchSize when writes share commits or syncs so a whole batch can be
+     *          waiting on one, and 8 when every write commits on its own
+     */
+    public int getIngestThreadsToRun() {
+        if (ingestThreads > 0) { return ingestThreads; }
+        return durabilityMode == DurabilityMode.COMMIT_PER_WRITE ? COMMIT_PER_WRITE_INGEST_THREADS : Math.max(1, maxBatchSize);
+    }
+}
@@ -0,0 +1,57 @@
+package org.shannon.notes.repositories.impl;
+
+import lombok.Value;
+import org.shannon.notes.entities.Note;
+import org.shannon.notes.repositories.NoteHit;
+import org.shannon.notes.repositories.NoteQuery;
+import org.shannon.notes.repositories.NoteSort;
+import org.shannon.notes.repositories.Projection;
+
+import java.util.Comparator;
+
+/**
+ * A note found by a search along with its score, so hits from several indexes can be merged.
+ */
+@Value
+class ScoredNote {
+    /**
+     * The order pages are in: best match first with ties broken by id
+     */
+    static final Comparator<ScoredNote> PAGE_ORDER = Comparator.comparing(ScoredNote::getScore, Comparator.reverseOrder())
+            .thenComparing(hit -> hit.getNote().getId());
+
+    /**
+     * How well the note matched, NaN unless sorted by relevance
+     */
+    float score;
+
+    /**
+     * The value the page is sorted by, zero when sorted by relevance
+     */
+    long value;
+    Note note;
+
+    /**
+     * The highlighted snippet of the body, null unless asked for
+     */
+    String snippet;
+
+    /**
+     * @param page      The page the hits are for
+     * @return          The order the page is in
+     */
+    static Comparator<ScoredNote> pageOrder(NoteQuery page) {
+        if (page.getSort() == NoteSort.RELEVANCE) { return PAGE_ORDER; }
+        Comparator<ScoredNote> order = Comparator.comparingLong(ScoredNote::getValue)
+                .thenComparingLong(hit -> hit.getNote().getId());
+        return page.isDescending() ? order.reversed() : order;
+    }
+
+    /**
+     * @param projection    How much of the hit was asked for
+     * @return              Just that much of it
+     */
+    NoteHit toHit(Projection projection) {
+        return new NoteHit(note.getId(), projection == Projection.IDS || Float.isNaN(score) ? null : score, snippet);
+    }
+}
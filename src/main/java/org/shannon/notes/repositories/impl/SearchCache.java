@@ -0,0 +1,147 @@
+package org.shannon.notes.repositories.impl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import lombok.Value;
+import lombok.val;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.shannon.function.ExceptionalFunction;
+import org.shannon.function.ExceptionalSupplier;
+import org.shannon.notes.entities.Note;
+import org.shannon.notes.repositories.NotePage;
+import org.shannon.notes.repositories.NoteQuery;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.stream.Collectors;
+
+/**
+ * Remembers parsed queries and the results of searches so hot query strings skip the parser and the index.
+ *
+ * Results are keyed by the version of the reader they were found in, so once a write is refreshed into the searcher
+ * nothing found before it can be handed out again.  Old results are also dropped wholesale on every refresh so they
+ * do not sit around taking up room until they are evicted.
+ */
+public class SearchCache {
+    private static final CacheStats NO_STATS = new CacheStats(0, 0, 0, 0, 0, 0);
+
+    @Value
+    private static class ResultKey {
+        NoteQuery query;
+        boolean paged;                                          // pages carry a cursor, plain searches never do
+        long readerVersion;
+    }
+
+    private final Cache<String, Query> parsed;                  // null when off
+    private final Cache<ResultKey, NotePage> results;           // null when off
+
+    /**
+     * @param parsedQueryCacheSize      How many parsed queries to remember, zero or less for none
+     * @param resultCacheMaxWeight      Roughly how many bytes of notes to remember, zero or less for none
+     */
+    public SearchCache(long parsedQueryCacheSize, long resultCacheMaxWeight) {
+        parsed = parsedQueryCacheSize > 0
+                ? CacheBuilder.newBuilder().maximumSize(parsedQueryCacheSize).recordStats().build()
+                : null;
+        results = resultCacheMaxWeight > 0
+                ? CacheBuilder.newBuilder()
+                        .maximumWeight(resultCacheMaxWeight)
+                        .weigher(SearchCache::weigh)
+                        .recordStats()
+                        .<ResultKey, NotePage>build()
+                : null;
+    }
+
+    /**
+     * Query strings that only differ by whitespace parse to the same query
+     */
+    static String normalize(String queryString) {
+        return queryString.trim().replaceAll("\\s+", " ");
+    }
+
+    private static int weigh(ResultKey key, NotePage page) {
+        long weight = key.getQuery().getQueryString().length() * 2L + 64;
+        for (val note : page.getNotes()) {
+            weight += 64 + (note.getBody() == null ? 0 : note.getBody().length() * 2L);
+            if (note.getTags() != null) {
+                for (val tag : note.getTags()) { weight += 40 + tag.length() * 2L; }
+            }
+        }
+        for (val hit : page.getHits()) {
+            weight += 48 + (hit.getSnippet() == null ? 0 : hit.getSnippet().length() * 2L);
+        }
+        return (int) Math.min(Integer.MAX_VALUE, weight);
+    }
+
+    /**
+     * Parse the query string or hand back the query it parsed to last time
+     *
+     * @param queryString       Some lucene query string
+     * @param parser            How to parse it when it is not remembered
+     * @return                  The query
+     * @throws ParseException   If the query string does not parse
+     */
+    public Query parse(String queryString, ExceptionalFunction<ParseException, String, Query> parser) throws ParseException {
+        val normalized = normalize(queryString);
+        if (parsed == null) { return parser.apply(normalized); }
+        Query query = parsed.getIfPresent(normalized);
+        if (query == null) {
+            query = parser.apply(normalized);
+            parsed.put(normalized, query);
+        }
+        return query;
+    }
+
+    /**
+     * Search or hand back what the same search found in the same reader
+     *
+     * @param query             The page searched for, which must have a query string
+     * @param paged             Whether this is a page that may carry a next cursor rather than a plain search that
+     *                          never does, so the two never answer for each other
+     * @param searcher          The searcher the search runs in
+     * @param search            How to search when the results are not remembered
+     * @return                  What was found
+     * @throws IOException      If searching fails
+     */
+    public NotePage results(NoteQuery query, boolean paged, IndexSearcher searcher
+            , ExceptionalSupplier<IOException, NotePage> search) throws IOException {
+        val reader = searcher.getIndexReader();
+        if (results == null || !(reader instanceof DirectoryReader)) { return search.get(); }
+        val key = new ResultKey(query.withQueryString(normalize(query.getQueryString())), paged
+                , ((DirectoryReader) reader).getVersion());
+        NotePage found = results.getIfPresent(key);
+        if (found == null) {
+            found = search.get();
+            results.put(key, found);
+        }
+        return new NotePage(found.getNotes().stream()     // notes are mutable so nobody gets to touch the remembered ones
+                .map(note -> new Note(note.getId(), note.getBody(), note.getVersion(), note.getCreated()
+                        , note.getTags() == null ? null : new ArrayList<>(note.getTags())))
+                .collect(Collectors.toList()), found.getNextCursor(), new ArrayList<>(found.getHits()));
+    }
+
+    /**
+     * Forget every search result, typically because the reader moved on
+     */
+    public void clearResults() {
+        if (results != null) { results.invalidateAll(); }
+    }
+
+    /**
+     * @return  Hits, misses and evictions of search results
+     */
+    public CacheStats getResultStats() {
+        return results == null ? NO_STATS : results.stats();
+    }
+
+    /**
+     * @return  Hits, misses and evictions of parsed queries
+     */
+    public CacheStats getParsedQueryStats() {
+        return parsed == null ? NO_STATS : parsed.stats();
+    }
+}
@@ -0,0 +1,367 @@
+package org.shannon.notes.repositories.impl;
+
+import lombok.NonNull;
+import lombok.val;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.Directory;
+import org.shannon.function.ExceptionalFunction;
+import org.shannon.notes.entities.Note;
+import org.shannon.notes.repositories.Aggregation;
+import org.shannon.notes.repositories.AggregationQuery;
+import org.shannon.notes.repositories.BackupResult;
+import org.shannon.notes.repositories.IndexMaintenance;
+import org.shannon.notes.repositories.IndexVersion;
+import org.shannon.notes.repositories.MaintenanceResult;
+import org.shannon.notes.repositories.NotePage;
+import org.shannon.notes.repositories.NoteQuery;
+import org.shannon.notes.repositories.NoteRepository;
+import org.shannon.notes.repositories.Suggestion;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Spreads notes over several Lucene indexes, each with its own writer and directory, so indexing is not bound to what
+ * a single writer can flush and merge.
+ *
+ * Notes are routed to a shard by a hash of their id, so anything by id goes straight to the one shard that owns it.
+ * Searches run on every shard in parallel and the shards' best hits are merged by score.  Each shard scores with its
+ * own term statistics, which is close enough when notes are spread evenly.
+ */
+public class ShardedNoteRepository implements NoteRepository, IndexMaintenance, Closeable {
+    private final List<LuceneNoteRepository> shards;
+    private final IdAllocator ids;                                  // ids are handed out across all shards
+    private final ExecutorService fanOut;
+
+    /**
+     * @param directories   One directory per shard.  The same directories must always be given in the same order.
+     * @param settings      How every shard runs
+     * @throws IOException  If a shard cannot be opened
+     */
+    public ShardedNoteRepository(@NonNull List<Directory> directories, @NonNull RepositorySettings settings) throws IOException {
+        if (directories.isEmpty()) { throw new IllegalArgumentException("Need at least one shard."); }
+        ids = new IdAllocator(settings);
+        val opened = new ArrayList<LuceneNoteRepository>(directories.size());
+        try {
+            for (int i = 0; i < directories.size(); i++) {
+                val shardSettings = settings.toBuilder()
+                        .indexName(settings.getIndexName() + "-shard-" + i)
+                        .walDirectory(settings.getWalDirectory() == null ? null : settings.getWalDirectory().resolve("shard-" + i))
+                        .build();
+                opened.add(new LuceneNoteRepository(directories.get(i), shardSettings, ids));
+            }
+        } catch (IOException | RuntimeException e) {
+            for (val shard : opened) { shard.close(); }
+            throw e;
+        }
+        shards = Collections.unmodifiableList(opened);
+        fanOut = Executors.newFixedThreadPool(shards.size(), runnable -> {
+            val thread = new Thread(runnable, "note-shard-fan-out");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        fanOut.shutdownNow();
+        IOException failure = null;
+        for (val shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) { throw failure; }
+    }
+
+    /**
+     * @return  The shards, in routing order
+     */
+    public List<LuceneNoteRepository> getShards() {
+        return shards;
+    }
+
+    private LuceneNoteRepository shardFor(long id) {
+        val mixed = id * 0x9E3779B97F4A7C15L;                       // spread ids handed out in strides over every shard
+        return shards.get(Math.floorMod(Long.hashCode(mixed ^ (mixed >>> 32)), shards.size()));
+    }
+
+    private Map<LuceneNoteRepository, List<Note>> byShard(Iterable<? extends Note> notes) {
+        return StreamSupport.stream(notes.spliterator(), false)
+                .filter(note -> note.getId() != null)
+                .collect(Collectors.groupingBy(note -> shardFor(note.getId()), LinkedHashMap::new, Collectors.toList()));
+    }
+
+    /**
+     * Run something on every given shard at once and wait for all of them
+     */
+    private <T> List<T> onEach(Collection<LuceneNoteRepository> targets, ExceptionalFunction<IOException, LuceneNoteRepository, T> action) throws IOException {
+        val futures = targets.stream()
+                .map(shard -> CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return action.apply(shard);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, fanOut))
+                .collect(Collectors.toList());
+        try {
+            return futures.stream()
+                    .map(CompletableFuture::join)
+                    .collect(Collectors.toList());
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) { throw ((UncheckedIOException) e.getCause()).getCause(); }
+            throw e;
+        }
+    }
+
+    /**
+     * Merge each shard's page of hits into the best size of them all
+     */
+    private List<ScoredNote> scoredPage(Query query, NoteQuery page, PageCursor after) throws IOException {
+        return onEach(shards, shard -> shard.scoredPage(query, page, after))
+                .stream()
+                .flatMap(List::stream)
+                .sorted(ScoredNote.pageOrder(page))
+                .limit(page.getSize())
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public Optional<Note> findByID(long id) {
+        return shardFor(id).findByID(id);
+    }
+
+    @Override
+    public Optional<Long> findVersionByID(long id) {
+        return shardFor(id).findVersionByID(id);
+    }
+
+    /**
+     * Every shard's version added up, which goes up whenever any of them does
+     */
+    @Override
+    public IndexVersion searchedVersion() {
+        return shards.stream().map(LuceneNoteRepository::searchedVersion).reduce(IndexVersion::plus).get();
+    }
+
+    /**
+     * A query that cannot be parsed finds nothing, as on a single index, and counts as a failure of the shard that
+     * parsed it
+     *
+     * @throws UncheckedIOException     If a shard cannot be searched
+     */
+    @Override
+    public Stream<Note> search(@NonNull String queryString, int count) {
+        try {
+            val query = shards.get(0).parse(queryString);
+            return scoredPage(query, NoteQuery.builder().size(count).build(), null).stream()
+                    .map(ScoredNote::getNote);
+        } catch (ParseException e) {
+            shards.get(0).failed(e);
+            return Stream.empty();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @throws UncheckedIOException     If a shard cannot be searched
+     */
+    @Override
+    public NotePage page(@NonNull NoteQuery noteQuery) {
+        val after = PageCursor.decode(noteQuery.getCursor());
+        try {
+            val query = shards.get(0).queryOf(noteQuery);
+            return PageCursor.page(scoredPage(query, noteQuery, after), noteQuery.getSize(), noteQuery.getProjection());
+        } catch (ParseException e) {
+            shards.get(0).failed(e);
+            return new NotePage(Collections.emptyList(), null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Note withNewId(Note note) {
+        if (note.getId() != null) { return note; }
+        return note.withId(ids.next()).withCreated(note.getCreated() == null ? System.currentTimeMillis() : note.getCreated());
+    }
+
+    /**
+     * Every shard counts its own notes at once and the counts are added up, so tag counts are exact
+     */
+    @Override
+    public Aggregation aggregate(@NonNull AggregationQuery aggregation) {
+        try {
+            val query = shards.get(0).parseOrAll(aggregation.getQueryString());
+            val counted = onEach(shards, shard -> shard.aggregator(query, aggregation));
+            for (int i = 1; i < counted.size(); i++) { counted.get(0).merge(counted.get(i)); }
+            return counted.get(0).toAggregation();
+        } catch (ParseException e) {
+            throw new IllegalArgumentException("Not a query we can parse.", e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Every shard suggests its own most used words and the uses of each are added up.  Notes are spread evenly, so a
+     * word common overall is common in every shard and the top words of each are the top words of all.
+     */
+    @Override
+    public List<Suggestion> suggest(@NonNull String prefix, int count) {
+        try {
+            val weights = new HashMap<String, Long>();
+            for (val suggestions : onEach(shards, shard -> shard.suggest(prefix, count))) {
+                for (val suggestion : suggestions) { weights.merge(suggestion.getText(), suggestion.getWeight(), Long::sum); }
+            }
+            return weights.entrySet()
+                    .stream()
+                    .sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                    .limit(count)
+                    .map(entry -> new Suggestion(entry.getKey(), entry.getValue()))
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Optional<Note> update(@NonNull Note note, Long expectedVersion) {
+        if (note.getId() == null) { throw new IllegalArgumentException("Can only update a note with an id."); }
+        return shardFor(note.getId()).update(note, expectedVersion);
+    }
+
+    /**
+     * A new note is given its id here to pick its shard, and so its created time too, since to the shard it is not new
+     */
+    @Override
+    public Note save(@NonNull Note note) {
+        val noteToSave = withNewId(note);
+        return shardFor(noteToSave.getId()).save(noteToSave);
+    }
+
+    /**
+     * Hands out the ids up front and then saves each shard's part of the batch in parallel
+     */
+    @Override
+    public Iterable<Note> save(@NonNull Iterable<? extends Note> entities) {
+        val notesToSave = StreamSupport.stream(entities.spliterator(), false)
+                .map(this::withNewId)
+                .collect(Collectors.toList());
+        try {
+            val grouped = byShard(notesToSave);
+            val saved = onEach(grouped.keySet(), shard -> shard.save(grouped.get(shard)));
+            if (saved.contains(null)) { return null; }
+            return saved.stream()
+                    .flatMap(notes -> StreamSupport.stream(notes.spliterator(), false))
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Note findOne(Long aLong) {
+        return aLong == null ? null : shardFor(aLong).findOne(aLong);
+    }
+
+    @Override
+    public boolean exists(Long aLong) {
+        return aLong != null && shardFor(aLong).exists(aLong);
+    }
+
+    @Override
+    public Iterable<Note> findAll() {
+        return shards.stream()
+                .flatMap(shard -> StreamSupport.stream(shard.findAll().spliterator(), false))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public long count() {
+        return shards.stream()
+                .mapToLong(LuceneNoteRepository::count)
+                .sum();
+    }
+
+    @Override
+    public void delete(Long aLong) {
+        if (aLong != null) { shardFor(aLong).delete(aLong); }
+    }
+
+    @Override
+    public void delete(@NonNull Note entity) {
+        delete(entity.getId());
+    }
+
+    @Override
+    public void delete(@NonNull Iterable<? extends Note> entities) {
+        try {
+            val grouped = byShard(entities);
+            onEach(grouped.keySet(), shard -> {
+                shard.delete(grouped.get(shard));
+                return null;
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void deleteAll() {
+        try {
+            onEach(shards, shard -> {
+                shard.deleteAll();
+                return null;
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Every shard merges at once, so the result takes as long as the slowest shard
+     */
+    @Override
+    public MaintenanceResult forceMerge(int maxSegments) throws IOException {
+        if (maxSegments < 1) { throw new IllegalArgumentException("Need at least one segment."); }
+        return onEach(shards, shard -> shard.forceMerge(maxSegments))
+                .stream()
+                .reduce(MaintenanceResult::plus)
+                .orElseThrow(IllegalStateException::new);
+    }
+
+    @Override
+    public MaintenanceResult expungeDeletes() throws IOException {
+        return onEach(shards, LuceneNoteRepository::expungeDeletes)
+                .stream()
+                .reduce(MaintenanceResult::plus)
+                .orElseThrow(IllegalStateException::new);
+    }
+
+    /**
+     * Every shard backs up at once into its own shard-i directory.  Each shard's backup is as of a moment of its own,
+     * which is as consistent as the shards ever are with each other.
+     */
+    @Override
+    public BackupResult backup(@NonNull Path destination) throws IOException {
+        return onEach(shards, shard -> shard.backup(destination.resolve("shard-" + shards.indexOf(shard))))
+                .stream()
+                .reduce(BackupResult::plus)
+                .orElseThrow(IllegalStateException::new);
+    }
+}
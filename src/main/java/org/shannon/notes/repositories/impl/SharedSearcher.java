@@ -0,0 +1,215 @@
+package org.shannon.notes.repositories.impl;
+
+import io.micrometer.core.instrument.Timer;
+import lombok.val;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.Directory;
+import org.shannon.function.ExceptionalFunction;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The near real time searcher shared by every read against an IndexWriter, or against a directory a replica copies
+ * commits into.
+ *
+ * Opening a reader is expensive, so rather than opening one per query we keep one around, hand it out per request,
+ * and swap in a fresh one either on a schedule or when a writer asks for it.
+ */
+public class SharedSearcher implements Closeable {
+    private final SearcherManager manager;
+    private final ScheduledExecutorService refresher;
+    private final AtomicInteger acquired = new AtomicInteger();
+    private final AtomicLong refreshCount = new AtomicLong();
+    private final AtomicLong dirtySince = new AtomicLong();        // nanoTime of the oldest write not yet visible, 0 if none
+    private final List<Runnable> refreshListeners = new CopyOnWriteArrayList<>();
+    private final List<Runnable> beforeRefreshListeners = new CopyOnWriteArrayList<>();
+    private volatile long refreshStartedAt;
+    private volatile long modifiedAt = System.currentTimeMillis();
+
+    /**
+     * @param writer                    The writer whose changes should become visible
+     * @param factory                   How to build each new IndexSearcher
+     * @param refreshIntervalMillis     How often to refresh in the background.  Zero or less disables it.
+     * @param refreshes                 Where to record how long each refresh that opened a new reader took
+     * @throws IOException              If the first reader cannot be opened
+     */
+    public SharedSearcher(IndexWriter writer, SearcherFactory factory, long refreshIntervalMillis, Timer refreshes) throws IOException {
+        this(new SearcherManager(writer, factory), refreshIntervalMillis, refreshes);
+    }
+
+    /**
+     * A searcher over whatever was last committed to a directory nobody here writes to, such as a replica's
+     *
+     * @param directory                 Where the index lives
+     * @param factory                   How to build each new IndexSearcher
+     * @param refreshIntervalMillis     How often to look for a new commit in the background.  Zero or less disables it.
+     * @param refreshes                 Where to record how long each refresh that opened a new reader took
+     * @throws IOException              If the directory holds no index yet
+     */
+    public SharedSearcher(Directory directory, SearcherFactory factory, long refreshIntervalMillis, Timer refreshes) throws IOException {
+        this(new SearcherManager(directory, factory), refreshIntervalMillis, refreshes);
+    }
+
+    private SharedSearcher(SearcherManager manager, long refreshIntervalMillis, Timer refreshes) {
+        this.manager = manager;
+        manager.addListener(new ReferenceManager.RefreshListener() {
+            @Override
+            public void beforeRefresh() {
+                refreshStartedAt = System.nanoTime();
+                beforeRefreshListeners.forEach(Runnable::run);
+            }
+
+            @Override
+            public void afterRefresh(boolean didRefresh) {
+                if (didRefresh) {
+                    refreshes.record(System.nanoTime() - refreshStartedAt, TimeUnit.NANOSECONDS);
+                    refreshCount.incrementAndGet();
+                    modifiedAt = System.currentTimeMillis();
+                    refreshListeners.forEach(Runnable::run);
+                }
+                val started = refreshStartedAt;
+                dirtySince.getAndUpdate(since -> since != 0 && since <= started ? 0 : since);
+            }
+        });
+
+        if (refreshIntervalMillis > 0) {
+            refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                val thread = new Thread(runnable, "note-searcher-refresh");
+                thread.setDaemon(true);
+                return thread;
+            });
+            refresher.scheduleWithFixedDelay(this::refreshQuietly, refreshIntervalMillis, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            refresher = null;
+        }
+    }
+
+    /**
+     * Acquire the current searcher, hand it to action and release it again no matter how action went.
+     *
+     * Anything lazily reading from the searcher must be materialized inside action.
+     *
+     * @param action        What to do with the searcher
+     * @param <T>           What action produces
+     * @return              Whatever action returned
+     * @throws IOException  Whatever action threw
+     */
+    public <T> T withSearcher(ExceptionalFunction<IOException, IndexSearcher, T> action) throws IOException {
+        val searcher = manager.acquire();
+        acquired.incrementAndGet();
+        try {
+            return action.apply(searcher);
+        } finally {
+            acquired.decrementAndGet();
+            manager.release(searcher);
+        }
+    }
+
+    /**
+     * Run something every time a new reader is swapped in
+     *
+     * @param listener      What to run
+     */
+    public void onRefresh(Runnable listener) {
+        refreshListeners.add(listener);
+    }
+
+    /**
+     * Run something just before every refresh starts, whether or not it ends up swapping in a new reader.  Any write
+     * the writer finished before then is visible to the reader swapped in next.
+     *
+     * @param listener      What to run
+     */
+    public void onBeforeRefresh(Runnable listener) {
+        beforeRefreshListeners.add(listener);
+    }
+
+    /**
+     * Record that a write happened which the current searcher may not see yet.
+     */
+    public void markDirty() {
+        dirtySince.compareAndSet(0, System.nanoTime());
+    }
+
+    /**
+     * Block until every write that happened before this call is visible to newly acquired searchers.
+     *
+     * @throws IOException  If the new reader cannot be opened
+     */
+    public void refresh() throws IOException {
+        manager.maybeRefreshBlocking();
+    }
+
+    private void refreshQuietly() {
+        try {
+            manager.maybeRefresh();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return  How long (in milliseconds) the oldest write not yet visible to searchers has been waiting, 0 if none
+     */
+    public long getRefreshLagMillis() {
+        val since = dirtySince.get();
+        return since == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - since);
+    }
+
+    /**
+     * @return  How many searchers are currently acquired by requests
+     */
+    public int getAcquiredCount() {
+        return acquired.get();
+    }
+
+    /**
+     * @return  How many times a new reader has been swapped in
+     */
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    /**
+     * @return              The version of the index the current searcher sees, which goes up with every change that
+     *                      becomes visible, restarts included
+     * @throws IOException  If the searcher cannot be acquired
+     */
+    public long getVersion() throws IOException {
+        return withSearcher(searcher -> ((DirectoryReader) searcher.getIndexReader()).getVersion());
+    }
+
+    /**
+     * @return  When (in milliseconds since the epoch) the current searcher was swapped in, or this was opened
+     */
+    public long getModifiedMillis() {
+        return modifiedAt;
+    }
+
+    /**
+     * @return  How many segment readers make up the current searcher
+     * @throws IOException  If the searcher cannot be acquired
+     */
+    public int getSegmentCount() throws IOException {
+        return withSearcher(searcher -> searcher.getIndexReader().leaves().size());
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (refresher != null) { refresher.shutdownNow(); }
+        manager.close();
+    }
+}
@@ -0,0 +1,139 @@
+package org.shannon.notes.repositories.impl;
+
+import lombok.NonNull;
+import lombok.val;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.fst.Builder;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.PositiveIntOutputs;
+import org.apache.lucene.util.fst.Util;
+import org.shannon.notes.repositories.Suggestion;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Completes the start of a word with the words of a field, most used first, out of an FST held in memory.
+ *
+ * Every word is in the FST with how many notes use it, stored as a cost that is lower the more it is used, so the
+ * best completions of a prefix are the cheapest paths on from where the prefix ends.  A lookup walks the prefix one
+ * byte at a time and then a bounded number of arcs, however many words and notes there are; a wildcard query has to
+ * enumerate the term dictionary of every segment and score what it finds instead.
+ *
+ * The FST is built from a reader and swapped in whole, so lookups never wait and see the words as of the last build.
+ */
+final class TermSuggester {
+    /**
+     * Words in this few notes are checked against deletes one note at a time, so the words of a deleted note drop
+     * out at the next build rather than when a merge gets to it.  More common words go by their doc freq, which still
+     * counts deleted notes until then.
+     */
+    private static final int LIVE_CHECK_MAX_DOCS = 16;
+
+    private final String field;
+    private volatile FST<Long> fst;             // null until built, or if the field has no words
+
+    /**
+     * @param field     The field whose words to suggest
+     */
+    TermSuggester(@NonNull String field) {
+        this.field = field;
+    }
+
+    /**
+     * Replace what is suggested with the words of the field as the reader sees them
+     *
+     * @param reader        What to read the words from
+     * @throws IOException  If the terms cannot be read
+     */
+    void build(@NonNull IndexReader reader) throws IOException {
+        val terms = MultiFields.getTerms(reader, field);
+        if (terms == null) {
+            fst = null;
+            return;
+        }
+        val liveDocs = MultiFields.getLiveDocs(reader);
+        val builder = new Builder<Long>(FST.INPUT_TYPE.BYTE1, PositiveIntOutputs.getSingleton());
+        val scratch = new IntsRefBuilder();
+        val termsEnum = terms.iterator();
+        PostingsEnum postings = null;
+        for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next()) {
+            long weight = termsEnum.docFreq();
+            if (liveDocs != null && weight <= LIVE_CHECK_MAX_DOCS) {
+                postings = termsEnum.postings(postings, PostingsEnum.NONE);
+                weight = countLive(postings, liveDocs);
+                if (weight == 0) { continue; }
+            }
+            builder.add(Util.toIntsRef(term, scratch), encode(weight));
+        }
+        fst = builder.finish();
+    }
+
+    private static long countLive(PostingsEnum postings, Bits liveDocs) throws IOException {
+        long live = 0;
+        for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+            if (liveDocs.get(doc)) { live++; }
+        }
+        return live;
+    }
+
+    /**
+     * The most used words starting with a prefix, the prefix itself included if it is a word
+     *
+     * @param prefix        The start of the word, already lower cased the way the field's analyzer does
+     * @param count         The most words to return
+     * @return              The words, most used first
+     * @throws IOException  Never, the FST is on the heap
+     */
+    List<Suggestion> lookup(@NonNull String prefix, int count) throws IOException {
+        val suggestions = fst;
+        if (suggestions == null || count < 1) { return Collections.emptyList(); }
+        val bytes = new BytesRef(prefix);
+        val reader = suggestions.getBytesReader();
+        val arc = suggestions.getFirstArc(new FST.Arc<>());
+        Long prefixOutput = suggestions.outputs.getNoOutput();
+        for (int i = bytes.offset; i < bytes.offset + bytes.length; i++) {
+            if (suggestions.findTargetArc(bytes.bytes[i] & 0xFF, arc, arc, reader) == null) { return Collections.emptyList(); }
+            prefixOutput = suggestions.outputs.add(prefixOutput, arc.output);
+        }
+        val completions = Util.shortestPaths(suggestions, arc, prefixOutput, Comparator.naturalOrder(), count, true);
+        val found = new ArrayList<Suggestion>(completions.topN.size());
+        val word = new BytesRefBuilder();
+        val suffix = new BytesRefBuilder();
+        for (val completion : completions) {
+            word.copyBytes(bytes);
+            word.append(Util.toBytesRef(completion.input, suffix));
+            found.add(new Suggestion(word.get().utf8ToString(), decode(completion.output)));
+        }
+        return found;
+    }
+
+    /**
+     * @return  Roughly how many bytes the FST takes up
+     */
+    long ramBytesUsed() {
+        val suggestions = fst;
+        return suggestions == null ? 0 : suggestions.ramBytesUsed();
+    }
+
+    /**
+     * The FST finds the cheapest paths, so the more a word is used the cheaper it is
+     */
+    private static long encode(long weight) {
+        return Integer.MAX_VALUE - Math.min(weight, Integer.MAX_VALUE);
+    }
+
+    private static long decode(long cost) {
+        return Integer.MAX_VALUE - cost;
+    }
+}
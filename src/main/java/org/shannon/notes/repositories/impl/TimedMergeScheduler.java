@@ -0,0 +1,30 @@
+package org.shannon.notes.repositories.impl;
+
+import io.micrometer.core.instrument.Timer;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MergePolicy;
+
+import java.io.IOException;
+
+/**
+ * The usual concurrent merge scheduler, timing every merge it runs
+ */
+public class TimedMergeScheduler extends ConcurrentMergeScheduler {
+    private final Timer merges;
+
+    /**
+     * @param merges    Where to record how long each merge took
+     */
+    public TimedMergeScheduler(Timer merges) {
+        this.merges = merges;
+    }
+
+    @Override
+    protected void doMerge(IndexWriter writer, MergePolicy.OneMerge merge) throws IOException {
+        IndexMetrics.<IOException, Void>record(merges, () -> {
+            super.doMerge(writer, merge);
+            return null;
+        });
+    }
+}
@@ -0,0 +1,366 @@
+package org.shannon.notes.repositories.impl;
+
+import io.micrometer.core.instrument.Timer;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.val;
+import org.apache.lucene.util.IOUtils;
+import org.shannon.function.ExceptionalConsumer;
+import org.shannon.notes.entities.Note;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * An append only log of every write, so a write can be acknowledged once it is appended and synced rather than once
+ * the whole index is committed.
+ *
+ * Positions are logical and keep counting up across files.  Each file is named after the position it starts at, a
+ * commit records the position it covers up to, and once a commit is made the files before it can go.  A record is a
+ * length, a CRC32 of the payload and the payload, so a record torn by a crash is spotted and replay stops there.
+ *
+ * Appends go through one reused direct buffer and a FileChannel.  Syncs are shared: whoever syncs first syncs every
+ * record appended so far, and everyone waiting on one of those just returns.
+ */
+public class WriteAheadLog implements Closeable {
+    /**
+     * The commit user data key holding the position a commit covers up to
+     */
+    public static final String COMMITTED = "notes.walPosition";
+    private static final String PREFIX = "wal-";
+    private static final String SUFFIX = ".log";
+    private static final int HEADER_BYTES = Integer.BYTES * 2;
+    private static final int FIXED_PAYLOAD_BYTES = 1 + Long.BYTES * 3 + Integer.BYTES * 2;
+    private static final long NO_CREATED = Long.MIN_VALUE;
+
+    /**
+     * What a record does to the index
+     */
+    public enum Op {
+        SAVE, DELETE, DELETE_ALL
+    }
+
+    /**
+     * One write as logged
+     */
+    @Value
+    public static class Record {
+        Op op;
+        long id;
+
+        /**
+         * The note as saved, null unless saving
+         */
+        Note note;
+    }
+
+    private final Path directory;
+    private final Timer syncs;
+    private final Object syncLock = new Object();   // taken before this, never after
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+    private FileChannel channel;                    // null until started
+    private long position;
+    private volatile long synced;
+
+    /**
+     * @param directory     Where the log files go, created if need be
+     * @param syncs         Where to record how long each sync took
+     * @throws IOException  If the directory cannot be created
+     */
+    public WriteAheadLog(@NonNull Path directory, @NonNull Timer syncs) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.syncs = syncs;
+    }
+
+    /**
+     * Apply every intact record at or after a position, oldest first
+     *
+     * @param from          Where the last commit left off
+     * @param apply         What to do with each record
+     * @return              The position just past the last intact record
+     * @throws IOException  If reading the log or applying a record fails
+     */
+    public long replay(long from, ExceptionalConsumer<IOException, Record> apply) throws IOException {
+        val files = files();
+        long end = from;
+        for (int i = 0; i < files.size(); i++) {
+            val file = files.get(i);
+            val start = startOf(file);
+            if (i + 1 < files.size() && startOf(files.get(i + 1)) <= from) { continue; }    // committed already
+            if (start > end) { break; }             // a gap means an earlier file was torn
+            long at = start;
+            val size = Files.size(file);
+            try (val in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                byte[] payload;
+                while ((payload = readPayload(in, size - (at - start))) != null) {
+                    at += HEADER_BYTES + payload.length;
+                    if (at > from) { apply.accept(decode(payload)); }
+                }
+            }
+            end = Math.max(end, at);
+            if (at - start < size) { break; }       // torn, so nothing after it can be trusted
+        }
+        return end;
+    }
+
+    /**
+     * @param remaining     How many bytes of the file are left, header included, so a garbage length is spotted as
+     *                      torn before anything is allocated for it
+     * @return              The next record's payload, or null at the end of the file or at a torn record
+     */
+    private static byte[] readPayload(DataInputStream in, long remaining) throws IOException {
+        try {
+            val length = in.readInt();
+            val checksum = in.readInt();
+            if (length < FIXED_PAYLOAD_BYTES || length > remaining - HEADER_BYTES) { return null; }
+            val payload = new byte[length];
+            in.readFully(payload);
+            val crc = new CRC32();
+            crc.update(payload);
+            return (int) crc.getValue() == checksum ? payload : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static Record decode(byte[] payload) {
+        val in = ByteBuffer.wrap(payload);
+        val op = Op.values()[in.get()];
+        val id = in.getLong();
+        val version = in.getLong();
+        val created = in.getLong();
+        val body = readString(in);
+        val tagCount = in.getInt();
+        if (op != Op.SAVE) { return new Record(op, id, null); }
+        List<String> tags = null;
+        if (tagCount >= 0) {
+            tags = new ArrayList<>(tagCount);
+            for (int i = 0; i < tagCount; i++) { tags.add(readString(in)); }
+        }
+        return new Record(op, id, new Note(id, body, version, created == NO_CREATED ? null : created, tags));
+    }
+
+    private static String readString(ByteBuffer in) {
+        val length = in.getInt();
+        if (length < 0) { return null; }
+        val string = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return string;
+    }
+
+    /**
+     * Start appending at a position, dropping every file already there.  Only call this once everything before the
+     * position is committed.
+     *
+     * @param at            The position the next record goes at
+     * @throws IOException  If the files cannot be dropped or the new one created
+     */
+    public void start(long at) throws IOException {
+        synchronized (syncLock) {
+            synchronized (this) {
+                if (channel != null) { throw new IllegalStateException("The log is already started."); }
+                for (val file : files()) { Files.deleteIfExists(file); }
+                position = at;
+                synced = at;
+                channel = open(at);
+            }
+        }
+    }
+
+    private FileChannel open(long at) throws IOException {
+        val file = directory.resolve(String.format("%s%020d%s", PREFIX, at, SUFFIX));
+        val opened = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        IOUtils.fsync(directory, true);             // so the new file itself survives a crash
+        return opened;
+    }
+
+    /**
+     * Append a record.  It is not durable until synced.
+     *
+     * @param op            What the record does
+     * @param id            The id of the note written, ignored for DELETE_ALL
+     * @param saved         The note as saved, null unless saving
+     * @return              The position just past the record, to sync up to
+     * @throws IOException  If appending fails
+     */
+    public synchronized long append(@NonNull Op op, long id, Note saved) throws IOException {
+        if (channel == null) { throw new IllegalStateException("The log is not started."); }
+        val body = saved == null || saved.getBody() == null ? null : saved.getBody().getBytes(StandardCharsets.UTF_8);
+        val tags = saved == null || saved.getTags() == null ? null : new ArrayList<byte[]>(saved.getTags().size());
+        int payloadBytes = FIXED_PAYLOAD_BYTES + (body == null ? 0 : body.length);
+        if (tags != null) {
+            for (val tag : saved.getTags()) {
+                val bytes = tag.getBytes(StandardCharsets.UTF_8);
+                tags.add(bytes);
+                payloadBytes += Integer.BYTES + bytes.length;
+            }
+        }
+        if (buffer.capacity() < HEADER_BYTES + payloadBytes) {
+            buffer = ByteBuffer.allocateDirect(Integer.highestOneBit(HEADER_BYTES + payloadBytes) << 1);
+        }
+        buffer.clear();
+        buffer.position(HEADER_BYTES);
+        buffer.put((byte) op.ordinal())
+                .putLong(id)
+                .putLong(saved == null || saved.getVersion() == null ? 0 : saved.getVersion())
+                .putLong(saved == null || saved.getCreated() == null ? NO_CREATED : saved.getCreated());
+        putBytes(body);
+        buffer.putInt(tags == null ? -1 : tags.size());
+        if (tags != null) {
+            for (val tag : tags) { putBytes(tag); }
+        }
+        buffer.flip();
+        buffer.position(HEADER_BYTES);
+        crc.reset();
+        crc.update(buffer);
+        buffer.rewind();
+        buffer.putInt(payloadBytes)
+                .putInt((int) crc.getValue())
+                .rewind();
+        while (buffer.hasRemaining()) { channel.write(buffer); }
+        position += HEADER_BYTES + payloadBytes;
+        return position;
+    }
+
+    private void putBytes(byte[] bytes) {
+        buffer.putInt(bytes == null ? -1 : bytes.length);
+        if (bytes != null) { buffer.put(bytes); }
+    }
+
+    /**
+     * Block until everything up to a position is on disk
+     *
+     * @param upTo          A position append handed back
+     * @throws IOException  If syncing fails
+     */
+    public void sync(long upTo) throws IOException {
+        if (synced >= upTo) { return; }
+        synchronized (syncLock) {
+            if (synced >= upTo) { return; }
+            final FileChannel current;
+            final long end;
+            synchronized (this) {
+                current = channel;
+                end = position;
+            }
+            IndexMetrics.<IOException, Void>record(syncs, () -> {
+                current.force(false);
+                return null;
+            });
+            synced = end;
+        }
+    }
+
+    /**
+     * Carry on in a new file so the ones so far can be dropped once a commit covers them.  Everything appended so far
+     * is synced first.
+     *
+     * @return              The position the new file starts at
+     * @throws IOException  If syncing or creating the new file fails
+     */
+    public long roll() throws IOException {
+        synchronized (syncLock) {
+            synchronized (this) {
+                if (channel == null) { throw new IllegalStateException("The log is not started."); }
+                channel.force(false);
+                channel.close();
+                synced = position;
+                channel = open(position);
+                return position;
+            }
+        }
+    }
+
+    /**
+     * Drop the files that hold nothing at or after a position
+     *
+     * @param committed     The position a commit covers up to
+     * @throws IOException  If a file cannot be dropped
+     */
+    public void dropBefore(long committed) throws IOException {
+        val files = files();
+        for (int i = 0; i + 1 < files.size(); i++) {
+            if (startOf(files.get(i + 1)) <= committed) { Files.deleteIfExists(files.get(i)); }
+        }
+    }
+
+    /**
+     * @return  The position just past the last record appended
+     */
+    public synchronized long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return  How many bytes of log are kept, committed or not
+     */
+    public long getSizeInBytes() {
+        long size = 0;
+        try {
+            for (val file : files()) { size += Files.size(file); }
+        } catch (IOException e) {                   // a file was dropped as we looked, close enough
+        }
+        return size;
+    }
+
+    private List<Path> files() throws IOException {
+        try (Stream<Path> listed = Files.list(directory)) {
+            val files = listed
+                    .filter(file -> file.getFileName().toString().startsWith(PREFIX) && file.getFileName().toString().endsWith(SUFFIX))
+                    .collect(Collectors.toCollection(ArrayList::new));
+            files.sort((a, b) -> Long.compare(startOf(a), startOf(b)));
+            return files;
+        }
+    }
+
+    private static long startOf(Path file) {
+        val name = file.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * Read the position a commit covers up to back out of its user data
+     *
+     * @param commitData    The user data of the last commit
+     * @return              The position, or zero if the commit predates the log
+     */
+    static long committedOf(Iterable<Map.Entry<String, String>> commitData) {
+        if (commitData == null) { return 0; }
+        for (val entry : commitData) {
+            if (COMMITTED.equals(entry.getKey())) { return Long.parseLong(entry.getValue()); }
+        }
+        return 0;
+    }
+
+    /**
+     * Sync and close the current file
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (syncLock) {
+            synchronized (this) {
+                if (channel == null) { return; }
+                channel.force(false);
+                channel.close();
+                channel = null;
+                synced = position;
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.shannon.notes.controllers.test;
+
+import lombok.val;
+import org.jmock.Expectations;
+import org.jmock.integration.junit4.JUnitRuleMockery;
+import org.junit.Rule;
+import org.junit.Test;
+import org.shannon.notes.controllers.IndexAdminController;
+import org.shannon.notes.repositories.BackupResult;
+import org.shannon.notes.repositories.IndexMaintenance;
+import org.shannon.notes.repositories.MaintenanceResult;
+import org.springframework.http.HttpStatus;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertEquals;
+
+public class IndexAdminControllerTest {
+    @Rule
+    public final JUnitRuleMockery mockery = new JUnitRuleMockery();
+    private final IndexMaintenance maintenance = mockery.mock(IndexMaintenance.class);
+    private final Path backups = Paths.get("backups");
+    private final IndexAdminController controller = new IndexAdminController(maintenance, backups);
+
+    @Test
+    public void givenSegments_whenForceMerge_thenWhatChanged() throws IOException {
+        // Given: an index that merges down
+        val result = new MaintenanceResult(12, 1, 300, 0, 42);
+        mockery.checking(new Expectations() {{
+            oneOf(maintenance).forceMerge(1);
+                will(returnValue(result));
+        }});
+
+        // When: force merge
+        val response = controller.forceMerge(1);
+
+        // Then: what changed comes back
+        assertEquals("Should be ok", HttpStatus.OK, response.getStatusCode());
+        assertEquals("Should be the result", result, response.getBody());
+    }
+
+    @Test
+    public void givenNoSegments_whenForceMerge_thenBadRequest() {
+        // When: force merge to nothing
+        val response = controller.forceMerge(0);
+
+        // Then: bad request without touching the index
+        assertEquals("Should be Bad Request", HttpStatus.BAD_REQUEST, response.getStatusCode());
+    }
+
+    @Test
+    public void givenBustedIndex_whenExpungeDeletes_thenInternalError() throws IOException {
+        // Given: an index that cannot merge
+        mockery.checking(new Expectations() {{
+            oneOf(maintenance).expungeDeletes();
+                will(throwException(new IOException("disk full")));
+        }});
+
+        // When: expunge deletes
+        val response = controller.expungeDeletes();
+
+        // Then: internal error
+        assertEquals("Should be Internal Error", HttpStatus.INTERNAL_SERVER_ERROR, response.getStatusCode());
+    }
+
+    @Test
+    public void givenBackupDirectory_whenBackup_thenWhatWasCopied() throws IOException {
+        // Given: an index backed up into the configured directory
+        val result = new BackupResult(3, 0, 9, 4096, 7);
+        mockery.checking(new Expectations() {{
+            oneOf(maintenance).backup(backups);
+                will(returnValue(result));
+        }});
+
+        // When: back up
+        val response = controller.backup();
+
+        // Then: what was copied comes back
+        assertEquals("Should be ok", HttpStatus.OK, response.getStatusCode());
+        assertEquals("Should be the result", result, response.getBody());
+    }
+
+    @Test
+    public void givenNoBackupDirectory_whenBackup_thenBadRequest() {
+        // When: back up with nowhere to back up to
+        val response = new IndexAdminController(maintenance, null).backup();
+
+        // Then: bad request without touching the index
+        assertEquals("Should be Bad Request", HttpStatus.BAD_REQUEST, response.getStatusCode());
+    }
+}
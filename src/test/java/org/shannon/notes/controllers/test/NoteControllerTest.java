@@ -1,27 +1,61 @@
 package org.shannon.notes.controllers.test;
 
 import lombok.val;
-import org.assertj.core.util.Lists;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.jmock.Expectations;
 import org.jmock.integration.junit4.JUnitRuleMockery;
 import static org.junit.Assert.*;
+import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.shannon.notes.controllers.BulkResult;
 import org.shannon.notes.controllers.NoteController;
+import org.shannon.notes.controllers.NoteProtobuf;
 import org.shannon.notes.entities.Note;
+import org.shannon.notes.repositories.Aggregation;
+import org.shannon.notes.repositories.AggregationQuery;
+import org.shannon.notes.repositories.IndexVersion;
+import org.shannon.notes.repositories.NoteFilter;
+import org.shannon.notes.repositories.NoteHit;
+import org.shannon.notes.repositories.NotePage;
+import org.shannon.notes.repositories.NoteQuery;
 import org.shannon.notes.repositories.NoteRepository;
+import org.shannon.notes.repositories.NoteSort;
+import org.shannon.notes.repositories.Projection;
+import org.shannon.notes.repositories.Suggestion;
+import org.shannon.notes.repositories.VersionConflictException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
-
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Stream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 public class NoteControllerTest {
     @Rule
     public final JUnitRuleMockery mockery = new JUnitRuleMockery();
     private final NoteRepository repository = mockery.mock(NoteRepository.class);
     private final NoteController controller = new NoteController(repository);
+    private final IndexVersion indexVersion = new IndexVersion(42, 1546300800000L);
+
+    @Before
+    public void setUp() {
+        mockery.checking(new Expectations() {{
+            allowing(repository).searchedVersion();
+                will(returnValue(indexVersion));
+        }});
+    }
 
     @Test
     public void givenId_whenPost_thenBadRequest() {
@@ -29,7 +63,7 @@ public class NoteControllerTest {
         val note = new Note(1L, "Those who are free of resentful thoughts surely find peace.");
 
         // When: post
-        val response = controller.post(note);
+        val response = controller.post(note, null).join();
 
         // Then: the response is a bad request
         assertEquals("Should be Bad Request", HttpStatus.BAD_REQUEST, response.getStatusCode());
@@ -40,12 +74,12 @@ public class NoteControllerTest {
         // Given: note and a busted repository
         val note = new Note(null, "A man is not called wise because he talks and talks again; but is he peaceful, loving and fearless then he is in truth called wise.");
         mockery.checking(new Expectations() {{
-            oneOf(repository).save(note);
-                will(returnValue(null));
+            oneOf(repository).saveAsync(note);
+                will(returnValue(CompletableFuture.completedFuture(null)));
         }});
 
         // When: post
-        val response = controller.post(note);
+        val response = controller.post(note, null).join();
 
         // Then: the response is Internal Error
         assertEquals("Should be Internal Error", HttpStatus.INTERNAL_SERVER_ERROR, response.getStatusCode());
@@ -57,12 +91,12 @@ public class NoteControllerTest {
         val givenNote = new Note(null, "Even as a solid rock is unshaken by the wind, so are the wise unshaken by praise or blame.");
         val savedNote = givenNote.withId(1L);
         mockery.checking(new Expectations() {{
-            oneOf(repository).save(givenNote);
-                will(returnValue(savedNote));
+            oneOf(repository).saveAsync(givenNote);
+                will(returnValue(CompletableFuture.completedFuture(savedNote)));
         }});
 
         // When: post
-        val response = controller.post(givenNote);
+        val response = controller.post(givenNote, null).join();
 
         // Then: we get the saved note
         assertEquals("Should be ok", HttpStatus.OK, response.getStatusCode());
@@ -75,7 +109,7 @@ public class NoteControllerTest {
         val givenNote = new Note(null, "To conquer oneself is a greater task than conquering others.");
 
         // When: put
-        val response = controller.put(null, givenNote);
+        val response = controller.put(null, givenNote, null, null).join();
 
         // Then: response is bad request
         assertEquals("Must have id", HttpStatus.BAD_REQUEST, response.getStatusCode());
@@ -88,19 +122,74 @@ public class NoteControllerTest {
         val id = 1L;
         val givenNote = new Note(id, "The only real failure in life is not to be true to the best one knows.");
         mockery.checking(new Expectations() {{
-            allowing(repository).findByID(id);
-                will(returnValue(Optional.of(givenNote)));
-            oneOf(repository).delete(givenNote);
-            oneOf(repository).save(givenNote);
-                will(returnValue(givenNote));
+            oneOf(repository).updateAsync(givenNote, null);
+                will(returnValue(CompletableFuture.completedFuture(Optional.of(givenNote.withVersion(7L)))));
         }});
 
         // When: put
-        val response = controller.put(id, givenNote);
+        val response = controller.put(id, givenNote, null, null).join();
 
-        // Then: response is the given
+        // Then: response is the given with its new version as the ETag
         assertEquals("Should be ok", HttpStatus.OK, response.getStatusCode());
         assertEquals("Should be what's given", givenNote, response.getBody());
+        assertEquals("Should carry the version", "\"7\"", response.getHeaders().getETag());
+    }
+
+    @Test
+    public void givenUnknownID_whenPut_thenBadRequest() {
+        // Given: an id never handed out
+        val id = 42L;
+        val givenNote = new Note(id, "Do not dwell in the past, do not dream of the future.");
+        mockery.checking(new Expectations() {{
+            oneOf(repository).updateAsync(givenNote, null);
+                will(returnValue(CompletableFuture.completedFuture(Optional.empty())));
+        }});
+
+        // When: put
+        val response = controller.put(id, givenNote, null, null).join();
+
+        // Then: response is bad request
+        assertEquals("Cannot supply your own id", HttpStatus.BAD_REQUEST, response.getStatusCode());
+    }
+
+    @Test
+    public void givenStaleETag_whenPut_thenPreconditionFailed() {
+        // Given: someone else saved the note since we read version 3
+        val id = 1L;
+        val givenNote = new Note(id, "Concentrate the mind on the present moment.");
+        mockery.checking(new Expectations() {{
+            oneOf(repository).updateAsync(givenNote, 3L);
+                will(returnValue(failed(new VersionConflictException(id, 3L, 4L))));
+        }});
+
+        // When: put if it is still version 3
+        val response = controller.put(id, givenNote, "\"3\"", null).join();
+
+        // Then: the put is refused
+        assertEquals("Should be Precondition Failed", HttpStatus.PRECONDITION_FAILED, response.getStatusCode());
+    }
+
+    @Test
+    public void givenFullIngestQueue_whenPost_thenServiceUnavailable() {
+        // Given: a repository with no room left to queue writes
+        val note = new Note(null, "Patience is key.");
+        mockery.checking(new Expectations() {{
+            oneOf(repository).saveAsync(note);
+                will(returnValue(failed(new RejectedExecutionException("queue full"))));
+        }});
+
+        // When: post
+        val response = controller.post(note, null).join();
+
+        // Then: the client is told to come back later
+        assertEquals("Should be Service Unavailable", HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode());
+        assertNotNull("Should say when to retry", response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable error) {
+        val future = new CompletableFuture<T>();
+        future.completeExceptionally(error);
+        return future;
     }
 
     @SuppressWarnings("ConstantConditions")
@@ -110,7 +199,7 @@ public class NoteControllerTest {
         Long id = null;
 
         // When: delete
-        val response = controller.delete(id);
+        val response = controller.delete(id).join();
 
         // Then: response is bad request
         assertEquals("bad request", HttpStatus.BAD_REQUEST, response.getStatusCode());
@@ -121,11 +210,12 @@ public class NoteControllerTest {
         // Given: some id
         val id = 1L;
         mockery.checking(new Expectations() {{
-            oneOf(repository).delete(id);
+            oneOf(repository).deleteAsync(id);
+                will(returnValue(CompletableFuture.completedFuture(null)));
         }});
 
         // When: delete
-        val response = controller.delete(id);
+        val response = controller.delete(id).join();
 
         // Then: we get no content
         assertEquals("Should be no content", HttpStatus.NO_CONTENT, response.getStatusCode());
@@ -138,7 +228,7 @@ public class NoteControllerTest {
         Long id = null;
 
         // When: delete
-        val response = controller.get(id);
+        val response = controller.get(id, null, null);
 
         // Then: response is bad request
         assertEquals("bad request", HttpStatus.BAD_REQUEST, response.getStatusCode());
@@ -155,13 +245,85 @@ public class NoteControllerTest {
         }});
 
         // When: delete
-        val response = controller.get(id);
+        val response = controller.get(id, null, null);
 
         // Then: we get no content
         assertEquals("Should be ok", HttpStatus.OK, response.getStatusCode());
         assertEquals("Should get what I request", note, response.getBody());
     }
 
+    @Test
+    public void givenCurrentCopy_whenGet_thenNotModifiedWithoutLoading() {
+        // Given: a client holding the current version of a note
+        val id = 1L;
+        mockery.checking(new Expectations() {{
+            oneOf(repository).findVersionByID(id);
+                will(returnValue(Optional.of(1546300800000L)));
+            never(repository).findByID(id);
+        }});
+
+        // When: it asks again
+        val response = controller.get(id, null, "\"1546300700000\", \"1546300800000\"");
+
+        // Then: nothing has changed
+        assertEquals("Should be Not Modified", HttpStatus.NOT_MODIFIED, response.getStatusCode());
+        assertEquals("Should carry the ETag", "\"1546300800000\"", response.getHeaders().getETag());
+        assertEquals("Should carry when it was updated", 1546300800000L, response.getHeaders().getLastModified());
+        assertNull("Should have no body", response.getBody());
+    }
+
+    @Test
+    public void givenJsonCopy_whenGetAsProtobuf_thenTaggedApart() {
+        // Given: a client holding the JSON of the current version of a note
+        val id = 1L;
+        val note = new Note(id, "Three things cannot be long hidden.").withVersion(1546300800000L);
+        mockery.checking(new Expectations() {{
+            oneOf(repository).findVersionByID(id);
+                will(returnValue(Optional.of(1546300800000L)));
+            oneOf(repository).findByID(id);
+                will(returnValue(Optional.of(note)));
+            oneOf(repository).updateAsync(note, 1546300800000L);
+                will(returnValue(CompletableFuture.completedFuture(Optional.of(note))));
+        }});
+
+        // When: it asks for the protocol buffer with the JSON's ETag
+        val response = controller.get(id, NoteProtobuf.MEDIA_TYPE, "\"1546300800000\"");
+
+        // Then: the protocol buffer is sent under an ETag of its own, varying by Accept, which still works as If-Match
+        assertEquals("Should be ok", HttpStatus.OK, response.getStatusCode());
+        assertEquals("Should be protobuf", MediaType.valueOf(NoteProtobuf.MEDIA_TYPE), response.getHeaders().getContentType());
+        assertEquals("Should tag the protobuf apart", "\"1546300800000-protobuf\"", response.getHeaders().getETag());
+        assertEquals("Should vary by Accept", Collections.singletonList(HttpHeaders.ACCEPT), response.getHeaders().getVary());
+        assertEquals("Should match as If-Match", HttpStatus.OK
+                , controller.put(id, note, response.getHeaders().getETag(), NoteProtobuf.MEDIA_TYPE).join().getStatusCode());
+    }
+
+    @Test
+    public void givenUnchangedIndex_whenListPolled_thenNotModifiedWithoutSearching() {
+        // Given: a page of notes already fetched once
+        val notes = findableNotes();
+        mockery.checking(new Expectations() {{
+            oneOf(repository).page(NoteQuery.builder().size(2).build());
+                will(returnValue(new NotePage(notes.subList(0, 2), "next")));
+            oneOf(repository).page(NoteQuery.builder().size(2).projection(Projection.IDS).build());
+                will(returnValue(new NotePage(Collections.emptyList(), null, Collections.singletonList(new NoteHit(1, null, null)))));
+        }});
+        val first = controller.get(null, 2, null, false, "notes", 100, "relevance", "asc", null, null, null, null, null, null, null, null, null);
+        val eTag = first.getHeaders().getETag();
+
+        // When: it is polled with its ETag before any write becomes visible
+        val polled = controller.get(null, 2, null, false, "notes", 100, "relevance", "asc", null, null, null, null, null, null, null, null, eTag);
+
+        // Then: nothing is searched and nothing is sent
+        assertNotNull("Should have an ETag", eTag);
+        assertEquals("Should say when the index last changed", indexVersion.getModifiedMillis(), first.getHeaders().getLastModified());
+        assertEquals("Should be Not Modified", HttpStatus.NOT_MODIFIED, polled.getStatusCode());
+        assertEquals("Should carry the same ETag", eTag, polled.getHeaders().getETag());
+        assertEquals("Should vary by Accept", Collections.singletonList(HttpHeaders.ACCEPT), polled.getHeaders().getVary());
+        assertNotEquals("Should tag another query differently", eTag, controller.get(null, 2, null, false, "ids", 100
+                , "relevance", "asc", null, null, null, null, null, null, null, null, eTag).getHeaders().getETag());
+    }
+
     private List<Note> findableNotes() {
         return Arrays.asList(
                 new Note(1L, "Every morning we are born again. What we do today is what matters most.")
@@ -172,18 +334,25 @@ public class NoteControllerTest {
 
     @Test
     public void getAll() {
-        // Given: some notes findable
+        // Given: some notes findable over two pages
         val notes = findableNotes();
+        val firstPage = NoteQuery.builder().size(2).build();
         mockery.checking(new Expectations() {{
-            oneOf(repository).findAll();
-                will(returnValue(notes));
+            oneOf(repository).page(firstPage);
+                will(returnValue(new NotePage(notes.subList(0, 2), "next")));
+            oneOf(repository).page(firstPage.withCursor("next"));
+                will(returnValue(new NotePage(notes.subList(2, 3), null)));
         }});
 
-        // When: get(null)
-        val result = controller.get((String)null);
+        // When: get both pages
+        val first = controller.get(null, 2, null, false, "notes", 100, "relevance", "asc", null, null, null, null, null, null, null, null, null);
+        val second = controller.get(null, 2, first.getHeaders().getFirst("X-Next-Cursor"), false, "notes", 100
+                , "relevance", "asc", null, null, null, null, null, null, null, null, null);
 
-        // Then: we get all the notes
-        assertEquals("Should get what is returned", notes, result);
+        // Then: we get all the notes and no cursor past the last page
+        assertEquals("Should get the first page", notes.subList(0, 2), first.getBody());
+        assertEquals("Should get the second page", notes.subList(2, 3), second.getBody());
+        assertFalse("Should not point past the last page", second.getHeaders().containsKey("X-Next-Cursor"));
     }
 
     @Test
@@ -192,15 +361,229 @@ public class NoteControllerTest {
         val notes = findableNotes();
         val queryString = "morning AND born";
         mockery.checking(new Expectations() {{
-            oneOf(repository).search(queryString, Integer.MAX_VALUE);
-                will(returnValue(Stream.of(notes.get(0))));
+            oneOf(repository).page(NoteQuery.builder().queryString(queryString).build());
+                will(returnValue(new NotePage(notes.subList(0, 1), null)));
         }});
 
         // When: get(queryString)
-        val result = Lists.newArrayList(controller.get(queryString));
+        val result = controller.get(queryString, 100, null, false, "notes", 100, "relevance", "asc", null, null, null, null, null, null, null, null, null);
 
         // Then: we get the matching note
-        assertEquals("Should only have the one note", 1, result.size());
-        assertEquals("The only note should be the expected note", notes.get(0), result.get(0));
+        assertEquals("Should only have the one note", notes.subList(0, 1), result.getBody());
+    }
+
+    @Test
+    public void givenSnippets_whenSearch_thenHitsInsteadOfNotes() {
+        // Given: a search asking for snippets
+        val queryString = "jug";
+        val hits = Arrays.asList(new NoteHit(3L, 1.5f, "A <b>jug</b> fills drop by drop."));
+        mockery.checking(new Expectations() {{
+            oneOf(repository).page(NoteQuery.builder().queryString(queryString).projection(Projection.SNIPPETS).fragmentSize(40).build());
+                will(returnValue(new NotePage(Collections.emptyList(), null, hits)));
+        }});
+
+        // When: get(queryString) with fields=snippets
+        val result = controller.get(queryString, 100, null, false, "Snippets", 40, "relevance", "asc", null, null, null, null, null, null, null, null, null);
+
+        // Then: we get the hits
+        assertEquals("Should be ok", HttpStatus.OK, result.getStatusCode());
+        assertEquals("Should only have the hits", hits, result.getBody());
+    }
+
+    @Test
+    public void givenSortAndFilter_whenGet_thenPassedOn() {
+        // Given: notes tagged milk, newest first, updated since 1000
+        val notes = findableNotes();
+        mockery.checking(new Expectations() {{
+            oneOf(repository).page(NoteQuery.builder()
+                    .sort(NoteSort.UPDATED)
+                    .descending(true)
+                    .filter(NoteFilter.builder().tags(Arrays.asList("milk")).updatedFrom(1000L).build())
+                    .build());
+                will(returnValue(new NotePage(notes.subList(1, 3), null)));
+        }});
+
+        // When: get sorted and filtered
+        val result = controller.get(null, 100, null, false, "notes", 100
+                , "Updated", "DESC", Arrays.asList("milk"), null, null, null, null, 1000L, null, null, null);
+
+        // Then: we get what the repository found
+        assertEquals("Should be ok", HttpStatus.OK, result.getStatusCode());
+        assertEquals("Should be the filtered notes", notes.subList(1, 3), result.getBody());
+    }
+
+    @Test
+    public void givenUnknownSort_whenGet_thenBadRequest() {
+        // When: sorting by something notes do not have
+        val response = controller.get(null, 100, null, false, "notes", 100, "title", "asc", null, null, null, null, null, null, null, null, null);
+
+        // Then: response is bad request
+        assertEquals("bad request", HttpStatus.BAD_REQUEST, response.getStatusCode());
+    }
+
+    @Test
+    public void givenHistogram_whenAggregate_thenCounts() {
+        // Given: notes counted by tag and by the week they were created
+        val counts = new Aggregation(3, Arrays.asList(new Aggregation.TagCount("milk", 2))
+                , Arrays.asList(new Aggregation.Bucket(0, 3)));
+        mockery.checking(new Expectations() {{
+            oneOf(repository).aggregate(AggregationQuery.builder()
+                    .queryString("pick")
+                    .tagCount(5)
+                    .histogram(AggregationQuery.DateField.CREATED)
+                    .interval(AggregationQuery.Interval.WEEK)
+                    .build());
+                will(returnValue(counts));
+        }});
+
+        // When: aggregate
+        val response = controller.aggregate("pick", 5, "created", "Week");
+
+        // Then: we get the counts
+        assertEquals("Should be ok", HttpStatus.OK, response.getStatusCode());
+        assertEquals("Should be the counts", counts, response.getBody());
+    }
+
+    @Test
+    public void givenWordsTyped_whenSuggest_thenLastWordCompleted() {
+        // Given: words starting with what was typed last
+        mockery.checking(new Expectations() {{
+            oneOf(repository).suggest("mi", 2);
+                will(returnValue(Arrays.asList(new Suggestion("milk", 3), new Suggestion("mild", 1))));
+        }});
+
+        // When: suggest
+        val response = controller.suggest("pick up mi", 2);
+
+        // Then: what was typed before is kept
+        assertEquals("Should be ok", HttpStatus.OK, response.getStatusCode());
+        assertEquals("Should complete the last word", Arrays.asList(new Suggestion("pick up milk", 3)
+                , new Suggestion("pick up mild", 1)), response.getBody());
+        assertEquals("Should be bad request without a word", HttpStatus.BAD_REQUEST, controller.suggest("pick up ", 2).getStatusCode());
+    }
+
+    @Test
+    public void givenUnknownInterval_whenAggregate_thenBadRequest() {
+        // When: asking for buckets we do not have
+        val response = controller.aggregate(null, 10, "updated", "fortnight");
+
+        // Then: response is bad request
+        assertEquals("bad request", HttpStatus.BAD_REQUEST, response.getStatusCode());
+    }
+
+    @Test
+    public void givenUnknownFields_whenGet_thenBadRequest() {
+        // When: asking for fields we do not have
+        val response = controller.get(null, 100, null, false, "bodies", 100, "relevance", "asc", null, null, null, null, null, null, null, null, null);
+
+        // Then: response is bad request
+        assertEquals("bad request", HttpStatus.BAD_REQUEST, response.getStatusCode());
+    }
+
+    @Test
+    public void givenTooBigASize_whenGet_thenBadRequest() {
+        // When: asking for a giant page
+        val response = controller.get(null, Integer.MAX_VALUE, null, false, "notes", 100, "relevance", "asc", null, null, null, null, null, null, null, null, null);
+
+        // Then: response is bad request
+        assertEquals("bad request", HttpStatus.BAD_REQUEST, response.getStatusCode());
+    }
+
+    @Test
+    public void streamAll() throws IOException {
+        // Given: some notes findable over two pages
+        val notes = findableNotes();
+        val firstPage = NoteQuery.builder().size(1000).build();
+        mockery.checking(new Expectations() {{
+            oneOf(repository).page(firstPage);
+                will(returnValue(new NotePage(notes.subList(0, 2), "next")));
+            oneOf(repository).page(firstPage.withCursor("next"));
+                will(returnValue(new NotePage(notes.subList(2, 3), null)));
+        }});
+
+        // When: stream them
+        val response = controller.get(null, 100, null, true, "notes", 100, "relevance", "asc", null, null, null, null, null, null, null, null, null);
+        val out = new ByteArrayOutputStream();
+        ((StreamingResponseBody) response.getBody()).writeTo(out);
+
+        // Then: every page is written as one array
+        val written = new ObjectMapper().readValue(out.toByteArray(), new TypeReference<List<Note>>() {});
+        assertEquals("Should get every note", notes, written);
+    }
+
+    @Test
+    public void givenProtobufAccepted_whenStream_thenLengthPrefixedNotes() throws IOException {
+        // Given: a few notes over two pages
+        val notes = findableNotes();
+        val firstPage = NoteQuery.builder().size(1000).build();
+        mockery.checking(new Expectations() {{
+            oneOf(repository).page(firstPage);
+                will(returnValue(new NotePage(notes.subList(0, 2), "next")));
+            oneOf(repository).page(firstPage.withCursor("next"));
+                will(returnValue(new NotePage(notes.subList(2, 3), null)));
+        }});
+
+        // When: stream them to a client preferring protocol buffers
+        val response = controller.get(null, 100, null, true, "notes", 100, "relevance", "asc", null, null, null, null, null, null, null
+                , "application/x-protobuf, application/json;q=0.5", null);
+        val out = new ByteArrayOutputStream();
+        ((StreamingResponseBody) response.getBody()).writeTo(out);
+
+        // Then: every note comes one message after another
+        assertEquals("Should be protobuf", MediaType.valueOf(NoteProtobuf.MEDIA_TYPE), response.getHeaders().getContentType());
+        val in = new ByteArrayInputStream(out.toByteArray());
+        val written = new ArrayList<Note>();
+        for (Note note = NoteProtobuf.readNote(in); note != null; note = NoteProtobuf.readNote(in)) { written.add(note); }
+        assertEquals("Should get every note", notes, written);
+    }
+
+    @Test
+    public void givenArrayAndNdjson_whenBulkPost_thenBothAreSaved() {
+        // Given: the same notes as a JSON array and as newline delimited JSON
+        val array = "[{\"body\": \"Nothing is permanent.\"}, {\"body\": \"A jug fills drop by drop.\"}]";
+        val ndjson = "{\"body\": \"Nothing is permanent.\"}\n{\"body\": \"A jug fills drop by drop.\"}\n";
+        val expected = Arrays.asList(new Note(null, "Nothing is permanent."), new Note(null, "A jug fills drop by drop."));
+        mockery.checking(new Expectations() {{
+            exactly(2).of(repository).save(expected);
+                will(returnValue(expected));
+        }});
+
+        // When: bulk post both
+        val arrayResponse = controller.bulkPost(new ByteArrayInputStream(array.getBytes(StandardCharsets.UTF_8)));
+        val ndjsonResponse = controller.bulkPost(new ByteArrayInputStream(ndjson.getBytes(StandardCharsets.UTF_8)));
+
+        // Then: both are saved as one batch
+        assertEquals("array should be ok", HttpStatus.OK, arrayResponse.getStatusCode());
+        assertEquals("array should count both", new BulkResult(2), arrayResponse.getBody());
+        assertEquals("ndjson should be ok", HttpStatus.OK, ndjsonResponse.getStatusCode());
+        assertEquals("ndjson should count both", new BulkResult(2), ndjsonResponse.getBody());
+    }
+
+    @Test
+    public void givenId_whenBulkPost_thenBadRequest() {
+        // Given: a note with an id
+        val ndjson = "{\"id\": 1, \"body\": \"Nothing is permanent.\"}";
+
+        // When: bulk post
+        val response = controller.bulkPost(new ByteArrayInputStream(ndjson.getBytes(StandardCharsets.UTF_8)));
+
+        // Then: the response is a bad request
+        assertEquals("Should be Bad Request", HttpStatus.BAD_REQUEST, response.getStatusCode());
+    }
+
+    @Test
+    public void givenIds_whenBulkDelete_thenTheyAreDeleted() {
+        // Given: some ids
+        val ids = "[1, 2, 3]";
+        mockery.checking(new Expectations() {{
+            oneOf(repository).delete(Arrays.asList(new Note(1L, null), new Note(2L, null), new Note(3L, null)));
+        }});
+
+        // When: bulk delete
+        val response = controller.bulkDelete(new ByteArrayInputStream(ids.getBytes(StandardCharsets.UTF_8)));
+
+        // Then: all three are handled
+        assertEquals("Should be ok", HttpStatus.OK, response.getStatusCode());
+        assertEquals("Should count all three", new BulkResult(3), response.getBody());
     }
 }
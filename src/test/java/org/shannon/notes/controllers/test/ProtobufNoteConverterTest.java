@@ -0,0 +1,90 @@
+package org.shannon.notes.controllers.test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.val;
+import org.junit.Test;
+import org.shannon.notes.controllers.NoteProtobuf;
+import org.shannon.notes.controllers.ProtobufNoteConverter;
+import org.shannon.notes.controllers.ReplicationStatus;
+import org.shannon.notes.entities.Note;
+import org.shannon.notes.repositories.NoteHit;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.MockHttpInputMessage;
+import org.springframework.mock.http.MockHttpOutputMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ProtobufNoteConverterTest {
+    private static final MediaType PROTOBUF = MediaType.valueOf(NoteProtobuf.MEDIA_TYPE);
+    private final ProtobufNoteConverter converter = new ProtobufNoteConverter();
+
+    @Test
+    public void givenNotes_whenWrittenAndRead_thenSameNotes() throws IOException {
+        // Given: notes with and without the optional fields
+        val notes = Arrays.asList(
+                new Note(1L, "Every morning we are born again. What we do today is what matters most.", 1546300800000L
+                        , 1546300000000L, Arrays.asList("buddha", "mornings")),
+                new Note(null, "無常"),
+                new Note(Long.MAX_VALUE, "", null, null, null));
+
+        // When: written out as a list and read back
+        val out = new MockHttpOutputMessage();
+        converter.write(new ArrayList<>(notes), PROTOBUF, out);
+        val type = new ParameterizedTypeReference<List<Note>>() {}.getType();
+        @SuppressWarnings("unchecked")
+        val read = (List<Note>) converter.read(type, null, new MockHttpInputMessage(out.getBodyAsBytes()));
+
+        // Then: every field survives, in less than the JSON takes
+        assertEquals("Should be the same notes", notes, read);
+        assertEquals("Should keep the version", notes.get(0).getVersion(), read.get(0).getVersion());
+        assertEquals("Should keep created", notes.get(0).getCreated(), read.get(0).getCreated());
+        assertTrue("Should be smaller than the JSON", out.getBodyAsBytes().length < new ObjectMapper().writeValueAsBytes(notes).length);
+    }
+
+    @Test
+    public void givenHits_whenWritten_thenReadBack() throws IOException {
+        // Given: hits with a score and a snippet
+        val hits = Arrays.asList(new NoteHit(3, 1.5f, "<b>drop</b> by drop"), new NoteHit(4, null, null));
+
+        // When: written out
+        val out = new MockHttpOutputMessage();
+        converter.write(hits, PROTOBUF, out);
+
+        // Then: each comes back in turn
+        val in = new ByteArrayInputStream(out.getBodyAsBytes());
+        assertEquals("Should be the first hit", hits.get(0), NoteProtobuf.readHit(in));
+        assertEquals("Should be the second hit", hits.get(1), NoteProtobuf.readHit(in));
+        assertNull("Should be no more", NoteProtobuf.readHit(in));
+    }
+
+    @Test
+    public void givenOtherTypes_whenAsked_thenLeftToJson() {
+        // Given: a list of something other than notes
+        val statuses = new ParameterizedTypeReference<List<ReplicationStatus>>() {}.getType();
+
+        // Then: only notes, hits and lists that could be them are written
+        assertFalse("Should not write statuses", converter.canWrite(statuses, List.class, PROTOBUF));
+        assertFalse("Should not write strings", converter.canWrite(String.class, String.class, PROTOBUF));
+        assertTrue("Should write a note", converter.canWrite(Note.class, Note.class, PROTOBUF));
+        assertTrue("Should write an erased list", converter.canWrite(Object.class, ArrayList.class, PROTOBUF));
+        assertFalse("Should not write JSON", converter.canWrite(Note.class, Note.class, MediaType.APPLICATION_JSON));
+    }
+
+    @Test(expected = IOException.class)
+    public void givenTruncatedBody_whenRead_thenFails() throws IOException {
+        // Given: a note cut off half way
+        val out = new MockHttpOutputMessage();
+        converter.write(new Note(1L, "The root of suffering is attachment."), PROTOBUF, out);
+        val truncated = Arrays.copyOf(out.getBodyAsBytes(), out.getBodyAsBytes().length - 5);
+
+        // When: read
+        converter.read(Note.class, null, new MockHttpInputMessage(truncated));
+    }
+}
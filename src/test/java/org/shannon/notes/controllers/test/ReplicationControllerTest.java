@@ -0,0 +1,87 @@
+package org.shannon.notes.controllers.test;
+
+import lombok.Cleanup;
+import lombok.val;
+import org.apache.lucene.store.MMapDirectory;
+import org.junit.Test;
+import org.shannon.notes.controllers.ReplicationController;
+import org.shannon.notes.controllers.ReplicationStatus;
+import org.shannon.notes.controllers.WritesToPrimary;
+import org.shannon.notes.entities.Note;
+import org.shannon.notes.repositories.impl.IndexReplicationSource;
+import org.shannon.notes.repositories.impl.LuceneNoteRepository;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class ReplicationControllerTest {
+    @Test
+    public void givenPrimary_whenReplicaCopies_thenLatestCommitAndItsFiles() throws IOException {
+        // Given: a primary with a note
+        @Cleanup
+        val repository = new LuceneNoteRepository(new MMapDirectory(Files.createTempDirectory("primary")));
+        repository.save(new Note(null, "An idea that is developed and put into action is more important than an idea that exists only as an idea."));
+        @Cleanup
+        val source = new IndexReplicationSource(repository, 0);
+        val controller = new ReplicationController(Collections.singletonList(source), Collections.emptyList());
+
+        // When: a replica asks for the latest commit and its segments file
+        val latest = controller.latest(0);
+        val commit = source.latest();
+        val response = new MockHttpServletResponse();
+        controller.file(0, commit.getGeneration(), commit.getSegmentsFile(), response);
+
+        // Then: it gets the commit and the whole file
+        assertEquals("Should be ok", HttpStatus.OK, latest.getStatusCode());
+        assertEquals("Should be the commit", commit, latest.getBody());
+        assertEquals("Should be the whole file", commit.getFiles().get(commit.getSegmentsFile()).getLength()
+                , response.getContentAsByteArray().length);
+        assertEquals("Should be a primary", Collections.singletonList(
+                new ReplicationStatus(ReplicationStatus.Role.PRIMARY, 0, commit.getGeneration(), 0)), controller.status());
+    }
+
+    @Test
+    public void givenNoSuchShardOrCommit_whenCopied_thenNotFound() throws IOException {
+        // Given: a primary with one shard
+        @Cleanup
+        val repository = new LuceneNoteRepository(new MMapDirectory(Files.createTempDirectory("primary")));
+        @Cleanup
+        val source = new IndexReplicationSource(repository, 0);
+        val controller = new ReplicationController(Collections.singletonList(source), Collections.emptyList());
+
+        // When: a replica asks for another shard, or a commit never handed out
+        val noShard = controller.latest(1);
+        val response = new MockHttpServletResponse();
+        controller.file(0, 42, "segments_16", response);
+
+        // Then: not found
+        assertEquals("Should be Not Found", HttpStatus.NOT_FOUND, noShard.getStatusCode());
+        assertEquals("Should be Not Found", HttpStatus.NOT_FOUND.value(), response.getStatus());
+    }
+
+    @Test
+    public void givenReplica_whenWritten_thenRedirectedToPrimary() {
+        // Given: a replica of some primary
+        val writesToPrimary = new WritesToPrimary(URI.create("http://primary:8080"));
+
+        // When: a note is read and one is written
+        val read = new MockHttpServletRequest("GET", "/api/notes/1");
+        val write = new MockHttpServletRequest("PUT", "/api/notes/1");
+        write.setQueryString("version=3");
+        val response = new MockHttpServletResponse();
+
+        // Then: the read is served here and the write goes to the primary, keeping its method
+        assertTrue("Should serve reads", writesToPrimary.preHandle(read, new MockHttpServletResponse(), null));
+        assertFalse("Should not serve writes", writesToPrimary.preHandle(write, response, null));
+        assertEquals("Should be Temporary Redirect", HttpStatus.TEMPORARY_REDIRECT.value(), response.getStatus());
+        assertEquals("Should be the primary", "http://primary:8080/api/notes/1?version=3", response.getHeader(HttpHeaders.LOCATION));
+    }
+}
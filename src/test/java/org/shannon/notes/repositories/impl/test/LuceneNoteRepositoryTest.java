@@ -1,139 +1,876 @@
 package org.shannon.notes.repositories.impl.test;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import lombok.Cleanup;
 import lombok.val;
-import org.apache.lucene.store.Directory;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.*;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.SegmentInfos;
+import org.assertj.core.util.Lists;
 import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NRTCachingDirectory;
 
 import static org.junit.Assert.*;
 
-import org.junit.After;
-import org.junit.Before;
 import org.junit.Test;
 import org.shannon.notes.entities.Note;
+import org.shannon.notes.repositories.Aggregation;
+import org.shannon.notes.repositories.AggregationQuery;
+import org.shannon.notes.repositories.NoteFilter;
+import org.shannon.notes.repositories.NoteHit;
+import org.shannon.notes.repositories.NoteQuery;
+import org.shannon.notes.repositories.NoteSort;
+import org.shannon.notes.repositories.Projection;
+import org.shannon.notes.repositories.Suggestion;
+import org.shannon.notes.repositories.VersionConflictException;
+import org.shannon.notes.repositories.impl.CommitPoint;
+import org.shannon.notes.repositories.impl.DurabilityMode;
+import org.shannon.notes.repositories.impl.GroupCommitter;
+import org.shannon.notes.repositories.impl.IdAllocator;
+import org.shannon.notes.repositories.impl.IndexBackup;
+import org.shannon.notes.repositories.impl.IndexReplicationSource;
+import org.shannon.notes.repositories.impl.IndexTuningProfile;
+import org.shannon.notes.repositories.impl.InstrumentedNoteRepository;
 import org.shannon.notes.repositories.impl.LuceneNoteRepository;
+import org.shannon.notes.repositories.impl.PreloadingDirectory;
+import org.shannon.notes.repositories.impl.ReplicaSync;
+import org.shannon.notes.repositories.impl.ReplicationSource;
+import org.shannon.notes.repositories.impl.RepositorySettings;
+import org.shannon.notes.repositories.impl.WriteAheadLog;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 import java.util.stream.StreamSupport;
 
-public class LuceneNoteRepositoryTest {
+public class LuceneNoteRepositoryTest extends NoteRepositoryContractTest<LuceneNoteRepository> {
 
-    private LuceneNoteRepository repository;
+    @Override
+    protected LuceneNoteRepository open(Path path) throws IOException {
+        return new LuceneNoteRepository(new MMapDirectory(path));
+    }
+
+    @Test
+    public void hitsComeBackInRankOrder() {
+        // Given: the best match written last, in its own segment after the others
+        val weak = repository.save(new Note(null, "milk"));
+        val weaker = repository.save(new Note(null, "milk and bread and eggs and butter and jam"));
+        val best = repository.save(new Note(null, "milk milk milk"));
+
+        // When: search
+        val found = repository.search("milk", 10).collect(Collectors.toList());
+
+        // Then: the notes come back whole and best match first, not in the order their docs were read
+        assertEquals("Should be in rank order", Arrays.asList(best, weak, weaker), found);
+        assertEquals("Should carry the version", best.getVersion(), found.get(0).getVersion());
+    }
+
+    @Test
+    public void searchCanReturnLessThanWholeNotes() {
+        // Given: a long note and a short one that both match
+        val filler = String.join(" ", Collections.nCopies(200, "nothing to see here."));
+        val longNote = repository.save(new Note(null, filler + " The milk is in the fridge. " + filler));
+        val shortNote = repository.save(new Note(null, "milk"));
+        val query = NoteQuery.builder().queryString("milk");
+
+        // When: search for ids, scores and snippets
+        val ids = repository.page(query.projection(Projection.IDS).build());
+        val scores = repository.page(query.projection(Projection.SCORES).build());
+        val snippets = repository.page(query.projection(Projection.SNIPPETS).fragmentSize(60).build());
+
+        // Then: the hits come back best first with no notes, carrying only what was asked for
+        assertTrue("Should have no notes", ids.getNotes().isEmpty());
+        assertEquals("Should be ids best first", Arrays.asList(shortNote.getId(), longNote.getId())
+                , ids.getHits().stream().map(NoteHit::getId).collect(Collectors.toList()));
+        assertNull("Should have no score", ids.getHits().get(0).getScore());
+        assertNull("Should have no snippet", ids.getHits().get(0).getSnippet());
+        assertTrue("Should score the short note higher", scores.getHits().get(0).getScore() > scores.getHits().get(1).getScore());
+        val snippet = snippets.getHits().get(1).getSnippet();
+        assertTrue("Should highlight the match: " + snippet, snippet.contains("<b>milk</b>"));
+        assertTrue("Should be about the fragment size: " + snippet, snippet.length() < 200);
+    }
+
+    @Test
+    public void refreshMakesWritesVisible() throws IOException {
+        // Given: a repository that does not wait for its writes to be visible
+        @Cleanup
+        val lazyRepository = new LuceneNoteRepository(
+                new MMapDirectory(Files.createTempDirectory("lazy-index")),
+                RepositorySettings.builder().refreshAfterWrite(false).refreshIntervalMillis(0).build());
+        val note = lazyRepository.save(new Note(null, "Hatred does not cease by hatred, but only by love."));
+        assertFalse("note is not visible before a refresh", lazyRepository.findByID(note.getId()).isPresent());
+
+        // When: the shared searcher is refreshed
+        lazyRepository.getSearchers().refresh();
+
+        // Then: the note is visible and nothing is lagging
+        assertTrue("note is visible after a refresh", lazyRepository.findByID(note.getId()).isPresent());
+        assertEquals("nothing should be lagging", 0, lazyRepository.getSearchers().getRefreshLagMillis());
+        assertEquals("nothing should still be acquired", 0, lazyRepository.getSearchers().getAcquiredCount());
+    }
+
+    @Test
+    public void groupCommitRequestsNeverOutliveClose() throws Exception {
+        // Given: writers asking for commits as fast as they can
+        @Cleanup
+        val writer = new IndexWriter(new MMapDirectory(Files.createTempDirectory("group-index")), new IndexWriterConfig(new StandardAnalyzer()));
+        val committer = new GroupCommitter(writer, 16, 0, new SimpleMeterRegistry().timer("commit"));
+        val requested = new ConcurrentLinkedQueue<CompletableFuture<Void>>();
+        val stop = new AtomicBoolean();
+        val asking = IntStream.range(0, 4)
+                .mapToObj(i -> CompletableFuture.runAsync(() -> {
+                    while (!stop.get()) { requested.add(committer.requestCommit()); }
+                }))
+                .collect(Collectors.toList());
+        while (requested.size() < 100) { Thread.yield(); }
+
+        // When: the committer is closed under them
+        committer.close();
+        stop.set(true);
+        CompletableFuture.allOf(asking.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+
+        // Then: every request is done one way or the other, none is left waiting forever
+        CompletableFuture.allOf(requested.toArray(new CompletableFuture[0])).handle((done, error) -> null).get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void groupCommitIsDurable() throws IOException {
+        // Given: a group committing repository
+        val tempDir = Files.createTempDirectory("group-index");
+        val settings = RepositorySettings.builder().durabilityMode(DurabilityMode.GROUP_COMMIT).build();
+        val groupRepository = new LuceneNoteRepository(new MMapDirectory(tempDir), settings);
+
+        // When: notes are saved concurrently
+        val indexCount = 200;
+        IntStream.range(0, indexCount)
+                .parallel()
+                .forEach(i -> assertNotNull("every save is acknowledged", groupRepository.save(new Note(null, Integer.toString(i)))));
+        val commits = groupRepository.getCommitter()
+                .map(GroupCommitter::getCommitCount)
+                .orElseThrow(AssertionError::new);
+        groupRepository.close();
+
+        // Then: every acknowledged note survives a reopen without needing more commits than saves
+        assertTrue("never more commits than saves", commits <= indexCount);
+        @Cleanup
+        val reopened = new LuceneNoteRepository(new MMapDirectory(tempDir));
+        val countFound = StreamSupport.stream(reopened.findAll().spliterator(), false)
+                .count();
+        assertEquals("every acknowledged note is durable", indexCount, countFound);
+    }
+
+    @Test
+    public void updatesSeeEarlierWritesWithoutRefreshing() throws IOException {
+        // Given: a repository that leaves every refresh to a caller, and a note it cannot search for yet
+        @Cleanup
+        val unrefreshed = new LuceneNoteRepository(new MMapDirectory(Files.createTempDirectory("test-index"))
+                , RepositorySettings.builder().refreshAfterWrite(false).refreshIntervalMillis(0).build());
+        val note = unrefreshed.save(new Note(null, "What we think, we become."));
+        val refreshes = unrefreshed.getSearchers().getRefreshCount();
+
+        // When: it is updated against its version twice over
+        val first = unrefreshed.update(new Note(note.getId(), "What we say, we become."), note.getVersion()).get();
+        val second = unrefreshed.update(new Note(note.getId(), "What we do, we become."), first.getVersion()).get();
+
+        // Then: each write saw the one before, versions only went up, and a stale version conflicts
+        assertTrue("version should move on", second.getVersion() > first.getVersion() && first.getVersion() > note.getVersion());
+        assertEquals("created should be kept", note.getCreated(), second.getCreated());
+        try {
+            unrefreshed.update(new Note(note.getId(), "Stale."), note.getVersion());
+            fail("a stale version should conflict");
+        } catch (VersionConflictException e) {
+            // expected
+        }
+
+        // When: it is deleted
+        unrefreshed.delete(note.getId());
+
+        // Then: it stays deleted, and nothing was reopened to check any of it
+        assertFalse("a deleted note should stay deleted", unrefreshed.update(new Note(note.getId(), "Gone."), null).isPresent());
+        assertEquals("nothing should have been refreshed", refreshes, unrefreshed.getSearchers().getRefreshCount());
+    }
+
+    @Test
+    public void legacyNotesCanBeUpdated() throws IOException {
+        // Given: an index written before notes had versions
+        val tempDir = Files.createTempDirectory("legacy-index");
+        try (val legacyWriter = new IndexWriter(new MMapDirectory(tempDir), new IndexWriterConfig(new StandardAnalyzer()))) {
+            val doc = new Document();
+            doc.add(new StoredField("id", 1L));
+            doc.add(new NumericDocValuesField("id", 1L));
+            doc.add(new LongPoint("id", 1L));
+            doc.add(new TextField("body", "All that we are is the result of what we have thought.", Field.Store.YES));
+            legacyWriter.addDocument(doc);
+        }
+
+        // When: the index is opened and the old note updated
+        @Cleanup
+        val upgradedRepository = new LuceneNoteRepository(new MMapDirectory(tempDir));
+        val updated = upgradedRepository.update(new Note(1L, "The mind is everything."), null);
+
+        // Then: the old note was replaced rather than duplicated
+        assertTrue("update should succeed", updated.isPresent());
+        assertEquals("still one note", 1, upgradedRepository.count());
+        assertEquals("the new body is found", updated.get(), upgradedRepository.findByID(1L).orElse(null));
+    }
+
+    @Test
+    public void legacyIndexesAreUpgradedInBatches() throws IOException {
+        // Given: more legacy notes than fit in a batch, over a few segments, one of them deleted
+        val tempDir = Files.createTempDirectory("legacy-index");
+        try (val legacyWriter = new IndexWriter(new MMapDirectory(tempDir), new IndexWriterConfig(new StandardAnalyzer()))) {
+            for (long id = 1; id <= 2500; id++) {
+                val doc = new Document();
+                doc.add(new StoredField("id", id));
+                doc.add(new NumericDocValuesField("id", id));
+                doc.add(new LongPoint("id", id));
+                doc.add(new TextField("body", "legacy " + id, Field.Store.YES));
+                legacyWriter.addDocument(doc);
+                if (id % 1000 == 0) { legacyWriter.commit(); }
+            }
+            legacyWriter.deleteDocuments(LongPoint.newExactQuery("id", 7L));
+        }
+
+        // When: the index is opened
+        @Cleanup
+        val upgradedRepository = new LuceneNoteRepository(new MMapDirectory(tempDir));
+
+        // Then: every live note has a version, none is duplicated and the deleted one stays deleted
+        assertEquals("every live note once", 2499, upgradedRepository.count());
+        assertTrue("every note has a version", LongStream.rangeClosed(1, 2500)
+                .filter(id -> id != 7)
+                .allMatch(id -> upgradedRepository.findVersionByID(id).isPresent()));
+        assertFalse("the deleted note stays deleted", upgradedRepository.findByID(7L).isPresent());
+        assertEquals("the body is kept", "legacy 2500", upgradedRepository.findByID(2500L).get().getBody());
+    }
+
+    @Test
+    public void idLookupsAreCachedButNeverStale() {
+        // Given: a note looked up twice
+        val note = repository.save(new Note(null, "Peace comes from within. Do not seek it without."));
+        repository.findByID(note.getId());
+        repository.findByID(note.getId());
+        assertTrue("the second lookup should hit the cache", repository.getIdLookup().getCacheStats().hitCount() > 0);
+
+        // When: the note is replaced and another merged in after it
+        val updated = repository.update(new Note(note.getId(), "Work out your own salvation."), null);
+        indexSomeNotes(10, repository);
+
+        // Then: the lookup finds the new note rather than the cached old one
+        assertEquals("the updated note is found", updated.orElse(null), repository.findByID(note.getId()).orElse(null));
+
+        // When: the note is deleted
+        repository.delete(note.getId());
+
+        // Then: it is gone
+        assertFalse("the deleted note is not found", repository.findByID(note.getId()).isPresent());
+    }
+
+    @Test
+    public void idLookupsInAMergedAwaySegmentAreMisses() throws IOException {
+        // Given: a note looked up, then more notes written into segments of their own
+        val note = repository.save(new Note(null, "Hatred does not cease by hatred, but only by love."));
+        repository.findByID(note.getId());
+        indexSomeNotes(10, repository);
+
+        // When: the segments are merged into one
+        assertTrue("there was more than one segment", repository.forceMerge(1).getSegmentsBefore() > 1);
+        val hits = repository.getIdLookup().getCacheStats().hitCount();
+
+        // Then: the remembered location is passed over and the note found in the merged segment, then remembered there
+        assertEquals("the note is found after the merge", note, repository.findByID(note.getId()).orElse(null));
+        assertEquals("the old location is not a hit", hits, repository.getIdLookup().getCacheStats().hitCount());
+        repository.findByID(note.getId());
+        assertEquals("the new location is", hits + 1, repository.getIdLookup().getCacheStats().hitCount());
+    }
+
+    @Test
+    public void searchesAreCachedUntilTheNextWrite() {
+        // Given: a note searched for twice, spaced differently
+        val note = repository.save(new Note(null, "An insincere and evil friend is more to be feared than a wild beast."));
+        repository.search("friend beast", 10).count();
+        val cached = repository.search("  friend   beast ", 10).collect(Collectors.toList());
+        assertEquals("the second search should hit the cache", 1, repository.getSearchCache().getResultStats().hitCount());
+        assertEquals("the second search should reuse the parsed query", 1, repository.getSearchCache().getParsedQueryStats().hitCount());
+        assertEquals("the cached result is the note", Collections.singletonList(note), cached);
+
+        // When: another matching note is written
+        val another = repository.save(new Note(null, "A wild beast may wound your body, but an evil friend will wound your mind."));
+
+        // Then: the search sees it
+        val found = repository.search("friend beast", 10).collect(Collectors.toList());
+        assertEquals("both notes are found", 2, found.size());
+        assertTrue("the new note is found", found.contains(another));
+    }
+
+    @Test
+    public void searchesAndPagesAreCachedApart() {
+        // Given: more apples than fit on a page, searched for with the same query string and size a page uses
+        repository.save(IntStream.range(0, 15)
+                .mapToObj(i -> new Note(null, "apple " + i))
+                .collect(Collectors.toList()));
+        repository.search("apple", 10).count();
+
+        // When: the first page is asked for
+        val page = repository.page(NoteQuery.builder().queryString("apple").size(10).build());
+
+        // Then: it still leads on to the next page
+        assertEquals("a whole page", 10, page.getNotes().size());
+        assertNotNull("the search's result should not stand in for the page", page.getNextCursor());
+    }
+
+    @Test
+    public void onlyFirstPagesAreCached() {
+        // Given: more apples than fit on a page, and the first page of them
+        repository.save(IntStream.range(0, 15)
+                .mapToObj(i -> new Note(null, "apple " + i))
+                .collect(Collectors.toList()));
+        val query = NoteQuery.builder().queryString("apple").size(10).build();
+        val first = repository.page(query);
+
+        // When: the next page is asked for twice
+        repository.page(query.withCursor(first.getNextCursor()));
+        repository.page(query.withCursor(first.getNextCursor()));
+
+        // Then: only the first page was remembered
+        assertEquals("the next page should not be cached", 1, repository.getSearchCache().getResultStats().missCount());
+        assertEquals("nor found in the cache", 0, repository.getSearchCache().getResultStats().hitCount());
+    }
+
+    @Test
+    public void concurrentSearchFindsEverySegment() throws IOException {
+        // Given: a repository searching slices of a couple of docs in parallel over many small segments
+        @Cleanup
+        val concurrentRepository = new LuceneNoteRepository(
+                new MMapDirectory(Files.createTempDirectory("concurrent-index")),
+                RepositorySettings.builder().searchThreads(2).minSliceDocs(2).build());
+        val matching = IntStream.range(0, 20)
+                .mapToObj(i -> concurrentRepository.save(new Note(null, "Three things cannot be long hidden " + i)))
+                .collect(Collectors.toSet());
+        concurrentRepository.save(new Note(null, "Peace comes from within."));
+        assertTrue("there should be several segments", concurrentRepository.getSearchers().getSegmentCount() > 2);
 
-    @Before
-    public void setUp() throws IOException {
-        Directory directory = new MMapDirectory(Files.createTempDirectory("test-index"));
-        repository = new LuceneNoteRepository(directory);
+        // When: searching and paging
+        val found = concurrentRepository.search("hidden", 100).collect(Collectors.toSet());
+        val page = concurrentRepository.page(NoteQuery.builder().size(5).build());
+
+        // Then: every segment was searched
+        assertEquals("every matching note is found", matching, found);
+        assertEquals("a full page comes back", 5, page.getNotes().size());
     }
 
-    @After
-    public void tearDown() throws IOException {
-        repository.close();
+    /**
+     * What a crash would leave on disk: a copy of whatever the files hold right now, without the writer's lock
+     */
+    private static Path crashCopy(Path from) throws IOException {
+        val to = Files.createTempDirectory("crashed-" + from.getFileName());
+        try (val files = Files.walk(from)) {
+            for (val file : (Iterable<Path>) files::iterator) {
+                if (file.equals(from) || file.getFileName().toString().equals(IndexWriter.WRITE_LOCK_NAME)) { continue; }
+                Files.copy(file, to.resolve(from.relativize(file).toString()));
+            }
+        }
+        return to;
     }
 
     @Test
-    public void saveNoID() {
-        // Given: no ID and a string
-        val givenNote = new Note(null, "The tongue like a sharp knife… Kills without drawing blood.");
+    public void deletesAreDurable() throws IOException {
+        // Given: a note saved and then deleted
+        val tempDir = Files.createTempDirectory("delete-index");
+        @Cleanup
+        val openRepository = new LuceneNoteRepository(new MMapDirectory(tempDir));
+        val note = openRepository.save(new Note(null, "What you think, you become."));
+        openRepository.delete(note.getId());
 
-        // When: save
-        val savedNote = repository.save(givenNote);
+        // When: the process dies right after the delete
+        @Cleanup
+        val recovered = new LuceneNoteRepository(new MMapDirectory(crashCopy(tempDir)));
 
-        // Then: the saved Note has a generated id and is findable
-        assertNotNull("Should have generated ID", savedNote.getId());
-        val retrievedNote = repository.findByID(savedNote.getId());
-        assertTrue("Should be retrieved", retrievedNote.isPresent());
-        assertEquals("SavedNote should be retrieved", savedNote, retrievedNote.get());
-        assertEquals("SavedNote should have the same body as the Given Note", givenNote.getBody(), savedNote.getBody());
+        // Then: the note stays deleted
+        assertFalse("Should stay deleted", recovered.findByID(note.getId()).isPresent());
     }
 
     @Test
-    public void saveID() {
-        // Given: some already saved note
-        val givenNote = repository.save(new Note(null, "Pain is certain; suffering is optional."));
+    public void writeAheadLogIsReplayedAfterACrash() throws IOException {
+        // Given: logged writes that were never committed to the index, with a torn record at the end of the log
+        val tempDir = Files.createTempDirectory("wal-index");
+        val settings = RepositorySettings.builder()
+                .durabilityMode(DurabilityMode.WRITE_AHEAD_LOG)
+                .walDirectory(tempDir.resolve("wal"))
+                .checkpointIntervalMillis(0)
+                .build();
+        @Cleanup
+        val openRepository = new LuceneNoteRepository(new MMapDirectory(tempDir), settings);
+        val kept = openRepository.save(new Note(null, "Three things cannot be long hidden"));
+        val deleted = openRepository.save(new Note(null, "the sun, the moon"));
+        val updated = openRepository.update(new Note(kept.getId(), "Three things cannot be long hidden: the truth", null, null
+                , Arrays.asList("buddha")), null).get();
+        openRepository.delete(deleted.getId());
+        val crashed = crashCopy(tempDir);
+        try (val logs = Files.list(crashed.resolve("wal"))) {
+            val log = logs.findFirst().get();
+            Files.write(log, new byte[] { 0, 0, 0, 42, 1, 2 }, StandardOpenOption.APPEND);
+        }
 
-        // When: save
-        val savedNote = repository.save(givenNote);
+        // When: the process dies and comes back
+        @Cleanup
+        val recovered = new LuceneNoteRepository(new MMapDirectory(crashed), settings.toBuilder()
+                .walDirectory(crashed.resolve("wal"))
+                .build());
 
-        // Then:
-        //              * the saved note is the given note
-        //              * the saved note is findable
-        assertEquals("saved note should be given note", givenNote, savedNote);
-        val foundNote = repository.findByID(givenNote.getId());
-        assertTrue(foundNote.isPresent());
-        assertEquals("saved note is findable", savedNote, foundNote.get());
+        // Then: every acknowledged write is there and new ids carry on after the logged ones
+        assertEquals("Should have the update", Optional.of(updated), recovered.findByID(kept.getId()));
+        assertEquals("Should have the version", updated.getVersion(), recovered.findByID(kept.getId()).get().getVersion());
+        assertEquals("Should have when it was created", kept.getCreated(), recovered.findByID(kept.getId()).get().getCreated());
+        assertFalse("Should stay deleted", recovered.findByID(deleted.getId()).isPresent());
+        assertEquals("Should have one note", 1, recovered.count());
+        assertTrue("Should not reuse ids", recovered.save(new Note(null, "new")).getId() > deleted.getId());
     }
 
     @Test
-    public void search() {
-        // Given: an few indexed notes
-        val note1 = repository.save(new Note(null, "Three things cannot be long hidden: the sun, the moon and the truth."));
-        val note2 = repository.save(new Note(null, "The only real failure in life is not to be true to the best one knows."));
-        repository.save(new Note(null, "Purity or impurity depends on oneself. No one can purify another."));
+    public void writeAheadLogStopsAtAGarbageLength() throws IOException {
+        // Given: a log with a couple of records, then a header whose length is far more than is left in the file
+        val walDir = Files.createTempDirectory("wal");
+        long end;
+        try (val wal = new WriteAheadLog(walDir, new SimpleMeterRegistry().timer("sync"))) {
+            wal.start(0);
+            wal.append(WriteAheadLog.Op.SAVE, 1, new Note(1L, "Peace comes from within.", 1L, 1L, null));
+            end = wal.append(WriteAheadLog.Op.DELETE, 1, null);
+            wal.sync(end);
+        }
+        try (val logs = Files.list(walDir)) {
+            Files.write(logs.findFirst().get(), new byte[] { 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xf0, 0, 0, 0, 0, 1, 2, 3 }
+                    , StandardOpenOption.APPEND);
+        }
+
+        // When: it is replayed
+        val replayed = new ArrayList<WriteAheadLog.Record>();
+        long replayedTo;
+        try (val wal = new WriteAheadLog(walDir, new SimpleMeterRegistry().timer("sync"))) {
+            replayedTo = wal.replay(0, replayed::add);
+        }
+
+        // Then: the records before it come back and replay stops there, without allocating for the garbage
+        assertEquals("Should replay both records", Arrays.asList(WriteAheadLog.Op.SAVE, WriteAheadLog.Op.DELETE)
+                , replayed.stream().map(WriteAheadLog.Record::getOp).collect(Collectors.toList()));
+        assertEquals("Should stop at the garbage", end, replayedTo);
+    }
+
+    @Test
+    public void idHighWaterMarkIsCommitted() throws IOException {
+        // Given: an open repository
+        val tempDir = Files.createTempDirectory("high-water-index");
+        @Cleanup
+        val openRepository = new LuceneNoteRepository(new MMapDirectory(tempDir));
 
-        // When: search for part of 2 notes
-        val findings = repository.search("moon sun best", 10)
+        // When: a note is saved
+        val note = openRepository.save(new Note(null, "Doubt everything. Find your own light."));
+
+        // Then: the last commit already covers its id, so a crash now would never hand it out again
+        val highWater = SegmentInfos.readLatestCommit(new MMapDirectory(tempDir)).getUserData().get(IdAllocator.HIGH_WATER);
+        assertNotNull("the high water mark is committed", highWater);
+        assertTrue("the high water mark covers the note", Long.parseLong(highWater) >= note.getId());
+    }
+
+    @Test
+    public void concurrentSavesGetUniqueIds() throws IOException {
+        // Given: a repository that is node 1 of 3, reserving small blocks of ids
+        @Cleanup
+        val nodeRepository = new LuceneNoteRepository(
+                new MMapDirectory(Files.createTempDirectory("node-index")),
+                RepositorySettings.builder().idBlockSize(4).nodeId(1).nodeCount(3).durabilityMode(DurabilityMode.GROUP_COMMIT).build());
+
+        // When: notes are saved concurrently
+        val ids = IntStream.range(0, 200)
+                .parallel()
+                .mapToObj(i -> nodeRepository.save(new Note(null, Integer.toString(i))).getId())
                 .collect(Collectors.toList());
 
-        // Then: only those notes are found
-        assertEquals("Should have 2 notes found", 2, findings.size());
-        assertEquals("note1 matched on 2 terms so should be first", note1.getId(), findings.get(0).getId());
-        assertEquals("and we should have note2 as well", note2.getId(), findings.get(1).getId());
+        // Then: every id is unique, belongs to this node and can be updated
+        assertEquals("every id is unique", ids.size(), new HashSet<>(ids).size());
+        assertTrue("every id belongs to node 1", ids.stream().allMatch(id -> id % 3 == 1));
+        assertTrue("every id was handed out", ids.stream().allMatch(nodeRepository.getIdAllocator()::isHandedOut));
     }
 
-    private static void indexSomeNotes(int indexCount, LuceneNoteRepository myRepository) {
-        IntStream.range(0, indexCount)
-                .forEach(i -> myRepository.save(new Note(null, Integer.toString(i))));
+    @Test
+    public void idsFromThreadsThatAreGoneAreNotReused() throws Exception {
+        // Given: a repository reserving blocks of ids, with notes saved from threads that then went away
+        val tempDir = Files.createTempDirectory("thread-index");
+        val settings = RepositorySettings.builder().idBlockSize(4).build();
+        val ids = new HashSet<Long>();
+        try (val openRepository = new LuceneNoteRepository(new MMapDirectory(tempDir), settings)) {
+            for (int i = 0; i < 20; i++) {
+                val saver = new Thread(() -> {
+                    val id = openRepository.save(new Note(null, "Every morning we are born again.")).getId();
+                    synchronized (ids) { ids.add(id); }
+                });
+                saver.start();
+                saver.join();
+            }
+            System.gc();
+            ids.forEach(id -> assertTrue("every id was handed out", openRepository.getIdAllocator().isHandedOut(id)));
+        }
+
+        // When: it is reopened and saves again
+        @Cleanup
+        val reopened = new LuceneNoteRepository(new MMapDirectory(tempDir), settings);
+        val next = reopened.save(new Note(null, "What we do today is what matters most.")).getId();
+
+        // Then: no id is handed out twice
+        assertEquals("every id is unique", 20, ids.size());
+        assertFalse("no id is reused", ids.contains(next));
+    }
+
+    @Test
+    public void luceneInternalsAreMeasured() throws IOException {
+        // Given: a repository reporting to a registry of our own
+        val registry = new SimpleMeterRegistry();
+        @Cleanup
+        val measuredRepository = new LuceneNoteRepository(
+                new MMapDirectory(Files.createTempDirectory("measured-index")),
+                RepositorySettings.builder().meterRegistry(registry).indexName("measured").build());
+        val instrumented = new InstrumentedNoteRepository(measuredRepository, registry);
+
+        // When: notes are saved and searched for
+        instrumented.save(new Note(null, "Health is the greatest gift, contentment the greatest wealth."));
+        instrumented.search("health", 10).count();
+
+        // Then: commits, refreshes, parsing, loading and the repository calls are timed and the index is gauged
+        assertTrue("commits are timed", registry.get("notes.index.commit").tag("index", "measured").timer().count() > 0);
+        assertTrue("refreshes are timed", registry.get("notes.index.refresh").timer().count() > 0);
+        assertEquals("parsing is timed", 1, registry.get("notes.index.parse").timer().count());
+        assertTrue("loading is timed", registry.get("notes.index.load").timer().count() > 0);
+        assertEquals("saves are timed", 1, registry.get("notes.repository").tag("method", "save").timer().count());
+        assertEquals("one segment", 1.0, registry.get("notes.index.segments").gauge().value(), 0.0);
+        assertTrue("files are mapped", registry.get("notes.index.mapped.bytes").gauge().value() > 0);
+        assertEquals("the parse is a miss", 1.0, registry.get("notes.cache.misses").tag("cache", "parsed").functionCounter().count(), 0.0);
+        assertEquals("nothing is evicted", 0.0, registry.get("notes.cache.evictions").tag("cache", "results").functionCounter().count(), 0.0);
+    }
+
+    @Test
+    public void everyTuningProfileWorks() throws IOException {
+        for (val profile : IndexTuningProfile.values()) {
+            // Given: a repository tuned by the profile
+            @Cleanup
+            val tunedRepository = new LuceneNoteRepository(
+                    new MMapDirectory(Files.createTempDirectory("tuned-index")),
+                    RepositorySettings.builder().tuningProfile(profile).build());
+
+            // When: notes are saved
+            indexSomeNotes(10, tunedRepository);
+            val note = tunedRepository.save(new Note(null, "No one saves us but ourselves."));
+
+            // Then: they are found
+            assertEquals(profile + " finds the note", note, tunedRepository.findByID(note.getId()).orElse(null));
+            assertEquals(profile + " counts every note", 11, tunedRepository.count());
+        }
+    }
+
+    @Test
+    public void maintenanceDropsTombstones() throws IOException {
+        // Given: a segment of notes with some replaced and some deleted
+        val saved = Lists.newArrayList(repository.save(IntStream.range(0, 10)
+                .mapToObj(i -> new Note(null, Integer.toString(i)))
+                .collect(Collectors.toList())));
+        repository.update(new Note(saved.get(0).getId(), "replaced"), null);
+        repository.delete(saved.get(1).getId());
+
+        // When: deletes are expunged
+        val expunged = repository.expungeDeletes();
+
+        // Then: the tombstones are gone and every live note is still there
+        assertTrue("there were tombstones", expunged.getDeletedDocsBefore() > 0);
+        assertEquals("there are no tombstones", 0, expunged.getDeletedDocsAfter());
+        assertEquals("every live note is kept", 9, repository.count());
+
+        // When: merged down to one segment
+        val merged = repository.forceMerge(1);
+
+        // Then: one segment holds everything
+        assertEquals("one segment", 1, merged.getSegmentsAfter());
+        assertEquals("the replacement is found", "replaced", repository.findByID(saved.get(0).getId()).map(Note::getBody).orElse(null));
+    }
+
+    @Test
+    public void backupsAreIncrementalAndRestore() throws IOException {
+        // Given: a backup of a few notes
+        val backupDir = Files.createTempDirectory("backup");
+        val first = repository.save(new Note(null, "The mind is everything."));
+        val full = repository.backup(backupDir);
+        assertTrue("something was backed up", full.getFilesCopied() + full.getFilesLinked() > 0);
+        assertEquals("nothing was there yet", 0, full.getFilesUnchanged());
+
+        // When: more is written and backed up again
+        val second = repository.save(new Note(null, "What you think you become."));
+        val incremental = repository.backup(backupDir);
+
+        // Then: the segments the first backup copied are left alone
+        assertTrue("the old segment is kept", incremental.getFilesUnchanged() > 0);
+
+        // When: the backup is restored over another index
+        val restoreDir = Files.createTempDirectory("restored");
+        try (val other = new LuceneNoteRepository(new MMapDirectory(restoreDir))) {
+            other.save(new Note(null, "Not in the backup"));
+        }
+        IndexBackup.restore(backupDir, restoreDir);
+
+        // Then: it opens as the backed up index, with nothing of what was there before
+        @Cleanup
+        val restored = new LuceneNoteRepository(new MMapDirectory(restoreDir));
+        assertEquals("Should have both notes", 2, restored.count());
+        assertEquals("Should have the first", Optional.of(first), restored.findByID(first.getId()));
+        assertEquals("Should have the second", Optional.of(second), restored.findByID(second.getId()));
+        assertTrue("Should not reuse ids", restored.save(new Note(null, "new")).getId() > second.getId());
     }
 
     @Test
-    public void dataPersists() throws IOException {
-        // Given: an index with some data
-        val tempDir = Files.createTempDirectory("another-index");
-        val oldRepository = new LuceneNoteRepository(new MMapDirectory(tempDir));
-        indexSomeNotes(100, oldRepository);
-        val previousNote = oldRepository.save(new Note(null, "If you light a lamp for somebody, it will also brighten your path."));
-        oldRepository.close();
+    public void replicasCopyOnlyNewFilesAndRefuseWrites() throws IOException {
+        // Given: a replica that has pulled a primary with a few notes, counting what it copies
+        val first = repository.save(new Note(null, "Hatred does not cease by hatred, but only by love."));
+        val second = repository.save(new Note(null, "Health is the greatest gift."));
+        @Cleanup
+        val primary = new IndexReplicationSource(repository, 0);
+        val copied = new ArrayList<String>();
+        val counting = new ReplicationSource() {
+            @Override
+            public CommitPoint latest() throws IOException {
+                return primary.latest();
+            }
 
-        // When: the index is opened again
+            @Override
+            public void copy(long generation, String file, OutputStream out) throws IOException {
+                copied.add(file);
+                primary.copy(generation, file, out);
+            }
+        };
+        val replicaDir = new MMapDirectory(Files.createTempDirectory("replica"));
+        val sync = new ReplicaSync(counting, replicaDir);
+        assertTrue("Should copy the first commit", sync.pull());
         @Cleanup
-        val newRepository = new LuceneNoteRepository(new MMapDirectory(tempDir));
+        val replica = new LuceneNoteRepository(replicaDir, RepositorySettings.builder().readOnly(true).build());
+        assertEquals("Should have both notes", 2, replica.count());
+        val firstPull = new HashSet<String>(copied);
+
+        // When: the primary deletes one, adds another and the replica pulls again
+        repository.delete(first.getId());
+        val third = repository.save(new Note(null, "Contentment is the greatest wealth."));
+        copied.clear();
+        assertTrue("Should copy the new commit", sync.pull());
+        replica.getSearchers().refresh();
 
-        // Then:
-        //          * the next note has the next id
-        //          * the old note is findable
-        val newNote = newRepository.save(new Note(null, "You will not be punished for your anger, you will be punished by your anger."));
-        assertEquals("the new note should have an id one more than the old one", previousNote.getId() + 1, (long)(newNote.getId()));
-        assertTrue("the old note is findable", newRepository.findByID(previousNote.getId()).isPresent());
+        // Then: it searches what the primary has, having copied none of the segments it already had
+        assertEquals("Should be at the primary's generation", primary.getGeneration(), sync.getGeneration());
+        assertEquals("Should not have the deleted note", Optional.empty(), replica.findByID(first.getId()));
+        assertEquals("Should have the kept note", Optional.of(second), replica.findByID(second.getId()));
+        assertEquals("Should have the new note", Optional.of(third), replica.findByID(third.getId()));
+        assertTrue("Should copy no segment file twice", copied.stream()
+                .filter(file -> !file.startsWith("segments_"))
+                .noneMatch(firstPull::contains));
+        assertFalse("Should have nothing more to copy", sync.pull());
+
+        // Then: writes go to the primary
+        try {
+            replica.save(new Note(null, "Not here"));
+            fail("Should refuse writes");
+        } catch (UnsupportedOperationException e) {
+            assertEquals("Should still have what it had", 2, replica.count());
+        }
     }
 
     @Test
-    public void delete() {
-        // Given: an indexed note
-        val note = repository.save(new Note(null, "It is better to travel well than to arrive."));
+    public void newSegmentsStayInMemoryUntilCommitted() throws IOException {
+        // Given: a write-ahead logged index that caches new segments and preloads its term dictionary
+        val tempDir = Files.createTempDirectory("cached-index");
+        val mapped = new MMapDirectory(tempDir);
+        val cached = new NRTCachingDirectory(new PreloadingDirectory(mapped, new HashSet<>(Arrays.asList("tim", "tip"))), 5, 60);
+        val settings = RepositorySettings.builder()
+                .durabilityMode(DurabilityMode.WRITE_AHEAD_LOG)
+                .walDirectory(tempDir.resolve("wal"))
+                .checkpointIntervalMillis(0)
+                .build();
+        final Note saved;
+        try (val cachedRepository = new LuceneNoteRepository(cached, settings)) {
+            // When: a note is saved and searched
+            saved = cachedRepository.save(new Note(null, "What we think, we become."));
 
-        // When: delete
-        repository.delete(note);
+            // Then: it is found in a segment that never touched the disk
+            assertEquals("Should find the note", Optional.of(saved), cachedRepository.findByID(saved.getId()));
+            assertTrue("Should hold the new segment in memory", cached.listCachedFiles().length > 0);
+            val onDisk = Arrays.asList(mapped.listAll());
+            for (val file : cached.listCachedFiles()) { assertFalse(file + " should not be on disk", onDisk.contains(file)); }
+        }
 
-        // Then: the note is lost
-        assertFalse("note can't be found", repository.findByID(note.getId()).isPresent());
+        // When: the index is opened again after closing committed it
+        @Cleanup
+        val reopened = new LuceneNoteRepository(new MMapDirectory(tempDir));
+
+        // Then: the note was written out
+        assertEquals("Should still have the note", Optional.of(saved), reopened.findByID(saved.getId()));
     }
 
     @Test
-    public void findAll() {
-        // Given: a few indexed docs
-        val indexCount = 100;
-        indexSomeNotes(indexCount, repository);
+    public void versionsComeWithoutLoadingNotes() {
+        // Given: an index as searches see it
+        val before = repository.searchedVersion();
 
-        // When: findAll
-        val results = repository.findAll();
+        // When: a note is saved
+        val saved = repository.save(new Note(null, "Better than a thousand hollow words, is one word that brings peace."));
+        val after = repository.searchedVersion();
 
-        // Then: all are found
-        val countFound = StreamSupport.stream(results.spliterator(), false)
-                .count();
-        assertEquals("Should have the same number of found notes as indexed notes", indexCount, countFound);
+        // Then: searches see a newer index, and the note's version is there to check without loading it
+        assertTrue("Should be a newer version", after.getVersion() > before.getVersion());
+        assertTrue("Should not have changed earlier", after.getModifiedMillis() >= before.getModifiedMillis());
+        assertEquals("Should stay put without writes", after, repository.searchedVersion());
+        assertEquals("Should have the note's version", Optional.of(saved.getVersion()), repository.findVersionByID(saved.getId()));
+        assertEquals("Should have no version for no note", Optional.empty(), repository.findVersionByID(saved.getId() + 1));
+    }
+
+    @Test
+    public void createdIsKeptAcrossUpdates() {
+        // Given: a note saved a while ago
+        val saved = repository.save(new Note(null, "Peace comes from within."));
+
+        // When: it is updated right away, before any refresh
+        val updated = repository.update(new Note(saved.getId(), "Do not seek it without."), null).get();
+
+        // Then: it was still created when it was first saved, and updated just now
+        assertNotNull("Should have a created time", saved.getCreated());
+        assertEquals("Should keep the created time", saved.getCreated(), updated.getCreated());
+        assertEquals("Should keep it in the index", saved.getCreated(), repository.findByID(saved.getId()).get().getCreated());
+        assertTrue("Should be updated after it was created", updated.getUpdated() > saved.getCreated());
+    }
+
+    @Test
+    public void aggregatesCountTagsAndDays() {
+        // Given: tagged notes created over a few days
+        val day = AggregationQuery.Interval.DAY.getMillis();
+        repository.save(Arrays.asList(
+                new Note(null, "pick up milk", null, 10 * day + 5, Arrays.asList("errand", "food")),
+                new Note(null, "pick up bread", null, 10 * day + 7, Arrays.asList("errand", "food")),
+                new Note(null, "pick up kids", null, 12 * day, Arrays.asList("errand")),
+                new Note(null, "call mom", null, 12 * day + 1, Arrays.asList("Family"))));
+        repository.save(new Note(null, "pick up dry cleaning", null, 12 * day + 2, Arrays.asList("errand")));
+
+        // When: the pick ups are counted by tag and by day
+        val counted = repository.aggregate(AggregationQuery.builder()
+                .queryString("pick")
+                .tagCount(1)
+                .histogram(AggregationQuery.DateField.CREATED)
+                .build());
+
+        // Then: every hit is counted without loading a note
+        assertEquals("Should count every hit", 4, counted.getHits());
+        assertEquals("Should have the top tag", Arrays.asList(new Aggregation.TagCount("errand", 4)), counted.getTags());
+        assertEquals("Should have a bucket per day", Arrays.asList(new Aggregation.Bucket(10 * day, 2), new Aggregation.Bucket(12 * day, 2))
+                , counted.getHistogram());
+
+        // When: every note is counted by tag alone
+        val all = repository.aggregate(AggregationQuery.builder().build());
+
+        // Then: tags match exactly and there is no histogram
+        assertEquals("Should count every note", 5, all.getHits());
+        assertEquals("Should count each tag", 3, all.getTags().size());
+        assertNull("Should have no histogram", all.getHistogram());
+        assertEquals("Should find by tag", 1, repository.aggregate(AggregationQuery.builder().queryString("tags:Family").build()).getHits());
+    }
+
+    @Test
+    public void pagesSortAndFilterWithoutScoring() {
+        // Given: notes created out of order, two of them tagged errand, and one of those updated since
+        val milk = repository.save(new Note(null, "pick up milk", null, 30L, Arrays.asList("errand")));
+        val mom = repository.save(new Note(null, "call mom", null, 10L, Arrays.asList("family")));
+        val bread = repository.save(new Note(null, "pick up bread", null, 20L, Arrays.asList("errand", "food")));
+        val kids = repository.save(new Note(null, "pick up kids", null, 40L, null));
+        val updatedMilk = repository.update(milk.withTags(Arrays.asList("errand", "food")), null).get();
+
+        // When: paging one at a time oldest created first
+        val byCreated = new ArrayList<Long>();
+        NoteQuery query = NoteQuery.builder().size(1).sort(NoteSort.CREATED).build();
+        while (query != null) {
+            val page = repository.page(query);
+            page.getNotes().forEach(note -> byCreated.add(note.getId()));
+            query = page.getNextCursor() == null ? null : query.withCursor(page.getNextCursor());
+        }
+
+        // Then: every note comes once in created order
+        assertEquals("Should be in created order", Arrays.asList(mom.getId(), bread.getId(), milk.getId(), kids.getId()), byCreated);
+
+        // When: the food is listed last updated first, a page at a time
+        val food = NoteQuery.builder()
+                .size(1)
+                .sort(NoteSort.UPDATED)
+                .descending(true)
+                .filter(NoteFilter.builder().tags(Arrays.asList("food")).build())
+                .build();
+        val first = repository.page(food);
+        val second = repository.page(food.withCursor(first.getNextCursor()));
+
+        // Then: the update counts and only food comes back
+        assertEquals("Should have the last update first", Collections.singletonList(updatedMilk), first.getNotes());
+        assertEquals("Should have the other food next", Collections.singletonList(bread), second.getNotes());
+        assertNull("Should be no more food", repository.page(food.withCursor(second.getNextCursor())).getNextCursor());
+
+        // Then: ranges and queries narrow things down too, and never change a score
+        assertEquals("Should filter by id", Arrays.asList(bread, kids), repository.page(NoteQuery.builder()
+                .sort(NoteSort.ID)
+                .filter(NoteFilter.builder().idFrom(bread.getId()).idTo(kids.getId() + 1).build())
+                .build()).getNotes());
+        assertEquals("Should filter by created", Collections.singletonList(bread), repository.page(NoteQuery.builder()
+                .queryString("pick")
+                .filter(NoteFilter.builder().createdFrom(15L).createdTo(30L).build())
+                .build()).getNotes());
+        val scored = repository.page(NoteQuery.builder().queryString("pick").projection(Projection.SCORES).build()).getHits();
+        val filtered = repository.page(NoteQuery.builder()
+                .queryString("pick")
+                .projection(Projection.SCORES)
+                .filter(NoteFilter.builder().tags(Arrays.asList("errand")).build())
+                .build()).getHits();
+        assertEquals("Should keep only the errands", 2, filtered.size());
+        assertTrue("Should score as before", scored.containsAll(filtered));
+    }
+
+    @Test
+    public void suggestionsCompleteWordsMostUsedFirst() throws IOException {
+        // Given: a repository whose suggester is rebuilt on every refresh, and notes sharing some words
+        @Cleanup
+        val suggesting = new LuceneNoteRepository(new MMapDirectory(Files.createTempDirectory("test-index"))
+                , RepositorySettings.builder().suggestRebuildMillis(0).build());
+        suggesting.save(new Note(null, "pick up milk"));
+        suggesting.save(new Note(null, "Milk the cow, milk it twice"));
+        val salsa = suggesting.save(new Note(null, "mild salsa"));
+        suggesting.save(new Note(null, "run a mile for milk"));
+
+        // When: the start of a word is completed
+        val suggested = suggesting.suggest("Mil", 10);
+
+        // Then: the words starting with it come back, those in the most notes first
+        assertEquals("Should complete every word", Arrays.asList(new Suggestion("milk", 3), new Suggestion("mild", 1)
+                , new Suggestion("mile", 1)), suggested);
+        assertEquals("Should stop at count", Collections.singletonList(new Suggestion("milk", 3)), suggesting.suggest("mil", 1));
+        assertEquals("Should include the prefix if it is a word", "mile", suggesting.suggest("mile", 10).get(0).getText());
+        assertEquals("Should have nothing to complete", Collections.emptyList(), suggesting.suggest("xyz", 10));
+
+        // When: the only note with a word is deleted
+        suggesting.delete(salsa.getId());
+
+        // Then: the word is no longer suggested
+        assertEquals("Should drop deleted words", Arrays.asList(new Suggestion("milk", 3), new Suggestion("mile", 1))
+                , suggesting.suggest("mil", 10));
     }
 }
@@ -0,0 +1,275 @@
+package org.shannon.notes.repositories.impl.test;
+
+import lombok.Cleanup;
+import lombok.val;
+import org.assertj.core.util.Lists;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.shannon.notes.entities.Note;
+import org.shannon.notes.repositories.NoteQuery;
+import org.shannon.notes.repositories.NoteRepository;
+import org.shannon.notes.repositories.VersionConflictException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+import static org.junit.Assert.*;
+
+/**
+ * What every NoteRepository has to do, run once against each implementation
+ *
+ * @param <R>   The implementation
+ */
+public abstract class NoteRepositoryContractTest<R extends NoteRepository & Closeable> {
+
+    protected R repository;
+
+    /**
+     * @param path          Where the repository keeps its notes, empty or from an earlier repository since closed
+     * @return              A repository on it
+     * @throws IOException  If it cannot be opened
+     */
+    protected abstract R open(Path path) throws IOException;
+
+    protected static List<Note> indexSomeNotes(int indexCount, NoteRepository myRepository) {
+        return IntStream.range(0, indexCount)
+                .mapToObj(i -> myRepository.save(new Note(null, Integer.toString(i))))
+                .collect(Collectors.toList());
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        repository = open(Files.createTempDirectory("test-index"));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        repository.close();
+    }
+
+    @Test
+    public void saveNoID() {
+        // Given: no ID and a string
+        val givenNote = new Note(null, "The tongue like a sharp knife… Kills without drawing blood.");
+
+        // When: save
+        val savedNote = repository.save(givenNote);
+
+        // Then: the saved Note has a generated id and is findable
+        assertNotNull("Should have generated ID", savedNote.getId());
+        val retrievedNote = repository.findByID(savedNote.getId());
+        assertTrue("Should be retrieved", retrievedNote.isPresent());
+        assertEquals("SavedNote should be retrieved", savedNote, retrievedNote.get());
+        assertEquals("SavedNote should have the same body as the Given Note", givenNote.getBody(), savedNote.getBody());
+    }
+
+    @Test
+    public void saveID() {
+        // Given: some already saved note
+        val givenNote = repository.save(new Note(null, "Pain is certain; suffering is optional."));
+
+        // When: save
+        val savedNote = repository.save(givenNote);
+
+        // Then:
+        //              * the saved note is the given note
+        //              * the saved note is findable
+        assertEquals("saved note should be given note", givenNote, savedNote);
+        val foundNote = repository.findByID(givenNote.getId());
+        assertTrue(foundNote.isPresent());
+        assertEquals("saved note is findable", savedNote, foundNote.get());
+    }
+
+    @Test
+    public void search() {
+        // Given: an few indexed notes
+        val note1 = repository.save(new Note(null, "Three things cannot be long hidden: the sun, the moon and the truth."));
+        val note2 = repository.save(new Note(null, "The only real failure in life is not to be true to the best one knows."));
+        repository.save(new Note(null, "Purity or impurity depends on oneself. No one can purify another."));
+
+        // When: search for part of 2 notes
+        val findings = repository.search("moon sun best", 10)
+                .collect(Collectors.toList());
+
+        // Then: only those notes are found
+        assertEquals("Should have 2 notes found", 2, findings.size());
+        assertEquals("note1 matched on 2 terms so should be first", note1.getId(), findings.get(0).getId());
+        assertEquals("and we should have note2 as well", note2.getId(), findings.get(1).getId());
+    }
+
+    @Test
+    public void dataPersists() throws IOException {
+        // Given: an index with some data
+        val tempDir = Files.createTempDirectory("another-index");
+        val oldRepository = open(tempDir);
+        indexSomeNotes(20, oldRepository);
+        val previousNote = oldRepository.save(new Note(null, "If you light a lamp for somebody, it will also brighten your path."));
+        oldRepository.close();
+
+        // When: the index is opened again
+        @Cleanup
+        val newRepository = open(tempDir);
+
+        // Then:
+        //          * the next note has the next id
+        //          * the old note is findable
+        val newNote = newRepository.save(new Note(null, "You will not be punished for your anger, you will be punished by your anger."));
+        assertEquals("the new note should have an id one more than the old one", previousNote.getId() + 1, (long)(newNote.getId()));
+        assertTrue("the old note is findable", newRepository.findByID(previousNote.getId()).isPresent());
+    }
+
+    @Test
+    public void delete() {
+        // Given: an indexed note
+        val note = repository.save(new Note(null, "It is better to travel well than to arrive."));
+
+        // When: delete
+        repository.delete(note);
+
+        // Then: the note is lost
+        assertFalse("note can't be found", repository.findByID(note.getId()).isPresent());
+    }
+
+    @Test
+    public void findAll() {
+        // Given: a few indexed docs
+        val indexCount = 100;
+        indexSomeNotes(indexCount, repository);
+
+        // When: findAll
+        val results = repository.findAll();
+
+        // Then: all are found
+        val countFound = StreamSupport.stream(results.spliterator(), false)
+                .count();
+        assertEquals("Should have the same number of found notes as indexed notes", indexCount, countFound);
+    }
+
+    @Test
+    public void bulkOperations() {
+        // Given: a batch of notes saved at once
+        val saved = Lists.newArrayList(repository.save(Arrays.asList(
+                new Note(null, "Holding on to anger is like grasping a hot coal."),
+                new Note(null, "Better than a thousand hollow words, is one word that brings peace."),
+                new Note(null, "Peace comes from within."))));
+
+        // Then: they all got ids and can be counted and found
+        assertEquals("all three are saved", 3, saved.size());
+        assertTrue("all three have ids", saved.stream().allMatch(note -> note.getId() != null));
+        assertEquals("all three are counted", 3, repository.count());
+        assertTrue("the first exists", repository.exists(saved.get(0).getId()));
+        assertEquals("the second is findable", saved.get(1), repository.findOne(saved.get(1).getId()));
+
+        // When: two are deleted at once
+        repository.delete(saved.subList(0, 2));
+
+        // Then: only the last remains
+        assertEquals("only one is counted", 1, repository.count());
+        assertFalse("the first is gone", repository.exists(saved.get(0).getId()));
+        assertNull("the second is gone", repository.findOne(saved.get(1).getId()));
+
+        // When: everything is deleted
+        repository.deleteAll();
+
+        // Then: nothing remains
+        assertEquals("nothing is counted", 0, repository.count());
+    }
+
+    @Test
+    public void pageThroughEverything() {
+        // Given: a few indexed docs
+        val indexCount = 25;
+        indexSomeNotes(indexCount, repository);
+
+        // When: paging through them 10 at a time
+        val seen = new HashSet<Long>();
+        NoteQuery query = NoteQuery.builder().size(10).build();
+        int pages = 0;
+        while (query != null) {
+            val page = repository.page(query);
+            page.getNotes().forEach(note -> assertTrue("no note is seen twice", seen.add(note.getId())));
+            query = page.getNextCursor() == null ? null : query.withCursor(page.getNextCursor());
+            pages++;
+        }
+
+        // Then: every note is seen once over three pages
+        assertEquals("every note is seen", indexCount, seen.size());
+        assertEquals("three pages of ten", 3, pages);
+    }
+
+    @Test
+    public void pageThroughSearch() {
+        // Given: an few indexed notes
+        val note1 = repository.save(new Note(null, "Three things cannot be long hidden: the sun, the moon and the truth."));
+        val note2 = repository.save(new Note(null, "The only real failure in life is not to be true to the best one knows."));
+        repository.save(new Note(null, "Purity or impurity depends on oneself. No one can purify another."));
+
+        // When: search one note at a time
+        val first = repository.page(NoteQuery.builder().queryString("moon sun best").size(1).build());
+        val second = repository.page(NoteQuery.builder().queryString("moon sun best").size(1).cursor(first.getNextCursor()).build());
+
+        // Then: the best match comes first and the other follows
+        assertEquals("note1 matched on 2 terms so should be first", Collections.singletonList(note1), first.getNotes());
+        assertEquals("and we should have note2 on the next page", Collections.singletonList(note2), second.getNotes());
+    }
+
+    @Test
+    public void updateReplacesInPlace() {
+        // Given: a saved note
+        val note = repository.save(new Note(null, "Every morning we are born again."));
+
+        // When: it is updated
+        val updated = repository.update(new Note(note.getId(), "What we do today is what matters most."), null);
+
+        // Then: there is still exactly one note, with the new body and a newer version
+        assertTrue("update should succeed", updated.isPresent());
+        assertTrue("version should move on", updated.get().getVersion() > note.getVersion());
+        assertEquals("still one note", 1, repository.count());
+        assertEquals("the new body is found", updated.get(), repository.findByID(note.getId()).orElse(null));
+        assertEquals("the version is found", updated.get().getVersion(), repository.findByID(note.getId()).map(Note::getVersion).orElse(null));
+    }
+
+    @Test
+    public void updateNeedsASavedNote() {
+        // Given: a note that was saved and deleted
+        val deleted = repository.save(new Note(null, "Nothing is permanent."));
+        repository.delete(deleted.getId());
+
+        // When: updating an id never handed out, and the deleted note
+        val neverHandedOut = repository.update(new Note(1000L, "Nothing is permanent."), null);
+        val brought = repository.update(new Note(deleted.getId(), "Everything is permanent."), null);
+
+        // Then: nothing is updated
+        assertFalse("update should be refused", neverHandedOut.isPresent());
+        assertFalse("a deleted note should stay deleted", brought.isPresent());
+        assertEquals("nothing saved", 0, repository.count());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void saveNeedsAnIdWeHandedOut() {
+        // When: saving a note under an id never handed out
+        repository.save(new Note(1000L, "Nothing is permanent."));
+    }
+
+    @Test(expected = VersionConflictException.class)
+    public void updateChecksVersion() {
+        // Given: a note saved twice
+        val note = repository.save(new Note(null, "Three things cannot be long hidden."));
+        repository.update(new Note(note.getId(), "The sun, the moon and the truth."), note.getVersion());
+
+        // When: updating against the first version
+        repository.update(new Note(note.getId(), "The truth."), note.getVersion());
+
+        // Then: a conflict is thrown
+    }
+}
@@ -0,0 +1,73 @@
+package org.shannon.notes.repositories.impl.test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.val;
+import org.jmock.Expectations;
+import org.jmock.api.Invocation;
+import org.jmock.integration.junit4.JUnitRuleMockery;
+import org.jmock.lib.action.CustomAction;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.shannon.notes.entities.Note;
+import org.shannon.notes.repositories.NoteRepository;
+import org.shannon.notes.repositories.impl.QueuedNoteRepository;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.*;
+
+public class QueuedNoteRepositoryTest {
+    @Rule
+    public final JUnitRuleMockery mockery = new JUnitRuleMockery() {{
+        setThreadingPolicy(new Synchroniser());
+    }};
+    private final NoteRepository repository = mockery.mock(NoteRepository.class);
+
+    @Test
+    public void givenFullQueue_whenSaveAsync_thenRefusedStraightAway() throws InterruptedException {
+        // Given: one ingest thread stuck on a write and one more write waiting for it
+        val registry = new SimpleMeterRegistry();
+        val queued = new QueuedNoteRepository(repository, 1, 1, registry);
+        val started = new CountDownLatch(1);
+        val release = new CountDownLatch(1);
+        val first = new Note(null, "first");
+        val second = new Note(null, "second");
+        mockery.checking(new Expectations() {{
+            oneOf(repository).save(first);
+                will(new CustomAction("wait to be released") {
+                    @Override
+                    public Object invoke(Invocation invocation) throws Throwable {
+                        started.countDown();
+                        release.await();
+                        return first.withId(1L);
+                    }
+                });
+            oneOf(repository).save(second);
+                will(returnValue(second.withId(2L)));
+        }});
+        val firstSaved = queued.saveAsync(first);
+        started.await();
+        val secondSaved = queued.saveAsync(second);
+
+        // When: a third write comes in
+        val thirdSaved = queued.saveAsync(new Note(null, "third"));
+
+        // Then: it is refused without waiting and the others still go through once the index catches up
+        assertTrue("Should be refused already", thirdSaved.isCompletedExceptionally());
+        try {
+            thirdSaved.join();
+            fail("Should have been refused");
+        } catch (CompletionException e) {
+            assertTrue("Should say the queue is full", e.getCause() instanceof RejectedExecutionException);
+        }
+        assertEquals("Should count the refusal", 1.0, registry.get("notes.ingest.rejected").counter().count(), 0);
+        assertEquals("Should have one waiting", 1, queued.getQueueDepth());
+        release.countDown();
+        assertEquals("first should be saved", Long.valueOf(1L), firstSaved.join().getId());
+        assertEquals("second should be saved", Long.valueOf(2L), secondSaved.join().getId());
+        queued.close();
+    }
+}
@@ -0,0 +1,161 @@
+package org.shannon.notes.repositories.impl.test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.Cleanup;
+import lombok.val;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+import org.junit.Test;
+import org.shannon.notes.entities.Note;
+import org.shannon.notes.repositories.AggregationQuery;
+import org.shannon.notes.repositories.NoteFilter;
+import org.shannon.notes.repositories.NoteQuery;
+import org.shannon.notes.repositories.NoteSort;
+import org.shannon.notes.repositories.Suggestion;
+import org.shannon.notes.repositories.impl.RepositorySettings;
+import org.shannon.notes.repositories.impl.ShardedNoteRepository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class ShardedNoteRepositoryTest extends NoteRepositoryContractTest<ShardedNoteRepository> {
+    private static final int SHARDS = 3;
+
+    @Override
+    protected ShardedNoteRepository open(Path path) throws IOException {
+        val directories = new ArrayList<Directory>();
+        for (int i = 0; i < SHARDS; i++) {
+            directories.add(new MMapDirectory(path.resolve("shard-" + i)));
+        }
+        return new ShardedNoteRepository(directories, RepositorySettings.builder().build());
+    }
+
+    @Test
+    public void notesAreSpreadOverEveryShard() {
+        // Given: a few saved notes
+        val saved = indexSomeNotes(30, repository);
+
+        // Then:
+        //          * every shard holds some of them
+        //          * every note is findable by id and they are all counted
+        assertTrue("every shard holds notes", repository.getShards().stream().allMatch(shard -> shard.count() > 0));
+        saved.forEach(note -> assertEquals("note is findable", note, repository.findByID(note.getId()).orElse(null)));
+        assertEquals("all are counted", 30, repository.count());
+        assertEquals("ids are unique across shards", 30, saved.stream().map(Note::getId).distinct().count());
+    }
+
+    @Test
+    public void searchGathersEveryShard() {
+        // Given: matching notes on more than one shard
+        val matching = IntStream.range(0, 10)
+                .mapToObj(i -> repository.save(new Note(null, "The mind is everything. What you think you become. " + i)))
+                .collect(Collectors.toSet());
+        repository.save(new Note(null, "Peace comes from within."));
+
+        // When: searching
+        val found = repository.search("mind", 100).collect(Collectors.toSet());
+
+        // Then: every matching note is found and nothing else
+        assertEquals("every matching note is found", matching, found);
+    }
+
+    @Test
+    public void aggregatesAddUpOverShards() {
+        // Given: tagged notes spread over every shard
+        repository.save(IntStream.range(0, 30)
+                .mapToObj(i -> new Note(null, Integer.toString(i), null, null, Arrays.asList(i % 3 == 0 ? "fizz" : "other")))
+                .collect(Collectors.toList()));
+
+        // When: every note is counted by tag and day
+        val counted = repository.aggregate(AggregationQuery.builder()
+                .histogram(AggregationQuery.DateField.UPDATED)
+                .build());
+
+        // Then: the shards' counts add up
+        assertEquals("Should count every note", 30, counted.getHits());
+        assertEquals("Should count every other", 20, counted.getTags().get(0).getCount());
+        assertEquals("Should count every fizz", 10, counted.getTags().get(1).getCount());
+        assertEquals("Should count every day", 30, counted.getHistogram().stream().mapToLong(bucket -> bucket.getCount()).sum());
+        assertTrue("Should know when each was created", repository.findAll().iterator().next().getCreated() != null);
+    }
+
+    @Test
+    public void sortedPagesMergeInOrder() {
+        // Given: fizzes spread over every shard
+        repository.save(IntStream.range(0, 30)
+                .mapToObj(i -> new Note(null, Integer.toString(i), null, null, Arrays.asList(i % 3 == 0 ? "fizz" : "other")))
+                .collect(Collectors.toList()));
+
+        // When: paging through the fizzes newest id first, four at a time
+        val ids = new ArrayList<Long>();
+        NoteQuery query = NoteQuery.builder()
+                .size(4)
+                .sort(NoteSort.ID)
+                .descending(true)
+                .filter(NoteFilter.builder().tags(Arrays.asList("fizz")).build())
+                .build();
+        while (query != null) {
+            val page = repository.page(query);
+            page.getNotes().forEach(note -> ids.add(note.getId()));
+            query = page.getNextCursor() == null ? null : query.withCursor(page.getNextCursor());
+        }
+
+        // Then: every fizz comes once, in order across the shards
+        val expected = new ArrayList<Long>(ids);
+        expected.sort(Comparator.reverseOrder());
+        assertEquals("Should be every fizz", 10, new HashSet<Long>(ids).size());
+        assertEquals("Should be newest first", expected, ids);
+    }
+
+    @Test
+    public void suggestionsAddUpOverShards() throws IOException {
+        // Given: notes spread over every shard, suggesting as soon as they are saved
+        val directories = new ArrayList<Directory>();
+        val path = Files.createTempDirectory("sharded-index");
+        for (int i = 0; i < SHARDS; i++) {
+            directories.add(new MMapDirectory(path.resolve("shard-" + i)));
+        }
+        @Cleanup
+        val suggesting = new ShardedNoteRepository(directories, RepositorySettings.builder().suggestRebuildMillis(0).build());
+        suggesting.save(IntStream.range(0, 30)
+                .mapToObj(i -> new Note(null, i % 3 == 0 ? "fizz" : "fizzle"))
+                .collect(Collectors.toList()));
+
+        // When: the start of the word is completed
+        val suggested = suggesting.suggest("fiz", 10);
+
+        // Then: every shard's uses are added up
+        assertEquals("Should add up every shard", Arrays.asList(new Suggestion("fizzle", 20), new Suggestion("fizz", 10)), suggested);
+    }
+
+    @Test
+    public void unparseableQueriesAreCountedAsFailures() throws IOException {
+        // Given: shards reporting to a registry of our own
+        val registry = new SimpleMeterRegistry();
+        val directories = new ArrayList<Directory>();
+        val path = Files.createTempDirectory("sharded-index");
+        for (int i = 0; i < SHARDS; i++) {
+            directories.add(new MMapDirectory(path.resolve("shard-" + i)));
+        }
+        @Cleanup
+        val measured = new ShardedNoteRepository(directories, RepositorySettings.builder().meterRegistry(registry).indexName("measured").build());
+
+        // When: searching and paging with a query that cannot be parsed
+        val found = measured.search("body:(", 10).count();
+        val paged = measured.page(NoteQuery.builder().queryString("body:(").size(10).build());
+
+        // Then: nothing is found and both are counted against the shard that parsed them
+        assertEquals("nothing is found", 0, found);
+        assertTrue("nothing is paged", paged.getNotes().isEmpty());
+        assertEquals("both are failures", 2.0, registry.get("notes.index.errors").tag("index", "measured-shard-0").counter().count(), 0.0);
+    }
+}